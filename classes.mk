@@ -1,33 +1,63 @@
 CLASSES=	\
+	com.h9labs.jwbem.CIMDateTime	\
+	com.h9labs.jwbem.msvm.JobState	\
 	com.h9labs.jwbem.msvm.memory.MsvmMemory	\
+	com.h9labs.jwbem.msvm.MsvmConcreteJob	\
+	com.h9labs.jwbem.msvm.MsvmHostInventory	\
+	com.h9labs.jwbem.msvm.MsvmJobException	\
+	com.h9labs.jwbem.msvm.MsvmJobTracker	\
+	com.h9labs.jwbem.msvm.MsvmMethodResult	\
 	com.h9labs.jwbem.msvm.MsvmObject	\
 	com.h9labs.jwbem.msvm.networking.MsvmActiveConnection	\
 	com.h9labs.jwbem.msvm.networking.MsvmInternalEthernetPort	\
 	com.h9labs.jwbem.msvm.networking.MsvmLANEndPoint	\
+	com.h9labs.jwbem.msvm.networking.MsvmNetworkTopology	\
 	com.h9labs.jwbem.msvm.networking.MsvmSwitchPort	\
+	com.h9labs.jwbem.msvm.networking.MsvmSwitchPortListener	\
+	com.h9labs.jwbem.msvm.networking.MsvmSwitchPortProvisioner	\
+	com.h9labs.jwbem.msvm.networking.MsvmSwitchPortResolver	\
 	com.h9labs.jwbem.msvm.networking.MsvmSyntheticEthernetPort	\
 	com.h9labs.jwbem.msvm.networking.MsvmSyntheticEthernetPortSettingData	\
 	com.h9labs.jwbem.msvm.networking.MsvmVirtualSwitch	\
 	com.h9labs.jwbem.msvm.networking.MsvmVirtualSwitchManagementService	\
 	com.h9labs.jwbem.msvm.networking.MsvmVmLANEndpoint	\
 	com.h9labs.jwbem.msvm.processor.MsvmProcessor	\
+	com.h9labs.jwbem.msvm.virtualsystem.MsvmBulkStateChange	\
 	com.h9labs.jwbem.msvm.virtualsystem.MsvmComputerSystem	\
+	com.h9labs.jwbem.msvm.virtualsystem.MsvmComputerSystemRegistry	\
+	com.h9labs.jwbem.msvm.virtualsystem.MsvmComputerSystemStateCache	\
+	com.h9labs.jwbem.msvm.virtualsystem.MsvmSettingDataCache	\
 	com.h9labs.jwbem.msvm.virtualsystem.MsvmSummaryInformation	\
 	com.h9labs.jwbem.msvm.virtualsystem.MsvmVirtualSystemSettingData	\
+	com.h9labs.jwbem.msvm.virtualsystem.RequestedInformation	\
 	com.h9labs.jwbem.msvm.virtualsystem.RequestedState	\
 	com.h9labs.jwbem.msvm.virtualsystemmanagement.MsvmVirtualSystemManagementService	\
+	com.h9labs.jwbem.msvm.virtualsystemmanagement.ProcessorLoadBuffer	\
+	com.h9labs.jwbem.msvm.virtualsystemmanagement.ProcessorLoadSampler	\
+	com.h9labs.jwbem.SWbemArrayDecoder	\
 	com.h9labs.jwbem.SWbemDispatchObject	\
+	com.h9labs.jwbem.SWbemEnumerationException	\
+	com.h9labs.jwbem.SWbemEventListener	\
+	com.h9labs.jwbem.SWbemEventSource	\
+	com.h9labs.jwbem.SWbemEventWatcher	\
 	com.h9labs.jwbem.SWbemLocator	\
 	com.h9labs.jwbem.SWbemMethod	\
 	com.h9labs.jwbem.SWbemMethodSet	\
 	com.h9labs.jwbem.SWbemObject	\
 	com.h9labs.jwbem.SWbemObjectPath	\
 	com.h9labs.jwbem.SWbemObjectSet	\
+	com.h9labs.jwbem.SWbemObjectSnapshot	\
+	com.h9labs.jwbem.SWbemObjectText	\
 	com.h9labs.jwbem.SWbemProperty	\
 	com.h9labs.jwbem.SWbemPropertySet	\
 	com.h9labs.jwbem.SWbemServices	\
+	com.h9labs.jwbem.SWbemServicesPool	\
 	com.h9labs.jwbem.SWbemSet	\
 	com.h9labs.jwbem.SWbemSetItem	\
+	com.h9labs.jwbem.SWbemSetItemFactories	\
+	com.h9labs.jwbem.SWbemSetItemFactory	\
+	com.h9labs.jwbem.SWbemValueConverter	\
+	com.h9labs.jwbem.SWbemValueConverters	\
 	com.h9labs.jwbem.win32.Win32NTLogEvent	\
 	com.h9labs.jwbem.win32.Win32PerfFormattedDataPerfOSMemory	\
 	com.h9labs.jwbem.win32.Win32PhysicalMemory	\
@@ -0,0 +1,320 @@
+/*
+ * Copyright (c) 2009, Hyper9 All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer. Redistributions in binary
+ * form must reproduce the above copyright notice, this list of conditions and
+ * the following disclaimer in the documentation and/or other materials provided
+ * with the distribution. Neither the name of Hyper9 nor the names of its
+ * contributors may be used to endorse or promote products derived from this
+ * software without specific prior written permission. THIS SOFTWARE IS PROVIDED
+ * BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO
+ * EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT,
+ * INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+
+package com.h9labs.jwbem;
+
+import java.util.Date;
+
+/**
+ * Parses and formats CIM DATETIME values. A timestamp has the form
+ * yyyymmddHHMMSS.mmmmmmsUUU, where s is + or - and UUU is the offset from UTC
+ * in minutes. An interval has the form ddddddddHHMMSS.mmmmmm:000.
+ * 
+ * @author akutz
+ * @remarks The parse methods read the value in place and allocate nothing, so
+ *          they are safe to call from any thread and cheap enough to call for
+ *          every event in a log. Asterisks in the microseconds or the UTC
+ *          offset mean the field is not known and are read as zero.
+ * @see "http://msdn.microsoft.com/en-us/library/aa387237(VS.85).aspx"
+ */
+final public class CIMDateTime
+{
+    /**
+     * The length of a CIM DATETIME value.
+     */
+    final static public int LENGTH = 25;
+
+    private static final long MICROS_PER_SECOND = 1000000L;
+
+    private static final long MICROS_PER_MINUTE = 60 * MICROS_PER_SECOND;
+
+    private static final long MICROS_PER_DAY = 86400 * MICROS_PER_SECOND;
+
+    /**
+     * The number of days from 0000-03-01 to 1970-01-01.
+     */
+    private static final long EPOCH_OFFSET_DAYS = 719468;
+
+    private CIMDateTime()
+    {
+    }
+
+    /**
+     * Gets a value indicating whether or not a CIM DATETIME value is an
+     * interval.
+     * 
+     * @param value The CIM DATETIME value.
+     * @return A value indicating whether or not the value is an interval.
+     */
+    public static boolean isInterval(final CharSequence value)
+    {
+        return value != null && value.length() == LENGTH
+            && value.charAt(21) == ':';
+    }
+
+    /**
+     * Parses a CIM DATETIME timestamp.
+     * 
+     * @param value The timestamp, e.g. 20090603164552.123456-300.
+     * @return The number of microseconds since 1970-01-01T00:00:00Z.
+     * @throws IllegalArgumentException When the value is not a CIM DATETIME
+     *         timestamp.
+     */
+    public static long parseMicros(final CharSequence value)
+    {
+        checkFormat(value);
+        final char sign = value.charAt(21);
+        if (sign != '+' && sign != '-')
+        {
+            throw new IllegalArgumentException("Not a CIM timestamp: " + value);
+        }
+
+        final int year = digits(value, 0, 4);
+        final int month = digits(value, 4, 2);
+        final int day = digits(value, 6, 2);
+        if (month < 1 || month > 12 || day < 1 || day > 31)
+        {
+            throw new IllegalArgumentException("Not a CIM timestamp: " + value);
+        }
+
+        final int offset = digitsOrZero(value, 22, 3);
+        final long local =
+            daysFromCivil(year, month, day) * MICROS_PER_DAY
+                + timeOfDay(value);
+        return local - (sign == '-' ? -offset : offset) * MICROS_PER_MINUTE;
+    }
+
+    /**
+     * Parses a CIM DATETIME timestamp.
+     * 
+     * @param value The timestamp, e.g. 20090603164552.123456-300.
+     * @return The timestamp, truncated to milliseconds.
+     * @throws IllegalArgumentException When the value is not a CIM DATETIME
+     *         timestamp.
+     */
+    public static Date parseDate(final CharSequence value)
+    {
+        return new Date(floorDiv(parseMicros(value), 1000));
+    }
+
+    /**
+     * Parses a CIM DATETIME interval.
+     * 
+     * @param value The interval, e.g. 00000001132312.000000:000.
+     * @return The length of the interval in microseconds.
+     * @throws IllegalArgumentException When the value is not a CIM DATETIME
+     *         interval.
+     */
+    public static long parseIntervalMicros(final CharSequence value)
+    {
+        checkFormat(value);
+        if (value.charAt(21) != ':')
+        {
+            throw new IllegalArgumentException("Not a CIM interval: " + value);
+        }
+        return digits(value, 0, 8) * MICROS_PER_DAY + timeOfDay(value);
+    }
+
+    /**
+     * Formats a CIM DATETIME timestamp.
+     * 
+     * @param epochMicros The number of microseconds since
+     *        1970-01-01T00:00:00Z.
+     * @param offsetMinutes The offset from UTC, in minutes, of the time zone
+     *        to format the timestamp in.
+     * @return The timestamp.
+     */
+    public static String format(final long epochMicros, final int offsetMinutes)
+    {
+        if (offsetMinutes < -999 || offsetMinutes > 999)
+        {
+            throw new IllegalArgumentException("Invalid UTC offset: "
+                + offsetMinutes);
+        }
+
+        final long local = epochMicros + offsetMinutes * MICROS_PER_MINUTE;
+        final long days = floorDiv(local, MICROS_PER_DAY);
+
+        // Convert the days since the epoch into a civil date.
+        final long z = days + EPOCH_OFFSET_DAYS;
+        final long era = (z >= 0 ? z : z - 146096) / 146097;
+        final long doe = z - era * 146097;
+        final long yoe = (doe - doe / 1460 + doe / 36524 - doe / 146096) / 365;
+        final long doy = doe - (365 * yoe + yoe / 4 - yoe / 100);
+        final long mp = (5 * doy + 2) / 153;
+        final long day = doy - (153 * mp + 2) / 5 + 1;
+        final long month = mp < 10 ? mp + 3 : mp - 9;
+        final long year = yoe + era * 400 + (month <= 2 ? 1 : 0);
+        if (year < 0 || year > 9999)
+        {
+            throw new IllegalArgumentException("Out of range: " + epochMicros);
+        }
+
+        final char[] buf = new char[LENGTH];
+        put(buf, 0, 4, year);
+        put(buf, 4, 2, month);
+        put(buf, 6, 2, day);
+        putTimeOfDay(buf, local - days * MICROS_PER_DAY);
+        buf[21] = offsetMinutes < 0 ? '-' : '+';
+        put(buf, 22, 3, Math.abs(offsetMinutes));
+        return new String(buf);
+    }
+
+    /**
+     * Formats a CIM DATETIME timestamp in UTC.
+     * 
+     * @param date The timestamp.
+     * @return The timestamp.
+     */
+    public static String format(final Date date)
+    {
+        return format(date.getTime() * 1000, 0);
+    }
+
+    /**
+     * Formats a CIM DATETIME interval.
+     * 
+     * @param micros The length of the interval in microseconds.
+     * @return The interval.
+     */
+    public static String formatInterval(final long micros)
+    {
+        final long days = micros / MICROS_PER_DAY;
+        if (micros < 0 || days > 99999999)
+        {
+            throw new IllegalArgumentException("Out of range: " + micros);
+        }
+
+        final char[] buf = new char[LENGTH];
+        put(buf, 0, 8, days);
+        putTimeOfDay(buf, micros - days * MICROS_PER_DAY);
+        buf[21] = ':';
+        put(buf, 22, 3, 0);
+        return new String(buf);
+    }
+
+    private static void checkFormat(final CharSequence value)
+    {
+        if (value == null || value.length() != LENGTH
+            || value.charAt(14) != '.')
+        {
+            throw new IllegalArgumentException("Not a CIM datetime: " + value);
+        }
+    }
+
+    /**
+     * Reads the HHMMSS.mmmmmm part of a value, in microseconds.
+     */
+    private static long timeOfDay(final CharSequence value)
+    {
+        final int hour = digits(value, 8, 2);
+        final int minute = digits(value, 10, 2);
+        final int second = digits(value, 12, 2);
+        if (hour > 23 || minute > 59 || second > 59)
+        {
+            throw new IllegalArgumentException("Not a CIM datetime: " + value);
+        }
+        return (hour * 3600L + minute * 60L + second) * MICROS_PER_SECOND
+            + digitsOrZero(value, 15, 6);
+    }
+
+    /**
+     * Writes the HHMMSS.mmmmmm part of a value.
+     */
+    private static void putTimeOfDay(final char[] buf, final long micros)
+    {
+        final long seconds = micros / MICROS_PER_SECOND;
+        put(buf, 8, 2, seconds / 3600);
+        put(buf, 10, 2, seconds / 60 % 60);
+        put(buf, 12, 2, seconds % 60);
+        buf[14] = '.';
+        put(buf, 15, 6, micros % MICROS_PER_SECOND);
+    }
+
+    private static int digits(
+        final CharSequence value,
+        final int offset,
+        final int length)
+    {
+        int n = 0;
+        for (int x = offset; x < offset + length; ++x)
+        {
+            final int d = value.charAt(x) - '0';
+            if (d < 0 || d > 9)
+            {
+                throw new IllegalArgumentException("Not a CIM datetime: "
+                    + value);
+            }
+            n = n * 10 + d;
+        }
+        return n;
+    }
+
+    /**
+     * Reads a field that may be all asterisks, in which case it is zero.
+     */
+    private static int digitsOrZero(
+        final CharSequence value,
+        final int offset,
+        final int length)
+    {
+        return value.charAt(offset) == '*' ? 0 : digits(value, offset, length);
+    }
+
+    private static void put(
+        final char[] buf,
+        final int offset,
+        final int length,
+        long n)
+    {
+        for (int x = offset + length - 1; x >= offset; --x)
+        {
+            buf[x] = (char) ('0' + n % 10);
+            n /= 10;
+        }
+    }
+
+    /**
+     * Gets the number of days from 1970-01-01 to a civil date in the
+     * proleptic Gregorian calendar.
+     */
+    private static long daysFromCivil(int year, final int month, final int day)
+    {
+        year -= month <= 2 ? 1 : 0;
+        final long era = (year >= 0 ? year : year - 399) / 400;
+        final long yoe = year - era * 400;
+        final long mp = month > 2 ? month - 3 : month + 9;
+        final long doy = (153 * mp + 2) / 5 + day - 1;
+        final long doe = yoe * 365 + yoe / 4 - yoe / 100 + doy;
+        return era * 146097 + doe - EPOCH_OFFSET_DAYS;
+    }
+
+    private static long floorDiv(final long x, final long y)
+    {
+        final long q = x / y;
+        return (x % y != 0 && (x ^ y) < 0) ? q - 1 : q;
+    }
+}
@@ -0,0 +1,194 @@
+/*
+ * Copyright (c) 2009, Hyper9 All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer. Redistributions in binary
+ * form must reproduce the above copyright notice, this list of conditions and
+ * the following disclaimer in the documentation and/or other materials provided
+ * with the distribution. Neither the name of Hyper9 nor the names of its
+ * contributors may be used to endorse or promote products derived from this
+ * software without specific prior written permission. THIS SOFTWARE IS PROVIDED
+ * BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO
+ * EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT,
+ * INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+
+package com.h9labs.jwbem;
+
+import java.lang.reflect.Array;
+import org.jinterop.dcom.common.JIException;
+import org.jinterop.dcom.core.IJIUnsigned;
+import org.jinterop.dcom.core.JIString;
+import org.jinterop.dcom.core.JIVariant;
+
+/**
+ * Decodes the elements of an array-valued property. byte[], short[], int[],
+ * long[] and String[] are filled directly, without reflection or boxing the
+ * result; other array classes are filled element by element through
+ * SWbemValueConverters.
+ * 
+ * @author akutz
+ */
+final class SWbemArrayDecoder
+{
+    private SWbemArrayDecoder()
+    {
+    }
+
+    /**
+     * Decodes the elements of an array.
+     * 
+     * @param elements The elements of the array as returned by
+     *        JIArray.getArrayInstance().
+     * @param clazz The class of the array to return.
+     * @param unsigned32 Whether or not the elements are uint32 values, which
+     *        WMI sends as signed 32-bit integers.
+     * @return The array.
+     * @throws JIException When an error occurs.
+     * @throws UnsupportedOperationException When an element cannot be
+     *         converted to the component type of the array.
+     */
+    static Object decode(
+        final Object[] elements,
+        final Class<?> clazz,
+        final boolean unsigned32) throws JIException
+    {
+        if (clazz == byte[].class)
+        {
+            final byte[] arr = new byte[elements.length];
+            for (int x = 0; x < arr.length; ++x)
+            {
+                final Number n = getNumber(elements[x], unsigned32);
+                arr[x] = n == null ? 0 : n.byteValue();
+            }
+            return arr;
+        }
+
+        if (clazz == short[].class)
+        {
+            final short[] arr = new short[elements.length];
+            for (int x = 0; x < arr.length; ++x)
+            {
+                final Number n = getNumber(elements[x], unsigned32);
+                arr[x] = n == null ? 0 : n.shortValue();
+            }
+            return arr;
+        }
+
+        if (clazz == int[].class)
+        {
+            final int[] arr = new int[elements.length];
+            for (int x = 0; x < arr.length; ++x)
+            {
+                final Number n = getNumber(elements[x], unsigned32);
+                arr[x] = n == null ? 0 : n.intValue();
+            }
+            return arr;
+        }
+
+        if (clazz == long[].class)
+        {
+            final long[] arr = new long[elements.length];
+            for (int x = 0; x < arr.length; ++x)
+            {
+                final Number n = getNumber(elements[x], unsigned32);
+                arr[x] = n == null ? 0 : n.longValue();
+            }
+            return arr;
+        }
+
+        if (clazz == String[].class)
+        {
+            final String[] arr = new String[elements.length];
+            for (int x = 0; x < arr.length; ++x)
+            {
+                final Object o = getElement(elements[x], unsigned32);
+                arr[x] = o == null ? null : o.toString();
+            }
+            return arr;
+        }
+
+        final Class<?> compType = clazz.getComponentType();
+        final SWbemValueConverter<?> converter =
+            SWbemValueConverters.forClass(compType);
+        final Object arr = Array.newInstance(compType, elements.length);
+        for (int x = 0; x < elements.length; ++x)
+        {
+            final Object e = elements[x];
+            if (e instanceof JIVariant)
+            {
+                final JIVariant v = (JIVariant) e;
+                Array.set(arr, x, converter.convert(unsigned32
+                    ? SWbemValueConverters.toUnsigned32(v)
+                    : v));
+            }
+            else
+            {
+                Array.set(arr, x, getElement(e, unsigned32));
+            }
+        }
+        return arr;
+    }
+
+    /**
+     * Unwraps an element into a String, Number or Boolean, or null. A uint32
+     * element is widened to a Long.
+     */
+    private static Object getElement(Object o, final boolean unsigned32)
+        throws JIException
+    {
+        if (o instanceof JIVariant)
+        {
+            final JIVariant v = (JIVariant) o;
+            if (v.getType() == JIVariant.VT_NULL
+                || v.getType() == JIVariant.VT_EMPTY)
+            {
+                return null;
+            }
+            o = v.getObject();
+        }
+        if (o instanceof IJIUnsigned)
+        {
+            return ((IJIUnsigned) o).getValue();
+        }
+        if (unsigned32 && o instanceof Integer)
+        {
+            return ((Integer) o).intValue() & 0xFFFFFFFFL;
+        }
+        if (o instanceof JIString)
+        {
+            return ((JIString) o).getString();
+        }
+        return o;
+    }
+
+    /**
+     * Unwraps a numeric element. Strings are parsed, as WMI returns 64-bit
+     * integers as strings.
+     */
+    private static Number getNumber(final Object o, final boolean unsigned32)
+        throws JIException
+    {
+        final Object e = getElement(o, unsigned32);
+        if (e == null || e instanceof Number)
+        {
+            return (Number) e;
+        }
+        if (e instanceof Boolean)
+        {
+            return ((Boolean) e) ? 1 : 0;
+        }
+        return Long.valueOf(e.toString().trim());
+    }
+}
@@ -25,6 +25,7 @@
 
 package com.h9labs.jwbem;
 
+import org.jinterop.dcom.common.JIException;
 import org.jinterop.dcom.impls.automation.IJIDispatch;
 
 /**
@@ -78,4 +79,25 @@ public abstract class SWbemDispatchObject
     {
         return this.service;
     }
+
+    /**
+     * Releases the server's reference to the underlying dispatch object. The
+     * object must not be used to talk to the server afterwards.
+     */
+    public void release()
+    {
+        if (this.objectDispatcher == null)
+        {
+            return;
+        }
+
+        try
+        {
+            this.objectDispatcher.release();
+        }
+        catch (JIException ex)
+        {
+            // Swallow the exception
+        }
+    }
 }
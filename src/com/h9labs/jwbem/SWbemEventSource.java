@@ -0,0 +1,132 @@
+/*
+ * Copyright (c) 2009, Hyper9 All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer. Redistributions in binary
+ * form must reproduce the above copyright notice, this list of conditions and
+ * the following disclaimer in the documentation and/or other materials provided
+ * with the distribution. Neither the name of Hyper9 nor the names of its
+ * contributors may be used to endorse or promote products derived from this
+ * software without specific prior written permission. THIS SOFTWARE IS PROVIDED
+ * BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO
+ * EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT,
+ * INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+
+package com.h9labs.jwbem;
+
+import org.jinterop.dcom.common.JIException;
+import org.jinterop.dcom.core.IJIComObject;
+import org.jinterop.dcom.core.JIVariant;
+import org.jinterop.dcom.impls.JIObjectFactory;
+import org.jinterop.dcom.impls.automation.IJIDispatch;
+
+/**
+ * An SWbemEventSource class. An event source delivers the events of a
+ * notification query one at a time, blocking until the next event arrives.
+ * 
+ * @author akutz
+ * @remarks The server holds the subscription until the event source is
+ *          released. Keep the timeouts passed to nextEvent below the socket
+ *          timeout of the session, and call nextEvent in a loop.
+ * @see SWbemServices#execNotificationQuery(String)
+ */
+public class SWbemEventSource extends SWbemDispatchObject
+{
+    /**
+     * Waits for the next event for as long as it takes.
+     */
+    final static public int wbemTimeoutInfinite = -1;
+
+    /**
+     * The error returned by NextEvent when no event arrived in time.
+     */
+    final static public int wbemErrTimedout = 0x80043001;
+
+    /**
+     * Initializes a new instance of the SWbemEventSource class.
+     * 
+     * @param objectDispatcher The underlying dispatch object used to
+     *        communicate with the server.
+     * @param service The service connection.
+     */
+    public SWbemEventSource(IJIDispatch objectDispatcher, SWbemServices service)
+    {
+        super(objectDispatcher, service);
+    }
+
+    /**
+     * Waits for the next event.
+     * 
+     * @param timeoutMillis The time to wait, in milliseconds, or
+     *        wbemTimeoutInfinite.
+     * @return The event, or null if no event arrived in time.
+     * @throws JIException When an error occurs.
+     */
+    public SWbemObject nextEvent(int timeoutMillis) throws JIException
+    {
+        return nextEvent(timeoutMillis, SWbemObject.class);
+    }
+
+    /**
+     * Waits for the next event.
+     * 
+     * @param <T> The type of object.
+     * 
+     * @param timeoutMillis The time to wait, in milliseconds, or
+     *        wbemTimeoutInfinite.
+     * @param clazz The class of the return object.
+     * @return The event, or null if no event arrived in time.
+     * @throws JIException When an error occurs.
+     */
+    public <T extends SWbemObject> T nextEvent(
+        int timeoutMillis,
+        Class<T> clazz) throws JIException
+    {
+        Object[] inParams = new Object[]
+        {
+            new Integer(timeoutMillis)
+        };
+        JIVariant[] results;
+        try
+        {
+            results = super.objectDispatcher.callMethodA("NextEvent", inParams);
+        }
+        catch (JIException e)
+        {
+            if (SWbemServices.getWbemErrorCode(e) == wbemErrTimedout)
+            {
+                return null;
+            }
+            throw e;
+        }
+
+        IJIComObject co = results[0].getObjectAsComObject();
+        IJIDispatch dispatch = (IJIDispatch) JIObjectFactory.narrowObject(co);
+        try
+        {
+            return SWbemSetItemFactories.get(clazz).newInstance(
+                dispatch,
+                super.service);
+        }
+        catch (JIException e)
+        {
+            throw e;
+        }
+        catch (Exception e)
+        {
+            throw new JIException(-1, e.getMessage(), e);
+        }
+    }
+}
@@ -0,0 +1,263 @@
+/*
+ * Copyright (c) 2009, Hyper9 All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer. Redistributions in binary
+ * form must reproduce the above copyright notice, this list of conditions and
+ * the following disclaimer in the documentation and/or other materials provided
+ * with the distribution. Neither the name of Hyper9 nor the names of its
+ * contributors may be used to endorse or promote products derived from this
+ * software without specific prior written permission. THIS SOFTWARE IS PROVIDED
+ * BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO
+ * EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT,
+ * INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+
+package com.h9labs.jwbem;
+
+import java.util.logging.Level;
+import org.jinterop.dcom.common.JISystem;
+
+/**
+ * Runs a notification query on a thread of its own and passes the events to
+ * a listener. If the subscription fails, for example because the connection
+ * was lost, the watcher subscribes again after a delay.
+ * 
+ * @author akutz
+ * @remarks The watcher waits for each event at most timeoutMillis, so that
+ *          stop takes effect within that time without interrupting a call
+ *          to the server.
+ */
+public class SWbemEventWatcher
+{
+    /**
+     * The default time to wait for each event, in milliseconds.
+     */
+    final static public int DEFAULT_TIMEOUT_MILLIS = 1000;
+
+    /**
+     * The default time to wait before subscribing again after an error, in
+     * milliseconds.
+     */
+    final static public long DEFAULT_RETRY_MILLIS = 5000;
+
+    private final SWbemServices service;
+
+    private final String query;
+
+    private final SWbemEventListener listener;
+
+    private final int timeoutMillis;
+
+    private final long retryMillis;
+
+    /**
+     * The thread that watches, or null if the watcher is stopped. A thread
+     * ends as soon as it is no longer the watcher's thread.
+     */
+    private volatile Thread thread;
+
+    /**
+     * Initializes a new instance of the SWbemEventWatcher class with the
+     * default timeouts.
+     * 
+     * @param service The service connection.
+     * @param query The event query.
+     * @param listener The listener that receives the events.
+     */
+    public SWbemEventWatcher(
+        SWbemServices service,
+        String query,
+        SWbemEventListener listener)
+    {
+        this(
+            service,
+            query,
+            listener,
+            DEFAULT_TIMEOUT_MILLIS,
+            DEFAULT_RETRY_MILLIS);
+    }
+
+    /**
+     * Initializes a new instance of the SWbemEventWatcher class.
+     * 
+     * @param service The service connection.
+     * @param query The event query.
+     * @param listener The listener that receives the events.
+     * @param timeoutMillis The time to wait for each event, in milliseconds.
+     * @param retryMillis The time to wait before subscribing again after an
+     *        error, in milliseconds.
+     */
+    public SWbemEventWatcher(
+        SWbemServices service,
+        String query,
+        SWbemEventListener listener,
+        int timeoutMillis,
+        long retryMillis)
+    {
+        if (timeoutMillis < 1 || retryMillis < 0)
+        {
+            throw new IllegalArgumentException();
+        }
+        this.service = service;
+        this.query = query;
+        this.listener = listener;
+        this.timeoutMillis = timeoutMillis;
+        this.retryMillis = retryMillis;
+    }
+
+    /**
+     * Starts watching on a new daemon thread.
+     */
+    public synchronized void start()
+    {
+        if (this.thread != null)
+        {
+            throw new IllegalStateException("The watcher is already started.");
+        }
+        this.thread = new Thread(new Runnable()
+        {
+            public void run()
+            {
+                watch();
+            }
+        }, "SWbemEventWatcher: " + this.query);
+        this.thread.setDaemon(true);
+        this.thread.start();
+    }
+
+    /**
+     * Stops watching. The thread ends once its current wait for an event has
+     * timed out.
+     */
+    public synchronized void stop()
+    {
+        this.thread = null;
+    }
+
+    /**
+     * Gets a value indicating whether or not the watcher has been started and
+     * not stopped.
+     * 
+     * @return A value indicating whether or not the watcher is running.
+     */
+    public boolean isRunning()
+    {
+        return this.thread != null;
+    }
+
+    private boolean isCurrent()
+    {
+        return this.thread == Thread.currentThread();
+    }
+
+    private void watch()
+    {
+        try
+        {
+            watchEvents();
+        }
+        finally
+        {
+            // Let the watcher be started again if this thread ends for any
+            // other reason than stop.
+            synchronized (this)
+            {
+                if (isCurrent())
+                {
+                    this.thread = null;
+                }
+            }
+        }
+    }
+
+    private void watchEvents()
+    {
+        while (isCurrent())
+        {
+            SWbemEventSource source = null;
+            try
+            {
+                source = this.service.execNotificationQuery(this.query);
+                notifySubscribed();
+                while (isCurrent())
+                {
+                    final SWbemObject event =
+                        source.nextEvent(this.timeoutMillis);
+                    if (event != null)
+                    {
+                        notifyEvent(event);
+                    }
+                }
+            }
+            catch (Exception e)
+            {
+                JISystem.getLogger().log(
+                    Level.WARNING,
+                    "Error watching events of " + this.query,
+                    e);
+                pause();
+            }
+            finally
+            {
+                if (source != null)
+                {
+                    source.release();
+                }
+            }
+        }
+    }
+
+    private void notifySubscribed()
+    {
+        try
+        {
+            this.listener.subscribed(this.service);
+        }
+        catch (RuntimeException e)
+        {
+            JISystem.getLogger().log(
+                Level.WARNING,
+                "Error in event listener",
+                e);
+        }
+    }
+
+    private void notifyEvent(SWbemObject event)
+    {
+        try
+        {
+            this.listener.eventReceived(event);
+        }
+        catch (RuntimeException e)
+        {
+            JISystem.getLogger().log(
+                Level.WARNING,
+                "Error in event listener",
+                e);
+        }
+    }
+
+    private void pause()
+    {
+        try
+        {
+            Thread.sleep(this.retryMillis);
+        }
+        catch (InterruptedException e)
+        {
+            // Swallow the exception; the loop checks whether to go on.
+        }
+    }
+}
@@ -35,7 +35,10 @@ import org.jinterop.dcom.impls.automation.IJIDispatch;
  * An SWbemMethod.
  * 
  * @author akutz
- * 
+ * @remarks The same SWbemMethod is shared by every object of a class through
+ *          the service's method cache, so the InParameters object must be
+ *          treated as a read-only template. Use spawnInParameters to get an
+ *          instance to fill in for a call.
  */
 public class SWbemMethod extends SWbemDispatchObject implements SWbemSetItem
 {
@@ -61,7 +64,7 @@ public class SWbemMethod extends SWbemDispatchObject implements SWbemSetItem
      * @return The name of the method.
      * @throws JIException When an error occurs.
      */
-    public String getName() throws JIException
+    public synchronized String getName() throws JIException
     {
         if (this.name != null)
         {
@@ -73,12 +76,28 @@ public class SWbemMethod extends SWbemDispatchObject implements SWbemSetItem
     }
 
     /**
-     * Gets the InParameters object.
+     * Gets a new instance of the InParameters object. Methods are shared by
+     * every caller through the service's method cache, so the template itself
+     * is never handed out; this is the same as spawnInParameters.
      * 
-     * @return The InParameters object.
+     * @return A new instance of the InParameters object, or null if the
+     *         method has no in parameters.
      * @throws JIException When an error occurs.
      */
     public SWbemObject getInParameters() throws JIException
+    {
+        return spawnInParameters();
+    }
+
+    /**
+     * Gets the InParameters template of the method.
+     * 
+     * @return The InParameters template, or null if the method has no in
+     *         parameters.
+     * @throws JIException When an error occurs.
+     */
+    private synchronized SWbemObject getInParametersTemplate()
+        throws JIException
     {
         if (this.inParams != null)
         {
@@ -86,6 +105,12 @@ public class SWbemMethod extends SWbemDispatchObject implements SWbemSetItem
         }
 
         JIVariant variant = super.objectDispatcher.get("InParameters");
+        if (variant.getType() == JIVariant.VT_NULL
+            || variant.getType() == JIVariant.VT_EMPTY)
+        {
+            // The method has no in parameters.
+            return null;
+        }
         IJIComObject co = variant.getObjectAsComObject();
         IJIDispatch dispatch = (IJIDispatch) JIObjectFactory.narrowObject(co);
         this.inParams = new SWbemObject(dispatch, super.service);
@@ -98,7 +123,7 @@ public class SWbemMethod extends SWbemDispatchObject implements SWbemSetItem
      * @return The OutParameters object.
      * @throws JIException When an error occurs.
      */
-    public SWbemObject getOutParameters() throws JIException
+    public synchronized SWbemObject getOutParameters() throws JIException
     {
         if (this.outParams != null)
         {
@@ -111,4 +136,35 @@ public class SWbemMethod extends SWbemDispatchObject implements SWbemSetItem
         this.outParams = new SWbemObject(dispatch, super.service);
         return this.outParams;
     }
+
+    /**
+     * Creates a new instance of the InParameters object for a single call.
+     * The instance may be filled in and passed to SWbemObject.execMethod
+     * without affecting other callers of this method.
+     * 
+     * @return A new instance of the InParameters object, or null if the
+     *         method has no in parameters.
+     * @throws JIException When an error occurs.
+     * @see "http://msdn.microsoft.com/en-us/library/aa393776(VS.85).aspx"
+     */
+    public SWbemObject spawnInParameters() throws JIException
+    {
+        final SWbemObject template = getInParametersTemplate();
+        if (template == null)
+        {
+            return null;
+        }
+
+        Object[] inParams = new Object[]
+        {
+            new Integer(0)
+        };
+        JIVariant[] results =
+            template.getObjectDispatcher().callMethodA(
+                "SpawnInstance_",
+                inParams);
+        IJIComObject co = results[0].getObjectAsComObject();
+        IJIDispatch dispatch = (IJIDispatch) JIObjectFactory.narrowObject(co);
+        return new SWbemObject(dispatch, super.service);
+    }
 }
@@ -26,13 +26,13 @@
 package com.h9labs.jwbem;
 
 import java.lang.reflect.Array;
-import java.text.SimpleDateFormat;
-import java.util.Date;
+import java.util.Map;
+import java.util.TreeMap;
 import org.jinterop.dcom.common.JIException;
 import org.jinterop.dcom.common.JISystem;
 import org.jinterop.dcom.core.IJIComObject;
 import org.jinterop.dcom.core.JIArray;
-import org.jinterop.dcom.core.JIUnsignedByte;
+import org.jinterop.dcom.core.JIString;
 import org.jinterop.dcom.core.JIVariant;
 import org.jinterop.dcom.impls.JIObjectFactory;
 import org.jinterop.dcom.impls.automation.IJIDispatch;
@@ -45,6 +45,22 @@ import org.jinterop.dcom.impls.automation.IJIDispatch;
  */
 public class SWbemObject extends SWbemDispatchObject implements SWbemSetItem
 {
+    /**
+     * The error returned by GetIDsOfNames for a name that is not a member of
+     * the object.
+     */
+    private static final int DISP_E_UNKNOWNNAME = 0x80020006;
+
+    /**
+     * The error returned by Invoke for a member that does not exist.
+     */
+    private static final int DISP_E_MEMBERNOTFOUND = 0x80020003;
+
+    /**
+     * The error returned by an interface that does not implement a call.
+     */
+    private static final int E_NOTIMPL = 0x80004001;
+
     /**
      * This object's SWbemObjectPath.
      */
@@ -54,6 +70,24 @@ public class SWbemObject extends SWbemDispatchObject implements SWbemSetItem
 
     private SWbemMethodSet methSet;
 
+    /**
+     * Whether or not properties may be read as dynamic members of the object's
+     * own dispatch interface.
+     */
+    private boolean directPropertyAccess = true;
+
+    /**
+     * Whether or not a property has been read as a dynamic member of the
+     * object's own dispatch interface.
+     */
+    private boolean directPropertyAccessConfirmed = false;
+
+    /**
+     * The properties read by hydrate, by name; null until the object has been
+     * hydrated.
+     */
+    private Map<String, SWbemProperty> hydratedProperties;
+
     /**
      * Initializes a new instance of the SWbemObject class.
      * 
@@ -72,7 +106,7 @@ public class SWbemObject extends SWbemDispatchObject implements SWbemSetItem
      * @return This object's SWbemObjectPath.
      * @throws JIException When an error occurs.
      */
-    public SWbemObjectPath getObjectPath() throws JIException
+    public synchronized SWbemObjectPath getObjectPath() throws JIException
     {
         if (this.objectPath != null)
         {
@@ -150,6 +184,301 @@ public class SWbemObject extends SWbemDispatchObject implements SWbemSetItem
         return this.methSet;
     }
 
+    /**
+     * Gets a method of this object's class. Unlike getMethods, this does not
+     * enumerate the class's methods for every object; they are read once per
+     * class and shared through the service's method cache.
+     * 
+     * @param methodName The name of the method.
+     * @return The method.
+     * @throws JIException When an error occurs, or with the error code
+     *         WBEM_E_INVALID_METHOD when the class has no such method.
+     * @see SWbemServices#getMethod(String, String)
+     */
+    public SWbemMethod getMethod(String methodName) throws JIException
+    {
+        return super.service.getMethod(
+            getObjectPath().getClazz(),
+            methodName);
+    }
+
+    /**
+     * Executes a method of this object.
+     * 
+     * @param methodName The name of the method.
+     * @param inParams The in parameters, usually created with
+     *        SWbemMethod.spawnInParameters, or null if the method has none.
+     * @return The out parameters, or null if the method has none.
+     * @throws JIException When an error occurs.
+     * @see "http://msdn.microsoft.com/en-us/library/aa393868(VS.85).aspx"
+     */
+    public SWbemObject execMethod(String methodName, SWbemObject inParams)
+        throws JIException
+    {
+        Object[] methodParams =
+            new Object[]
+            {
+                new JIString(methodName),
+                inParams != null ? new JIVariant(inParams
+                    .getObjectDispatcher()) : JIVariant.NULL(),
+                new Integer(0), JIVariant.NULL(),
+            };
+        JIVariant[] results =
+            super.objectDispatcher.callMethodA("ExecMethod_", methodParams);
+        if (results[0].getType() == JIVariant.VT_NULL
+            || results[0].getType() == JIVariant.VT_EMPTY)
+        {
+            return null;
+        }
+        IJIComObject co = results[0].getObjectAsComObject();
+        IJIDispatch dispatch = (IJIDispatch) JIObjectFactory.narrowObject(co);
+        return new SWbemObject(dispatch, super.service);
+    }
+
+    /**
+     * Gets an object that is embedded in a property of this object, such as
+     * the TargetInstance of an intrinsic event.
+     * 
+     * @param <T> The type of object.
+     * 
+     * @param propertyName The name of the property.
+     * @param clazz The class of the return object.
+     * @return The embedded object, or null if the property does not exist or
+     *         is null.
+     * @throws JIException When an error occurs.
+     */
+    public <T extends SWbemObject> T getEmbeddedObject(
+        String propertyName,
+        Class<T> clazz) throws JIException
+    {
+        try
+        {
+            final SWbemProperty prop = getPropertyItem(propertyName);
+            if (prop == null)
+            {
+                return null;
+            }
+            final JIVariant variant = prop.getVariant();
+            if (variant == null || variant.getType() == JIVariant.VT_NULL
+                || variant.getType() == JIVariant.VT_EMPTY)
+            {
+                return null;
+            }
+            IJIComObject co = variant.getObjectAsComObject();
+            IJIDispatch dispatch =
+                (IJIDispatch) JIObjectFactory.narrowObject(co);
+            return SWbemSetItemFactories.get(clazz).newInstance(
+                dispatch,
+                super.service);
+        }
+        catch (JIException e)
+        {
+            throw e;
+        }
+        catch (Exception e)
+        {
+            throw new JIException(-1, e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Reads every property of this object and keeps their names, CIM types
+     * and values locally. Once hydrated, the typed property getters are served
+     * from the local copy without further round trips. Calling this method
+     * again re-reads the properties.
+     * <p>
+     * The values are read with a single GetObjectText_ call and parsed
+     * locally. The CIM types are read from the class definition the first
+     * time an object of the class is hydrated through the same service.
+     * Properties that hold embedded objects are not part of the parsed text
+     * and are read individually.
+     * </p>
+     * 
+     * @throws JIException When an error occurs.
+     */
+    public void hydrate() throws JIException
+    {
+        final SWbemObjectText text = SWbemObjectText.parse(getObjectText());
+        final Map<String, Integer> types =
+            super.service.getPropertyTypes(text.getClassName());
+        final Map<String, Object> values = text.getValues();
+
+        final Map<String, SWbemProperty> hydrated =
+            new TreeMap<String, SWbemProperty>(String.CASE_INSENSITIVE_ORDER);
+        for (final Map.Entry<String, Integer> e : types.entrySet())
+        {
+            final String name = e.getKey();
+            final int cimType = e.getValue().intValue();
+            final JIVariant value;
+            if ((cimType & ~SWbemValueConverters.CIM_FLAG_ARRAY)
+                == SWbemObjectText.CIM_OBJECT)
+            {
+                final SWbemProperty p = readPropertyItem(name);
+                if (p == null)
+                {
+                    continue;
+                }
+                value = p.getVariant();
+            }
+            else
+            {
+                value = SWbemObjectText.toVariant(values.get(name), cimType);
+            }
+            hydrated.put(name, new SWbemProperty(name, cimType, value));
+        }
+        this.hydratedProperties = hydrated;
+    }
+
+    /**
+     * Gets a value indicating whether or not this object's properties have
+     * been read by hydrate.
+     * 
+     * @return A value indicating whether or not this object's properties have
+     *         been read by hydrate.
+     */
+    public boolean isHydrated()
+    {
+        return this.hydratedProperties != null;
+    }
+
+    /**
+     * Creates a detached, immutable and serializable copy of this object's
+     * path and property values, then releases the server's references to
+     * this object. The object must not be used to talk to the server
+     * afterwards, although its typed property getters keep working from the
+     * hydrated values.
+     * 
+     * @return A snapshot of this object.
+     * @throws JIException When an error occurs.
+     */
+    public SWbemObjectSnapshot toSnapshot() throws JIException
+    {
+        if (this.hydratedProperties == null)
+        {
+            hydrate();
+        }
+
+        final SWbemObjectPath path = getObjectPath();
+        final SWbemObjectSnapshot snapshot =
+            new SWbemObjectSnapshot(
+                path.getPath(),
+                path.getClazz(),
+                this.hydratedProperties,
+                super.service);
+
+        release();
+        return snapshot;
+    }
+
+    @Override
+    public void release()
+    {
+        if (this.objectPath != null)
+        {
+            this.objectPath.release();
+        }
+        if (this.propSet != null)
+        {
+            this.propSet.release();
+        }
+        if (this.methSet != null)
+        {
+            this.methSet.release();
+        }
+        super.release();
+    }
+
+    /**
+     * Gets a property of this object. If the object has been hydrated the
+     * property is served locally. Otherwise it is read from the server.
+     * 
+     * @param propertyName The name of the property.
+     * @return The property, or null if it does not exist.
+     * @throws Exception When an error occurs.
+     */
+    protected SWbemProperty getPropertyItem(String propertyName)
+        throws Exception
+    {
+        if (this.hydratedProperties != null)
+        {
+            return this.hydratedProperties.get(propertyName);
+        }
+
+        return readPropertyItem(propertyName);
+    }
+
+    /**
+     * Reads a property of this object from the server. The property is read as
+     * a dynamic member of the object's own dispatch interface, which costs a
+     * single round trip once the member's DISPID is known. If that is not
+     * supported the property is read through the Properties_ collection
+     * instead.
+     * 
+     * @param propertyName The name of the property.
+     * @return The property, or null if it does not exist.
+     * @throws JIException When an error occurs.
+     */
+    private SWbemProperty readPropertyItem(String propertyName)
+        throws JIException
+    {
+        if (this.directPropertyAccess)
+        {
+            JIVariant value = null;
+            try
+            {
+                value = super.objectDispatcher.get(propertyName);
+                this.directPropertyAccessConfirmed = true;
+            }
+            catch (JIException e)
+            {
+                final int code = e.getErrorCode();
+                if (code == DISP_E_MEMBERNOTFOUND || code == E_NOTIMPL)
+                {
+                    // Dynamic members are not supported if the very first
+                    // read fails this way; otherwise the property is simply
+                    // not a member and falls back for this call only.
+                    if (!this.directPropertyAccessConfirmed)
+                    {
+                        this.directPropertyAccess = false;
+                    }
+                }
+                else if (code != DISP_E_UNKNOWNNAME)
+                {
+                    throw e;
+                }
+            }
+
+            if (value != null)
+            {
+                if (!SWbemValueConverters.isSignDependent(value))
+                {
+                    return new SWbemProperty(propertyName, value);
+                }
+
+                // A negative 32-bit value may be a uint32, so the property's
+                // CIM type is read from the class definition.
+                final Integer cimType = super.service.getPropertyTypes(
+                    getObjectPath().getClazz()).get(propertyName);
+                return cimType == null
+                    ? new SWbemProperty(propertyName, value)
+                    : new SWbemProperty(propertyName, cimType, value);
+            }
+        }
+
+        try
+        {
+            return getProperties().getItem(propertyName);
+        }
+        catch (JIException e)
+        {
+            throw e;
+        }
+        catch (Exception e)
+        {
+            throw new JIException(-1, e.getMessage(), e);
+        }
+    }
+
     @SuppressWarnings("unchecked")
     protected <T extends Object> T getProperty(
         String propertyName,
@@ -157,7 +486,7 @@ public class SWbemObject extends SWbemDispatchObject implements SWbemSetItem
     {
         try
         {
-            SWbemProperty prop = getProperties().getItem(propertyName);
+            SWbemProperty prop = getPropertyItem(propertyName);
 
             if (prop == null)
             {
@@ -171,6 +500,11 @@ public class SWbemObject extends SWbemDispatchObject implements SWbemSetItem
                 // Get the property value.
                 Object pv = prop.getValue();
 
+                if (pv == null)
+                {
+                    return null;
+                }
+
                 // Check for an empty array that may be returned as a single
                 // value.
                 if (pv.equals(0))
@@ -179,30 +513,10 @@ public class SWbemObject extends SWbemDispatchObject implements SWbemSetItem
                 }
 
                 final JIArray jiarr = (JIArray) pv;
-                final JIVariant[] jivarr =
-                    (JIVariant[]) jiarr.getArrayInstance();
-                final T arr = (T) Array.newInstance(compType, jivarr.length);
-
-                for (int x = 0; x < jivarr.length; ++x)
-                {
-                    if (compType == String.class)
-                    {
-                        Array.set(arr, x, jivarr[x].getObjectAsString2());
-                    }
-                    else if (compType == Short.class || compType == short.class)
-                    {
-                        Array.set(arr, x, jivarr[x].getObjectAsShort());
-                    }
-                    else if (compType == Integer.class || compType == int.class)
-                    {
-                        Array.set(arr, x, jivarr[x].getObjectAsInt());
-                    }
-                    else if (compType == Long.class || compType == long.class)
-                    {
-                        Array.set(arr, x, jivarr[x].getObjectAsLong());
-                    }
-                }
-                return (T) arr;
+                return (T) SWbemArrayDecoder.decode(
+                    (Object[]) jiarr.getArrayInstance(),
+                    clazz,
+                    prop.isUnsigned32());
             }
 
             if (clazz == String.class)
@@ -210,37 +524,11 @@ public class SWbemObject extends SWbemDispatchObject implements SWbemSetItem
                 return (T) prop.toString();
             }
 
-            if (clazz == Short.class || clazz == short.class)
-            {
-                return (T) new Short(
-                    ((JIUnsignedByte) prop.getValue())
-                        .getValue()
-                        .shortValue());
-            }
-
-            if (clazz == Integer.class || clazz == int.class)
-            {
-                return (T) prop.getValueAsInteger();
-            }
-
-            if (clazz == Long.class || clazz == long.class)
-            {
-                return (T) prop.getValueAsLong();
-            }
-
-            if (clazz == Boolean.class)
-            {
-                return (T) prop.getValueAsBoolean();
-            }
-
-            if (clazz == Date.class)
-            {
-                // yyyyMMddHHmmss.SSSSSZ
-                // 20090603164552.000000-300
-                SimpleDateFormat sdf = new SimpleDateFormat("yyyyMMdd");
-                String dateString = prop.toString().substring(0, 8);
-                return (T) sdf.parse(dateString);
-            }
+            return prop.getValueAs(clazz);
+        }
+        catch (UnsupportedOperationException e)
+        {
+            throw e;
         }
         catch (Throwable e)
         {
@@ -25,6 +25,9 @@
 
 package com.h9labs.jwbem;
 
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
 import org.jinterop.dcom.common.JIException;
 import org.jinterop.dcom.impls.automation.IJIDispatch;
 
@@ -63,7 +66,7 @@ public class SWbemObjectPath extends SWbemDispatchObject
      *         in the COM API. This is the default property of this object.
      * @throws JIException When an error occurs.
      */
-    public String getPath() throws JIException
+    public synchronized String getPath() throws JIException
     {
         if (this.path != null)
         {
@@ -79,7 +82,7 @@ public class SWbemObjectPath extends SWbemDispatchObject
      * @return The name of the class that is part of the object path.
      * @throws JIException When an error occurs.
      */
-    public String getClazz() throws JIException
+    public synchronized String getClazz() throws JIException
     {
         if (this.clazz != null)
         {
@@ -89,4 +92,146 @@ public class SWbemObjectPath extends SWbemDispatchObject
         this.clazz = super.objectDispatcher.get("Class").getObjectAsString2();
         return this.clazz;
     }
+
+    /**
+     * Gets the name of the class that is part of an object path, without
+     * asking the server.
+     * 
+     * @param path An object path, such as
+     *        \\HOST\root\virtualization:Msvm_ConcreteJob.InstanceID="1".
+     * @return The name of the class.
+     */
+    public static String parseClass(String path)
+    {
+        final int start = classStart(path);
+        int end = path.length();
+        for (int x = start; x < path.length(); ++x)
+        {
+            final char c = path.charAt(x);
+            if (c == '.' || c == '=')
+            {
+                end = x;
+                break;
+            }
+        }
+        return path.substring(start, end);
+    }
+
+    /**
+     * Gets the key properties that are part of an object path, without asking
+     * the server. Quoted values are unescaped.
+     * 
+     * @param path An object path, such as
+     *        \\HOST\root\virtualization:Msvm_ConcreteJob.InstanceID="1".
+     * @return The key property values by name, in the order they appear in
+     *         the path. The map is empty for a class path or a singleton.
+     * @throws IllegalArgumentException When the keys cannot be parsed.
+     */
+    public static Map<String, String> parseKeys(String path)
+    {
+        final Map<String, String> keys = new LinkedHashMap<String, String>();
+        final int dot = path.indexOf('.', classStart(path));
+        if (dot < 0)
+        {
+            return keys;
+        }
+
+        int x = dot + 1;
+        while (x < path.length())
+        {
+            final int eq = path.indexOf('=', x);
+            if (eq < 0)
+            {
+                throw new IllegalArgumentException("Invalid path: " + path);
+            }
+            final String name = path.substring(x, eq);
+            x = eq + 1;
+
+            final StringBuilder value = new StringBuilder();
+            if (x < path.length() && path.charAt(x) == '"')
+            {
+                for (++x; x < path.length() && path.charAt(x) != '"'; ++x)
+                {
+                    if (path.charAt(x) == '\\' && x + 1 < path.length())
+                    {
+                        ++x;
+                    }
+                    value.append(path.charAt(x));
+                }
+                if (x >= path.length())
+                {
+                    throw new IllegalArgumentException("Invalid path: " + path);
+                }
+                ++x;
+            }
+            else
+            {
+                for (; x < path.length() && path.charAt(x) != ','; ++x)
+                {
+                    value.append(path.charAt(x));
+                }
+            }
+            keys.put(name, value.toString());
+
+            if (x < path.length() && path.charAt(x) == ',')
+            {
+                ++x;
+            }
+        }
+        return keys;
+    }
+
+    /**
+     * Gets a canonical form of an object path by which two paths to the same
+     * object can be compared: the relative path in lower case, with the keys
+     * sorted by name. The server and namespace are dropped, and the result is
+     * itself a path that normalizes to the same string.
+     * 
+     * @param path An object path.
+     * @return The canonical form of the path.
+     * @throws IllegalArgumentException When the keys cannot be parsed.
+     */
+    public static String normalize(String path)
+    {
+        final Map<String, String> keys =
+            new TreeMap<String, String>(String.CASE_INSENSITIVE_ORDER);
+        keys.putAll(parseKeys(path));
+        final StringBuilder sb = new StringBuilder(parseClass(path));
+        char sep = '.';
+        for (final Map.Entry<String, String> e : keys.entrySet())
+        {
+            sb.append(sep).append(e.getKey()).append("=\"");
+            sb.append(escapeKeyValue(e.getValue())).append('"');
+            sep = ',';
+        }
+        return sb.toString().toLowerCase();
+    }
+
+    /**
+     * Escapes a key value for use between the double quotes of an object
+     * path.
+     * 
+     * @param value The key value.
+     * @return The value with its backslashes and double quotes escaped.
+     */
+    public static String escapeKeyValue(String value)
+    {
+        return value.replace("\\", "\\\\").replace("\"", "\\\"");
+    }
+
+    /**
+     * Gets the index at which the class name of an object path starts. The
+     * namespace separator is the first colon ahead of any key, since the keys
+     * of an association are themselves paths.
+     */
+    private static int classStart(String path)
+    {
+        final int colon = path.indexOf(':');
+        if (colon < 0)
+        {
+            return 0;
+        }
+        final int eq = path.indexOf('=');
+        return eq >= 0 && eq < colon ? 0 : colon + 1;
+    }
 }
\ No newline at end of file
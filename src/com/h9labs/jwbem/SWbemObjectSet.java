@@ -25,6 +25,9 @@
 
 package com.h9labs.jwbem;
 
+import java.util.ArrayList;
+import java.util.List;
+import org.jinterop.dcom.common.JIException;
 import org.jinterop.dcom.impls.automation.IJIDispatch;
 
 /**
@@ -52,4 +55,33 @@ public class SWbemObjectSet<T extends SWbemObject> extends SWbemSet<T>
     {
         super(objectDispatcher, service, clazz);
     }
+
+    /**
+     * Creates detached snapshots of every object in the set, releasing the
+     * server's references to the objects and to the set as it goes.
+     * 
+     * @return The snapshots, in enumeration order.
+     * @throws JIException When an error occurs.
+     * @see SWbemObject#toSnapshot()
+     */
+    public List<SWbemObjectSnapshot> toSnapshots() throws JIException
+    {
+        final List<SWbemObjectSnapshot> snapshots =
+            new ArrayList<SWbemObjectSnapshot>();
+        try
+        {
+            for (final T obj : this)
+            {
+                if (obj != null)
+                {
+                    snapshots.add(obj.toSnapshot());
+                }
+            }
+        }
+        finally
+        {
+            release();
+        }
+        return snapshots;
+    }
 }
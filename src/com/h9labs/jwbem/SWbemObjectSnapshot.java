@@ -0,0 +1,358 @@
+/*
+ * Copyright (c) 2009, Hyper9 All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer. Redistributions in binary
+ * form must reproduce the above copyright notice, this list of conditions and
+ * the following disclaimer in the documentation and/or other materials provided
+ * with the distribution. Neither the name of Hyper9 nor the names of its
+ * contributors may be used to endorse or promote products derived from this
+ * software without specific prior written permission. THIS SOFTWARE IS PROVIDED
+ * BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO
+ * EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT,
+ * INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+
+package com.h9labs.jwbem;
+
+import java.io.Serializable;
+import java.lang.reflect.Array;
+import java.util.Collections;
+import java.util.Date;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import org.jinterop.dcom.common.JIException;
+import org.jinterop.dcom.core.IJIComObject;
+import org.jinterop.dcom.core.IJIUnsigned;
+import org.jinterop.dcom.core.JIArray;
+import org.jinterop.dcom.core.JIFlags;
+import org.jinterop.dcom.core.JIString;
+import org.jinterop.dcom.core.JIUnsignedFactory;
+import org.jinterop.dcom.core.JIVariant;
+import org.jinterop.dcom.impls.JIObjectFactory;
+import org.jinterop.dcom.impls.automation.IJIDispatch;
+
+/**
+ * An immutable, serializable copy of an SWbemObject's path and property
+ * values. A snapshot holds no reference to the server, so it costs nothing but
+ * heap to keep.
+ * 
+ * @author akutz
+ * @see SWbemObject#toSnapshot()
+ */
+public class SWbemObjectSnapshot implements Serializable
+{
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * The absolute path of the object.
+     */
+    private final String path;
+
+    /**
+     * The name of the object's class.
+     */
+    private final String clazz;
+
+    /**
+     * The property values, by name. Values are strings, boxed primitives,
+     * dates, nested snapshots or arrays of those.
+     */
+    private final TreeMap<String, Serializable> properties;
+
+    /**
+     * Initializes a new instance of the SWbemObjectSnapshot class.
+     * 
+     * @param path The absolute path of the object.
+     * @param clazz The name of the object's class.
+     * @param properties The object's properties, by name.
+     * @param service The service connection, used to snapshot embedded
+     *        objects.
+     * @throws JIException When an error occurs.
+     */
+    SWbemObjectSnapshot(
+        final String path,
+        final String clazz,
+        final Map<String, SWbemProperty> properties,
+        final SWbemServices service) throws JIException
+    {
+        this.path = path;
+        this.clazz = clazz;
+        this.properties =
+            new TreeMap<String, Serializable>(String.CASE_INSENSITIVE_ORDER);
+        for (final Map.Entry<String, SWbemProperty> e : properties.entrySet())
+        {
+            final SWbemProperty property = e.getValue();
+            this.properties.put(e.getKey(), toValue(
+                property.getVariant(),
+                SWbemValueConverters.isUnsigned32(property.getCIMType()),
+                service));
+        }
+    }
+
+    /**
+     * Gets the absolute path of the object.
+     * 
+     * @return The absolute path of the object.
+     */
+    public String getPath()
+    {
+        return this.path;
+    }
+
+    /**
+     * Gets the name of the object's class.
+     * 
+     * @return The name of the object's class.
+     */
+    public String getClazz()
+    {
+        return this.clazz;
+    }
+
+    /**
+     * Gets the names of the object's properties.
+     * 
+     * @return The names of the object's properties.
+     */
+    public Set<String> getPropertyNames()
+    {
+        return Collections.unmodifiableSet(this.properties.keySet());
+    }
+
+    /**
+     * Gets a value indicating whether or not the object has a property with
+     * the given name.
+     * 
+     * @param propertyName The name of the property.
+     * @return A value indicating whether or not the object has a property with
+     *         the given name.
+     */
+    public boolean hasProperty(final String propertyName)
+    {
+        return this.properties.containsKey(propertyName);
+    }
+
+    /**
+     * Gets the value of a property.
+     * 
+     * @param <T> The type of the value.
+     * 
+     * @param propertyName The name of the property.
+     * @param clazz The type of the value. Strings, boxed and primitive numbers,
+     *        booleans, dates, SWbemObjectSnapshot and arrays of those are
+     *        supported, as is Object for the value as it is stored.
+     * @return The value of the property, or null if the property does not
+     *         exist or is null.
+     * @throws UnsupportedOperationException When the value cannot be converted
+     *         to the given type.
+     */
+    @SuppressWarnings("unchecked")
+    public <T> T getProperty(final String propertyName, final Class<T> clazz)
+    {
+        final Serializable value = this.properties.get(propertyName);
+        if (value == null)
+        {
+            return null;
+        }
+        return (T) convert(value, clazz);
+    }
+
+    @Override
+    public String toString()
+    {
+        return this.path;
+    }
+
+    /**
+     * Converts a value read from the server into a serializable value. A
+     * uint32 value is widened to a Long, as WMI sends it as a signed 32-bit
+     * integer.
+     */
+    private static Serializable toValue(
+        final Object value,
+        final boolean unsigned32,
+        final SWbemServices service) throws JIException
+    {
+        if (value == null)
+        {
+            return null;
+        }
+        if (value instanceof JIVariant)
+        {
+            final JIVariant variant = (JIVariant) value;
+            final int type = variant.getType();
+            if (type == JIVariant.VT_NULL || type == JIVariant.VT_EMPTY)
+            {
+                return null;
+            }
+            return toValue(variant.getObject(), unsigned32, service);
+        }
+        if (value instanceof JIString)
+        {
+            return ((JIString) value).getString();
+        }
+        if (value instanceof IJIUnsigned)
+        {
+            return (Serializable) ((IJIUnsigned) value).getValue();
+        }
+        if (unsigned32 && value instanceof Integer)
+        {
+            return ((Integer) value).intValue() & 0xFFFFFFFFL;
+        }
+        if (value instanceof JIArray)
+        {
+            final Object elements = ((JIArray) value).getArrayInstance();
+            final int length = Array.getLength(elements);
+            final Serializable[] arr = new Serializable[length];
+            for (int x = 0; x < length; ++x)
+            {
+                arr[x] = toValue(Array.get(elements, x), unsigned32, service);
+            }
+            return arr;
+        }
+        if (value instanceof IJIComObject)
+        {
+            final IJIDispatch dispatch =
+                (IJIDispatch) JIObjectFactory
+                    .narrowObject((IJIComObject) value);
+            return new SWbemObject(dispatch, service).toSnapshot();
+        }
+        if (value instanceof Date)
+        {
+            return new Date(((Date) value).getTime());
+        }
+        if (value instanceof String || value instanceof Number
+            || value instanceof Boolean || value instanceof Character)
+        {
+            return (Serializable) value;
+        }
+        return value.toString();
+    }
+
+    /**
+     * Converts a stored value into the requested type. Scalar values are
+     * converted by SWbemValueConverters, the same way the properties of a live
+     * object are.
+     */
+    private static Object convert(final Object value, final Class<?> clazz)
+    {
+        if (value == null)
+        {
+            return null;
+        }
+
+        if (clazz.isArray())
+        {
+            final Class<?> compType = clazz.getComponentType();
+
+            // Empty arrays may be returned as a single value.
+            if (!(value instanceof Object[]))
+            {
+                return Array.newInstance(compType, 0);
+            }
+
+            final Object[] elements = (Object[]) value;
+            final Object arr = Array.newInstance(compType, elements.length);
+            for (int x = 0; x < elements.length; ++x)
+            {
+                Array.set(arr, x, convert(elements[x], compType));
+            }
+            return arr;
+        }
+
+        if (clazz == Object.class)
+        {
+            return value instanceof Object[] ? ((Object[]) value).clone()
+                : value instanceof Date ? new Date(((Date) value).getTime())
+                    : value;
+        }
+
+        if (value instanceof SWbemObjectSnapshot)
+        {
+            if (clazz == SWbemObjectSnapshot.class)
+            {
+                return value;
+            }
+            throw new UnsupportedOperationException("Invalid class type.");
+        }
+
+        if (value instanceof Date)
+        {
+            if (clazz == Date.class)
+            {
+                return new Date(((Date) value).getTime());
+            }
+            if (clazz == String.class)
+            {
+                return value.toString();
+            }
+            throw new UnsupportedOperationException("Invalid class type.");
+        }
+
+        try
+        {
+            return SWbemValueConverters.convert(toVariant(value), clazz);
+        }
+        catch (JIException e)
+        {
+            throw new UnsupportedOperationException(e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Encodes a stored scalar value as a VARIANT for SWbemValueConverters.
+     * Numbers that have no VARIANT of their own, such as a widened uint32, are
+     * encoded as VT_UI4 when they fit and as strings otherwise.
+     */
+    private static JIVariant toVariant(final Object value)
+    {
+        if (value instanceof Integer)
+        {
+            return new JIVariant(((Integer) value).intValue());
+        }
+        if (value instanceof Short)
+        {
+            return new JIVariant(((Short) value).shortValue());
+        }
+        if (value instanceof Float)
+        {
+            return new JIVariant(((Float) value).floatValue());
+        }
+        if (value instanceof Double)
+        {
+            return new JIVariant(((Double) value).doubleValue());
+        }
+        if (value instanceof Boolean)
+        {
+            return new JIVariant(((Boolean) value).booleanValue());
+        }
+        if (value instanceof Character)
+        {
+            return new JIVariant((short) ((Character) value).charValue());
+        }
+        if (value instanceof Long)
+        {
+            final long n = ((Number) value).longValue();
+            if (n >= 0 && n <= 0xFFFFFFFFL)
+            {
+                return new JIVariant(JIUnsignedFactory.getUnsigned(
+                    Long.valueOf(n),
+                    JIFlags.FLAG_REPRESENTATION_UNSIGNED_INT));
+            }
+        }
+        return new JIVariant(new JIString(value.toString()));
+    }
+}
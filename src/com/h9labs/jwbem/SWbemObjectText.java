@@ -0,0 +1,477 @@
+/*
+ * Copyright (c) 2009, Hyper9 All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer. Redistributions in binary
+ * form must reproduce the above copyright notice, this list of conditions and
+ * the following disclaimer in the documentation and/or other materials provided
+ * with the distribution. Neither the name of Hyper9 nor the names of its
+ * contributors may be used to endorse or promote products derived from this
+ * software without specific prior written permission. THIS SOFTWARE IS PROVIDED
+ * BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO
+ * EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT,
+ * INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+
+package com.h9labs.jwbem;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import org.jinterop.dcom.common.JIException;
+import org.jinterop.dcom.core.JIArray;
+import org.jinterop.dcom.core.JIFlags;
+import org.jinterop.dcom.core.JIString;
+import org.jinterop.dcom.core.JIUnsignedFactory;
+import org.jinterop.dcom.core.JIVariant;
+
+/**
+ * Parses the MOF text returned by GetObjectText_ into property values, so
+ * that every property of an object can be read with a single round trip.
+ * 
+ * @author akutz
+ * @remarks Values are returned as they appear in the text: quoted strings and
+ *          bare tokens as String objects, char16 literals as Character
+ *          objects, arrays as List objects and NULL as null. Embedded objects
+ *          are not parsed; they are returned as EMBEDDED. toVariant encodes a
+ *          value the way the scripting API would have returned it.
+ */
+final class SWbemObjectText
+{
+    /**
+     * The value of a property that holds an embedded object.
+     */
+    final static Object EMBEDDED = new Object();
+
+    /**
+     * The CIM type of an embedded object.
+     */
+    final static int CIM_OBJECT = 13;
+
+    private final String text;
+
+    private int pos;
+
+    private String className;
+
+    private final Map<String, Object> values =
+        new TreeMap<String, Object>(String.CASE_INSENSITIVE_ORDER);
+
+    private SWbemObjectText(String text)
+    {
+        this.text = text;
+    }
+
+    /**
+     * Parses the MOF text of an instance.
+     * 
+     * @param text The text returned by GetObjectText_.
+     * @return The parsed text.
+     * @throws JIException When the text is malformed.
+     */
+    static SWbemObjectText parse(String text) throws JIException
+    {
+        final SWbemObjectText parsed = new SWbemObjectText(text);
+        parsed.className = parsed.parseInstance(parsed.values);
+        return parsed;
+    }
+
+    /**
+     * Gets the name of the instance's class.
+     * 
+     * @return The name of the instance's class.
+     */
+    String getClassName()
+    {
+        return this.className;
+    }
+
+    /**
+     * Gets the values of the properties that appear in the text, by name.
+     * Properties whose value is NULL are usually left out of the text.
+     * 
+     * @return The values of the properties, by name.
+     */
+    Map<String, Object> getValues()
+    {
+        return this.values;
+    }
+
+    /**
+     * Encodes a parsed value the way the scripting API returns a property of
+     * the given CIM type.
+     * 
+     * @param value The parsed value.
+     * @param cimType The CIM type of the property.
+     * @return The value as a VARIANT.
+     * @throws JIException When the value does not match the CIM type.
+     */
+    static JIVariant toVariant(Object value, int cimType) throws JIException
+    {
+        if (value == null)
+        {
+            return JIVariant.NULL();
+        }
+
+        final int baseType = cimType & ~SWbemValueConverters.CIM_FLAG_ARRAY;
+        try
+        {
+            if (value instanceof List<?>)
+            {
+                final List<?> list = (List<?>) value;
+                final JIVariant[] elements = new JIVariant[list.size()];
+                for (int x = 0; x < elements.length; ++x)
+                {
+                    elements[x] = toVariant(list.get(x), baseType);
+                }
+                return new JIVariant(new JIArray(elements, true));
+            }
+
+            switch (baseType)
+            {
+                case 2: // sint16
+                case 16: // sint8
+                    return new JIVariant((short) parseLong(value));
+                case 103: // char16
+                    return new JIVariant(value instanceof Character
+                        ? (short) ((Character) value).charValue()
+                        : (short) parseLong(value));
+                case 3: // sint32
+                case 18: // uint16
+                case 19: // uint32
+                    return new JIVariant((int) parseLong(value));
+                case 17: // uint8
+                    return new JIVariant(JIUnsignedFactory.getUnsigned(
+                        Short.valueOf((short) parseLong(value)),
+                        JIFlags.FLAG_REPRESENTATION_UNSIGNED_BYTE));
+                case 4: // real32
+                    return new JIVariant(Float.parseFloat(value.toString()));
+                case 5: // real64
+                    return new JIVariant(Double.parseDouble(value.toString()));
+                case 11: // boolean
+                    return new JIVariant(Boolean.valueOf(value.toString())
+                        .booleanValue());
+                case CIM_OBJECT:
+                    break;
+                default:
+                    // string, datetime, reference, sint64 and uint64
+                    return new JIVariant(new JIString(value.toString()));
+            }
+        }
+        catch (NumberFormatException e)
+        {
+            throw new JIException(-1, e.getMessage(), e);
+        }
+
+        throw new JIException(-1, "An embedded object cannot be read from "
+            + "the object text.");
+    }
+
+    private static long parseLong(Object value)
+    {
+        final String s = value.toString();
+        if (s.startsWith("0x") || s.startsWith("0X"))
+        {
+            return Long.parseLong(s.substring(2), 16);
+        }
+        return Long.parseLong(s);
+    }
+
+    /**
+     * Parses "instance of Class { Name = Value; ... }" and returns the name
+     * of the class.
+     */
+    private String parseInstance(Map<String, Object> into)
+        throws JIException
+    {
+        skipQualifiers();
+        expectWord("instance");
+        expectWord("of");
+        final String clazz = readIdentifier();
+        skipSpace();
+        if (peek() != '{')
+        {
+            // "as $alias"
+            expectWord("as");
+            readToken();
+        }
+        expect('{');
+        while (true)
+        {
+            skipQualifiers();
+            if (peek() == '}')
+            {
+                break;
+            }
+            final String name = readIdentifier();
+            expect('=');
+            final Object value = readValue();
+            expect(';');
+            if (into != null)
+            {
+                into.put(name, value);
+            }
+        }
+        expect('}');
+        return clazz;
+    }
+
+    private Object readValue() throws JIException
+    {
+        skipSpace();
+        final char c = peek();
+        if (c == '"')
+        {
+            final StringBuilder buf = new StringBuilder();
+            do
+            {
+                readString(buf);
+                skipSpace();
+            }
+            while (peek() == '"');
+            return buf.toString();
+        }
+        if (c == '\'')
+        {
+            ++this.pos;
+            final char value = readChar();
+            expect('\'');
+            return Character.valueOf(value);
+        }
+        if (c == '{')
+        {
+            ++this.pos;
+            final List<Object> list = new ArrayList<Object>();
+            skipSpace();
+            if (peek() != '}')
+            {
+                list.add(readValue());
+                skipSpace();
+                while (peek() == ',')
+                {
+                    ++this.pos;
+                    list.add(readValue());
+                    skipSpace();
+                }
+            }
+            expect('}');
+            return list;
+        }
+        if (this.text.regionMatches(true, this.pos, "instance", 0, 8))
+        {
+            parseInstance(null);
+            return EMBEDDED;
+        }
+
+        final String token = readToken();
+        return "NULL".equalsIgnoreCase(token) ? null : token;
+    }
+
+    private void readString(StringBuilder buf) throws JIException
+    {
+        expect('"');
+        while (peek() != '"')
+        {
+            buf.append(readChar());
+        }
+        ++this.pos;
+    }
+
+    /**
+     * Reads a character of a string or char16 literal, decoding escapes.
+     */
+    private char readChar() throws JIException
+    {
+        char c = next();
+        if (c != '\\')
+        {
+            return c;
+        }
+        c = next();
+        switch (c)
+        {
+            case 'b':
+                return '\b';
+            case 't':
+                return '\t';
+            case 'n':
+                return '\n';
+            case 'f':
+                return '\f';
+            case 'r':
+                return '\r';
+            case 'x':
+            case 'X':
+                int end = this.pos;
+                while (end < this.text.length()
+                    && end < this.pos + 4
+                    && Character.digit(this.text.charAt(end), 16) >= 0)
+                {
+                    ++end;
+                }
+                if (end == this.pos)
+                {
+                    throw malformed();
+                }
+                final int code =
+                    Integer.parseInt(this.text.substring(this.pos, end), 16);
+                this.pos = end;
+                return (char) code;
+            default:
+                return c;
+        }
+    }
+
+    private String readIdentifier() throws JIException
+    {
+        skipSpace();
+        final int start = this.pos;
+        while (this.pos < this.text.length()
+            && (Character.isLetterOrDigit(this.text.charAt(this.pos))
+                || this.text.charAt(this.pos) == '_'))
+        {
+            ++this.pos;
+        }
+        if (start == this.pos)
+        {
+            throw malformed();
+        }
+        return this.text.substring(start, this.pos);
+    }
+
+    /**
+     * Reads a bare token such as a number, TRUE, FALSE, NULL or an alias.
+     */
+    private String readToken() throws JIException
+    {
+        skipSpace();
+        final int start = this.pos;
+        while (this.pos < this.text.length())
+        {
+            final char c = this.text.charAt(this.pos);
+            if (Character.isWhitespace(c)
+                || c == ',' || c == ';' || c == '}' || c == '{')
+            {
+                break;
+            }
+            ++this.pos;
+        }
+        if (start == this.pos)
+        {
+            throw malformed();
+        }
+        return this.text.substring(start, this.pos);
+    }
+
+    private void expectWord(String word) throws JIException
+    {
+        if (!readIdentifier().equalsIgnoreCase(word))
+        {
+            throw malformed();
+        }
+    }
+
+    private void expect(char c) throws JIException
+    {
+        skipSpace();
+        if (next() != c)
+        {
+            throw malformed();
+        }
+    }
+
+    /**
+     * Skips white space, comments and qualifier lists.
+     */
+    private void skipQualifiers() throws JIException
+    {
+        skipSpace();
+        while (peek() == '[')
+        {
+            int depth = 0;
+            do
+            {
+                final char c = peek();
+                if (c == '"')
+                {
+                    readString(new StringBuilder());
+                    continue;
+                }
+                ++this.pos;
+                if (c == '[')
+                {
+                    ++depth;
+                }
+                else if (c == ']')
+                {
+                    --depth;
+                }
+            }
+            while (depth > 0);
+            skipSpace();
+        }
+    }
+
+    /**
+     * Skips white space and comments.
+     */
+    private void skipSpace()
+    {
+        while (this.pos < this.text.length())
+        {
+            final char c = this.text.charAt(this.pos);
+            if (Character.isWhitespace(c))
+            {
+                ++this.pos;
+            }
+            else if (this.text.startsWith("//", this.pos))
+            {
+                final int end = this.text.indexOf('\n', this.pos);
+                this.pos = end < 0 ? this.text.length() : end;
+            }
+            else if (this.text.startsWith("/*", this.pos))
+            {
+                final int end = this.text.indexOf("*/", this.pos + 2);
+                this.pos = end < 0 ? this.text.length() : end + 2;
+            }
+            else
+            {
+                break;
+            }
+        }
+    }
+
+    private char peek() throws JIException
+    {
+        if (this.pos >= this.text.length())
+        {
+            throw malformed();
+        }
+        return this.text.charAt(this.pos);
+    }
+
+    private char next() throws JIException
+    {
+        final char c = peek();
+        ++this.pos;
+        return c;
+    }
+
+    private JIException malformed()
+    {
+        return new JIException(-1, "The object text is malformed at offset "
+            + this.pos + ".");
+    }
+}
@@ -26,7 +26,6 @@
 package com.h9labs.jwbem;
 
 import org.jinterop.dcom.common.JIException;
-import org.jinterop.dcom.core.JIUnsignedByte;
 import org.jinterop.dcom.core.JIVariant;
 import org.jinterop.dcom.impls.automation.IJIDispatch;
 
@@ -41,6 +40,7 @@ public class SWbemProperty extends SWbemDispatchObject implements SWbemSetItem
     private JIVariant value;
     private String name;
     private Boolean isArray;
+    private Integer cimType;
 
     /**
      * Initializes a new instance of the SWbemProperty class.
@@ -53,15 +53,36 @@ public class SWbemProperty extends SWbemDispatchObject implements SWbemSetItem
     public SWbemProperty(IJIDispatch objectDispatcher, SWbemServices service)
     {
         super(objectDispatcher, service);
+    }
 
-        try
-        {
-            this.value = super.objectDispatcher.get("Value");
-        }
-        catch (JIException ex)
-        {
-            this.value = null;
-        }
+    /**
+     * Initializes a new instance of the SWbemProperty class from a value that
+     * has already been read from the server. The property is not backed by a
+     * dispatch object.
+     * 
+     * @param name The name of the property.
+     * @param value The value of the property.
+     */
+    SWbemProperty(String name, JIVariant value)
+    {
+        super(null, null);
+        this.name = name;
+        this.value = value;
+    }
+
+    /**
+     * Initializes a new instance of the SWbemProperty class from a value that
+     * has already been read from the server. The property is not backed by a
+     * dispatch object.
+     * 
+     * @param name The name of the property.
+     * @param cimType The CIM type of the property.
+     * @param value The value of the property.
+     */
+    SWbemProperty(String name, int cimType, JIVariant value)
+    {
+        this(name, value);
+        this.cimType = cimType;
     }
 
     /**
@@ -81,6 +102,25 @@ public class SWbemProperty extends SWbemDispatchObject implements SWbemSetItem
         return this.name;
     }
 
+    /**
+     * Gets the CIM type of the property.
+     * 
+     * @return The CIM type of the property, or null if the property is not
+     *         backed by a dispatch object and its type was not recorded.
+     * @throws JIException When an error occurs.
+     * @see "http://msdn.microsoft.com/en-us/library/aa393789(VS.85).aspx"
+     */
+    public Integer getCIMType() throws JIException
+    {
+        if (this.cimType != null || super.objectDispatcher == null)
+        {
+            return this.cimType;
+        }
+
+        this.cimType = super.objectDispatcher.get("CIMType").getObjectAsInt();
+        return this.cimType;
+    }
+
     /**
      * Gets a value indicating whether or not the object is an array.
      * 
@@ -94,6 +134,12 @@ public class SWbemProperty extends SWbemDispatchObject implements SWbemSetItem
             return this.isArray;
         }
 
+        if (super.objectDispatcher == null)
+        {
+            this.isArray = getVariant().isArray();
+            return this.isArray;
+        }
+
         this.isArray =
             super.objectDispatcher.get("IsArray").getObjectAsBoolean();
         return this.isArray;
@@ -107,7 +153,75 @@ public class SWbemProperty extends SWbemDispatchObject implements SWbemSetItem
      */
     public Object getValue() throws JIException
     {
-        return this.value.getObject();
+        return getVariant().getObject();
+    }
+
+    /**
+     * Gets the value of the property as it was read from the server. The value
+     * of a property that is backed by a dispatch object is read the first
+     * time it is requested.
+     * 
+     * @return The value of the property as it was read from the server.
+     * @throws JIException When an error occurs.
+     */
+    JIVariant getVariant() throws JIException
+    {
+        if (this.value == null && super.objectDispatcher != null)
+        {
+            this.value = super.objectDispatcher.get("Value");
+        }
+        return this.value;
+    }
+
+    /**
+     * Gets the value of the property as an instance of the given class.
+     * 
+     * @param <T> The type of the value.
+     * 
+     * @param clazz The class to convert the value to.
+     * @return The value of the property, or null if the property is null.
+     * @throws JIException When an error occurs.
+     * @throws UnsupportedOperationException When the value's VARTYPE cannot
+     *         be converted to the given class.
+     * @see SWbemValueConverters
+     */
+    public <T> T getValueAs(Class<T> clazz) throws JIException
+    {
+        final JIVariant variant = getNumericVariant();
+        if (variant == null)
+        {
+            return null;
+        }
+        return SWbemValueConverters.convert(variant, clazz);
+    }
+
+    /**
+     * Gets a value indicating whether or not the property is a uint32 or an
+     * array of uint32 whose value reads differently as a signed number. The
+     * CIM type is only asked for when the value is sign dependent.
+     * 
+     * @return True if the value must be read as unsigned.
+     * @throws JIException When an error occurs.
+     */
+    boolean isUnsigned32() throws JIException
+    {
+        final JIVariant variant = getVariant();
+        return variant != null
+            && SWbemValueConverters.isSignDependent(variant)
+            && SWbemValueConverters.isUnsigned32(getCIMType());
+    }
+
+    /**
+     * Gets the value of the property with a uint32 widened to VT_UI4.
+     */
+    private JIVariant getNumericVariant() throws JIException
+    {
+        final JIVariant variant = getVariant();
+        if (variant != null && !variant.isArray() && isUnsigned32())
+        {
+            return SWbemValueConverters.toUnsigned32(variant);
+        }
+        return variant;
     }
 
     /**
@@ -118,23 +232,9 @@ public class SWbemProperty extends SWbemDispatchObject implements SWbemSetItem
      */
     public Integer getValueAsInteger() throws JIException
     {
-        switch (this.value.getType())
-        {
-            case JIVariant.VT_BSTR :
-            {
-                return Integer.parseInt(this.value.getObjectAsString2());
-            }
-            case JIVariant.VT_I4 :
-            {
-                return this.value.getObjectAsInt();
-            }
-            default:
-            {
-                return null;
-            }
-        }
+        return getValueAs(Integer.class);
     }
-    
+
     /**
      * Gets the value of the property as a long.
      * 
@@ -143,25 +243,7 @@ public class SWbemProperty extends SWbemDispatchObject implements SWbemSetItem
      */
     public Long getValueAsLong() throws JIException
     {
-        switch (this.value.getType())
-        {
-            case JIVariant.VT_BSTR :
-            {
-                return Long.parseLong(this.value.getObjectAsString2());
-            }
-            case JIVariant.VT_I4 :
-            {
-                return new Long(this.value.getObjectAsInt());
-            }
-            case JIVariant.VT_I8 :
-            {
-                return this.value.getObjectAsLong();
-            }
-            default:
-            {
-                return null;
-            }
-        }
+        return getValueAs(Long.class);
     }
 
     /**
@@ -172,7 +254,7 @@ public class SWbemProperty extends SWbemDispatchObject implements SWbemSetItem
      */
     public Boolean getValueAsBoolean() throws JIException
     {
-        return this.value.getObjectAsBoolean();
+        return getValueAs(Boolean.class);
     }
 
     /**
@@ -183,42 +265,18 @@ public class SWbemProperty extends SWbemDispatchObject implements SWbemSetItem
      */
     private String getValueAsString() throws JIException
     {
-        switch (this.value.getType())
+        final JIVariant variant = getNumericVariant();
+        final SWbemValueConverter<String> converter =
+            SWbemValueConverters.get(variant.getType(), String.class);
+        if (converter != null)
         {
-            case JIVariant.VT_BSTR :
-            {
-                return this.value.getObjectAsString2();
-            }
-            case JIVariant.VT_BOOL :
-            {
-                return String.valueOf(this.value.getObjectAsBoolean());
-            }
-            case JIVariant.VT_I2 :
-            {
-                return String.valueOf(this.value.getObjectAsShort());
-            }
-            case JIVariant.VT_I4 :
-            {
-                return String.valueOf(this.value.getObjectAsInt());
-            }
-            case JIVariant.VT_NULL :
-            {
-                return null;
-            }
-            case JIVariant.VT_UI1 :
-            {
-                return ((JIUnsignedByte) this.value.getObject())
-                    .getValue()
-                    .toString();
-            }
-            default :
-            {
-                // Unhandled at the moment
-                return "<type: " + String.valueOf(this.value.getType())
-                    + ", flag: " + String.valueOf(this.value.getFlag())
-                    + ", value: " + this.value.toString() + ">";
-            }
+            return converter.convert(variant);
         }
+
+        // Unhandled at the moment
+        return "<type: " + String.valueOf(variant.getType()) + ", flag: "
+            + String.valueOf(variant.getFlag()) + ", value: "
+            + variant.toString() + ">";
     }
 
     @Override
@@ -25,12 +25,19 @@
 
 package com.h9labs.jwbem;
 
+import java.util.Collections;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import org.jinterop.dcom.common.JIException;
 import org.jinterop.dcom.core.IJIComObject;
 import org.jinterop.dcom.core.JIString;
 import org.jinterop.dcom.core.JIVariant;
 import org.jinterop.dcom.impls.JIObjectFactory;
 import org.jinterop.dcom.impls.automation.IJIDispatch;
+import org.jinterop.dcom.impls.automation.JIAutomationException;
+import org.jinterop.dcom.impls.automation.JIExcepInfo;
 
 /**
  * You can use the methods of an SWbemServices object to perform operations
@@ -41,8 +48,53 @@ import org.jinterop.dcom.impls.automation.IJIDispatch;
  */
 public class SWbemServices extends SWbemDispatchObject
 {
+    /**
+     * The default number of elements fetched from the server per round trip
+     * when iterating an object set.
+     */
+    final static public int DEFAULT_FETCH_SIZE = 64;
+
+    /**
+     * Causes the call to return immediately, with the results delivered as
+     * the enumeration is read (semisynchronous mode).
+     */
+    final static public int wbemFlagReturnImmediately = 0x10;
+
+    /**
+     * Causes a forward-only enumerator to be returned. The server releases
+     * each object once it has been enumerated and the set does not support
+     * Count.
+     */
+    final static public int wbemFlagForwardOnly = 0x20;
+
+    /**
+     * The requested object could not be found.
+     */
+    final static public int WBEM_E_NOT_FOUND = 0x80041002;
+
+    /**
+     * The requested method is not available.
+     */
+    final static public int WBEM_E_INVALID_METHOD = 0x8004102E;
+
     private SWbemLocator locator;
 
+    private int fetchSize = DEFAULT_FETCH_SIZE;
+
+    /**
+     * The methods of the classes in this namespace, by lower-case class name
+     * and then by method name.
+     */
+    private final ConcurrentMap<String, Map<String, SWbemMethod>> methods =
+        new ConcurrentHashMap<String, Map<String, SWbemMethod>>();
+
+    /**
+     * The CIM types of the properties of the classes in this namespace, by
+     * lower-case class name and then by property name.
+     */
+    private final ConcurrentMap<String, Map<String, Integer>> propertyTypes =
+        new ConcurrentHashMap<String, Map<String, Integer>>();
+
     /**
      * Initializes a new instance of the SWbemServices class.
      * 
@@ -83,6 +135,34 @@ public class SWbemServices extends SWbemDispatchObject
         return this.locator;
     }
 
+    /**
+     * Gets the number of elements fetched from the server per round trip when
+     * iterating the sets returned by this object.
+     * 
+     * @return The number of elements fetched from the server per round trip.
+     */
+    public int getFetchSize()
+    {
+        return this.fetchSize;
+    }
+
+    /**
+     * Sets the number of elements fetched from the server per round trip when
+     * iterating the sets returned by this object. Larger values trade memory
+     * for fewer round trips, which matters most on high-latency links.
+     * 
+     * @param fetchSize The number of elements fetched from the server per
+     *        round trip.
+     */
+    public void setFetchSize(int fetchSize)
+    {
+        if (fetchSize < 1)
+        {
+            throw new IllegalArgumentException("fetchSize must be positive.");
+        }
+        this.fetchSize = fetchSize;
+    }
+
     /**
      * The ExecQuery method of the SWbemServices object executes a query to
      * retrieve objects. These objects are available through the returned
@@ -94,28 +174,7 @@ public class SWbemServices extends SWbemDispatchObject
      */
     public SWbemObjectSet<SWbemObject> execQuery(String query)
     {
-        Object[] inParams =
-            new Object[]
-            {
-                new JIString(query), JIVariant.OPTIONAL_PARAM(),
-                JIVariant.OPTIONAL_PARAM(), JIVariant.OPTIONAL_PARAM(),
-            };
-        try
-        {
-            JIVariant[] results =
-                super.objectDispatcher.callMethodA("ExecQuery", inParams);
-            IJIComObject co = results[0].getObjectAsComObject();
-            IJIDispatch dispatch;
-            dispatch = (IJIDispatch) JIObjectFactory.narrowObject(co);
-            return new SWbemObjectSet<SWbemObject>(
-                dispatch,
-                this,
-                SWbemObject.class);
-        }
-        catch (JIException ex)
-        {
-            return null;
-        }
+        return execQuery(query, SWbemObject.class);
     }
 
     /**
@@ -133,12 +192,291 @@ public class SWbemServices extends SWbemDispatchObject
     public <T extends SWbemObject> SWbemObjectSet<T> execQuery(
         String query,
         Class<T> clazz)
+    {
+        return execQuery(query, clazz, this.fetchSize);
+    }
+
+    /**
+     * The ExecQuery method of the SWbemServices object executes a query to
+     * retrieve objects. These objects are available through the returned
+     * SWbemObjectSet collection.
+     * 
+     * @param <T> A class that extends SWbemObject.
+     * 
+     * @param query String that contains the text of the query. This parameter
+     *        cannot be blank.
+     * @param clazz A class that extends SWbemObject.
+     * @param fetchSize The number of objects fetched from the server per round
+     *        trip when iterating the returned set.
+     * @return An object set.
+     */
+    public <T extends SWbemObject> SWbemObjectSet<T> execQuery(
+        String query,
+        Class<T> clazz,
+        int fetchSize)
+    {
+        return execQuery(query, clazz, fetchSize, null);
+    }
+
+    /**
+     * Executes a query in forward-only, semisynchronous mode. The call returns
+     * as soon as the server has started the query and the objects are streamed
+     * as the returned set is iterated, so the first object arrives quickly and
+     * the server does not have to hold the entire result set. The returned set
+     * does not know its size and can only be iterated once.
+     * 
+     * @param <T> A class that extends SWbemObject.
+     * 
+     * @param query String that contains the text of the query. This parameter
+     *        cannot be blank.
+     * @param clazz A class that extends SWbemObject.
+     * @return A forward-only object set.
+     */
+    public <T extends SWbemObject> SWbemObjectSet<T> execStreamingQuery(
+        String query,
+        Class<T> clazz)
+    {
+        return execStreamingQuery(query, clazz, this.fetchSize);
+    }
+
+    /**
+     * Executes a query in forward-only, semisynchronous mode. The call returns
+     * as soon as the server has started the query and the objects are streamed
+     * as the returned set is iterated, so the first object arrives quickly and
+     * the server does not have to hold the entire result set. The returned set
+     * does not know its size and can only be iterated once.
+     * 
+     * @param <T> A class that extends SWbemObject.
+     * 
+     * @param query String that contains the text of the query. This parameter
+     *        cannot be blank.
+     * @param clazz A class that extends SWbemObject.
+     * @param fetchSize The number of objects fetched from the server per round
+     *        trip when iterating the returned set.
+     * @return A forward-only object set.
+     */
+    public <T extends SWbemObject> SWbemObjectSet<T> execStreamingQuery(
+        String query,
+        Class<T> clazz,
+        int fetchSize)
+    {
+        return execQuery(
+            query,
+            clazz,
+            fetchSize,
+            new Integer(wbemFlagForwardOnly | wbemFlagReturnImmediately));
+    }
+
+    /**
+     * Subscribes to the events that match an event query. The events are
+     * read from the returned event source.
+     * 
+     * @param query The event query, such as SELECT * FROM
+     *        __InstanceModificationEvent WITHIN 2 WHERE TargetInstance ISA
+     *        'Msvm_ComputerSystem'.
+     * @return The event source.
+     * @throws JIException When an error occurs.
+     */
+    public SWbemEventSource execNotificationQuery(String query)
+        throws JIException
+    {
+        // The flags are required; notification queries are always
+        // semisynchronous and forward-only.
+        Object[] inParams =
+            new Object[]
+            {
+                new JIString(query), JIVariant.OPTIONAL_PARAM(),
+                new Integer(wbemFlagReturnImmediately | wbemFlagForwardOnly),
+                JIVariant.OPTIONAL_PARAM(),
+            };
+        JIVariant[] results =
+            super.objectDispatcher.callMethodA(
+                "ExecNotificationQuery",
+                inParams);
+        IJIComObject co = results[0].getObjectAsComObject();
+        IJIDispatch dispatch = (IJIDispatch) JIObjectFactory.narrowObject(co);
+        return new SWbemEventSource(dispatch, this);
+    }
+
+    /**
+     * Gets an object, such as a class or an instance, by its path.
+     * 
+     * @param objectPath The path of the object.
+     * @return The object.
+     * @throws JIException When an error occurs.
+     */
+    public SWbemObject getObject(String objectPath) throws JIException
+    {
+        return getObject(objectPath, SWbemObject.class);
+    }
+
+    /**
+     * Gets an object, such as a class or an instance, by its path.
+     * 
+     * @param <T> The type of object.
+     * 
+     * @param objectPath The path of the object.
+     * @param clazz The class of the return object.
+     * @return The object.
+     * @throws JIException When an error occurs.
+     */
+    public <T extends SWbemObject> T getObject(
+        String objectPath,
+        Class<T> clazz) throws JIException
+    {
+        Object[] inParams =
+            new Object[]
+            {
+                new JIString(objectPath), new Integer(0),
+                JIVariant.OPTIONAL_PARAM(),
+            };
+        JIVariant[] results =
+            super.objectDispatcher.callMethodA("Get", inParams);
+        IJIComObject co = results[0].getObjectAsComObject();
+        IJIDispatch dispatch = (IJIDispatch) JIObjectFactory.narrowObject(co);
+        try
+        {
+            return SWbemSetItemFactories.get(clazz).newInstance(dispatch, this);
+        }
+        catch (JIException e)
+        {
+            throw e;
+        }
+        catch (Exception e)
+        {
+            throw new JIException(-1, e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Gets a method of a class in this namespace. The first request for a
+     * class reads the class definition and all of its methods once; after
+     * that the methods, their InParameters templates and their
+     * OutParameters schemas are served from a cache shared by every object
+     * returned by this service. The templates are never handed out; every
+     * call gets its own InParameters instance from
+     * SWbemMethod.spawnInParameters.
+     * 
+     * @param className The name of the class, such as
+     *        Msvm_ComputerSystem.
+     * @param methodName The name of the method.
+     * @return The method.
+     * @throws JIException When an error occurs, or with the error code
+     *         WBEM_E_INVALID_METHOD when the class has no such method.
+     */
+    public SWbemMethod getMethod(String className, String methodName)
+        throws JIException
+    {
+        final String key = className.toLowerCase();
+        Map<String, SWbemMethod> classMethods = this.methods.get(key);
+        if (classMethods == null)
+        {
+            final Map<String, SWbemMethod> loaded =
+                new TreeMap<String, SWbemMethod>(
+                    String.CASE_INSENSITIVE_ORDER);
+            final SWbemObject classObject = getObject(className);
+            for (final SWbemMethod m : classObject.getMethods())
+            {
+                loaded.put(m.getName(), m);
+            }
+
+            classMethods = this.methods.putIfAbsent(key, loaded);
+            if (classMethods == null)
+            {
+                classMethods = loaded;
+            }
+        }
+        final SWbemMethod method = classMethods.get(methodName);
+        if (method == null)
+        {
+            throw new JIException(WBEM_E_INVALID_METHOD, "The class "
+                + className + " has no method named " + methodName + ".");
+        }
+        return method;
+    }
+
+    /**
+     * Gets the names and CIM types of the properties of a class in this
+     * namespace. The first request for a class reads the class definition
+     * once; after that the types are served from a cache shared by every
+     * object returned by this service.
+     * 
+     * @param className The name of the class, such as
+     *        Msvm_ComputerSystem.
+     * @return The CIM types of the class's properties, by property name.
+     * @throws JIException When an error occurs.
+     * @see "http://msdn.microsoft.com/en-us/library/aa393789(VS.85).aspx"
+     */
+    public Map<String, Integer> getPropertyTypes(String className)
+        throws JIException
+    {
+        final String key = className.toLowerCase();
+        Map<String, Integer> classTypes = this.propertyTypes.get(key);
+        if (classTypes == null)
+        {
+            final Map<String, Integer> types =
+                new TreeMap<String, Integer>(String.CASE_INSENSITIVE_ORDER);
+            final SWbemObject classObject = getObject(className);
+            for (final SWbemProperty p : classObject.getProperties())
+            {
+                types.put(p.getName(), p.getCIMType());
+            }
+
+            final Map<String, Integer> loaded =
+                Collections.unmodifiableMap(types);
+            classTypes = this.propertyTypes.putIfAbsent(key, loaded);
+            if (classTypes == null)
+            {
+                classTypes = loaded;
+            }
+        }
+        return classTypes;
+    }
+
+    /**
+     * Gets the WMI error code of an exception. Errors raised by the scripting
+     * API arrive as DISP_E_EXCEPTION with the WMI code in the exception info.
+     * 
+     * @param e The exception.
+     * @return The WMI error code, such as WBEM_E_NOT_FOUND, or the error code
+     *         of the exception if it carries none.
+     */
+    public static int getWbemErrorCode(JIException e)
+    {
+        if (e instanceof JIAutomationException)
+        {
+            final JIExcepInfo info = ((JIAutomationException) e).getExcepInfo();
+            if (info != null && info.getErrorCode() != 0)
+            {
+                return info.getErrorCode();
+            }
+        }
+        return e.getErrorCode();
+    }
+
+    /**
+     * Escapes a value for use inside a single-quoted WQL string literal.
+     * 
+     * @param value The value.
+     * @return The value with its backslashes and single quotes escaped.
+     */
+    public static String escapeWqlString(String value)
+    {
+        return value.replace("\\", "\\\\").replace("'", "\\'");
+    }
+
+    private <T extends SWbemObject> SWbemObjectSet<T> execQuery(
+        String query,
+        Class<T> clazz,
+        int fetchSize,
+        Integer flags)
     {
         Object[] inParams =
             new Object[]
             {
                 new JIString(query), JIVariant.OPTIONAL_PARAM(),
-                JIVariant.OPTIONAL_PARAM(), JIVariant.OPTIONAL_PARAM(),
+                flags != null ? flags : JIVariant.OPTIONAL_PARAM(),
+                JIVariant.OPTIONAL_PARAM(),
             };
         try
         {
@@ -147,7 +485,12 @@ public class SWbemServices extends SWbemDispatchObject
             IJIComObject co = results[0].getObjectAsComObject();
             IJIDispatch dispatch;
             dispatch = (IJIDispatch) JIObjectFactory.narrowObject(co);
-            return new SWbemObjectSet<T>(dispatch, this, clazz);
+            SWbemObjectSet<T> set =
+                new SWbemObjectSet<T>(dispatch, this, clazz);
+            set.setFetchSize(fetchSize);
+            set.setForwardOnly(flags != null
+                && (flags.intValue() & wbemFlagForwardOnly) != 0);
+            return set;
         }
         catch (JIException ex)
         {
@@ -0,0 +1,487 @@
+/*
+ * Copyright (c) 2009, Hyper9 All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer. Redistributions in binary
+ * form must reproduce the above copyright notice, this list of conditions and
+ * the following disclaimer in the documentation and/or other materials provided
+ * with the distribution. Neither the name of Hyper9 nor the names of its
+ * contributors may be used to endorse or promote products derived from this
+ * software without specific prior written permission. THIS SOFTWARE IS PROVIDED
+ * BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO
+ * EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT,
+ * INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.h9labs.jwbem;
+
+import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import org.jinterop.dcom.common.JIException;
+
+/**
+ * A pool of connected SWbemServices objects. Connections are keyed by host
+ * name, SWbem target, namespace and credentials, so that repeated connections to
+ * the same namespace reuse a warm DCOM session instead of paying for the
+ * NTLM handshake and the SWbemLocator activation every time.
+ * 
+ * @author akutz
+ * 
+ */
+public class SWbemServicesPool
+{
+    /**
+     * The default maximum number of connections per key.
+     */
+    final static public int DEFAULT_MAX_PER_KEY = 4;
+
+    /**
+     * The default number of milliseconds a connection may sit idle in the pool
+     * before it is disconnected.
+     */
+    final static public long DEFAULT_MAX_IDLE_MILLIS = 1000 * 60 * 5;
+
+    /**
+     * The maximum number of connections, leased or idle, per key.
+     */
+    final private int maxPerKey;
+
+    /**
+     * The number of milliseconds a connection may sit idle in the pool before
+     * it is disconnected.
+     */
+    final private long maxIdleMillis;
+
+    /**
+     * The pooled connections, by key.
+     */
+    final private Map<Key, Entry> entries = new HashMap<Key, Entry>();
+
+    /**
+     * The key of each leased connection.
+     */
+    final private Map<SWbemServices, Key> leased =
+        new IdentityHashMap<SWbemServices, Key>();
+
+    private boolean closed = false;
+
+    /**
+     * Initializes a new instance of the SWbemServicesPool class with the
+     * default limits.
+     */
+    public SWbemServicesPool()
+    {
+        this(DEFAULT_MAX_PER_KEY, DEFAULT_MAX_IDLE_MILLIS);
+    }
+
+    /**
+     * Initializes a new instance of the SWbemServicesPool class.
+     * 
+     * @param maxPerKey The maximum number of connections, leased or idle, per
+     *        host, SWbem target, namespace and credentials.
+     * @param maxIdleMillis The number of milliseconds a connection may sit
+     *        idle in the pool before it is disconnected.
+     */
+    public SWbemServicesPool(final int maxPerKey, final long maxIdleMillis)
+    {
+        if (maxPerKey < 1)
+        {
+            throw new IllegalArgumentException("maxPerKey must be positive.");
+        }
+        this.maxPerKey = maxPerKey;
+        this.maxIdleMillis = maxIdleMillis;
+    }
+
+    /**
+     * Leases a connection from the pool. An idle connection for the same key is
+     * validated and reused if possible; otherwise a new connection is made. If
+     * the maximum number of connections for the key are already leased this
+     * method blocks until one is returned.
+     * 
+     * @param hostName The name of the host to connect to.
+     * @param swbemTarget The name of the host to send WMI calls to.
+     * @param namespace The namespace to connect to.
+     * @param userName The username to connect as.
+     * @param password The password for the username.
+     * @return A leased SWbemServices object. It must be given back to the pool
+     *         with release or invalidate.
+     * @throws JIException When an error occurs.
+     * @throws UnknownHostException When the host is unknown.
+     * @throws InterruptedException When interrupted while waiting for a
+     *         connection.
+     * @see SWbemLocator#connect(String, String, String, String, String)
+     */
+    public SWbemServices lease(
+        final String hostName,
+        final String swbemTarget,
+        final String namespace,
+        final String userName,
+        final String password)
+        throws JIException,
+        UnknownHostException,
+        InterruptedException
+    {
+        final Key key =
+            new Key(hostName, swbemTarget, namespace, userName, password);
+
+        // Reserve a slot, reusing an idle connection if there is one.
+        SWbemServices candidate = null;
+        final List<SWbemServices> evicted;
+        synchronized (this)
+        {
+            evicted = evictIdle(System.currentTimeMillis());
+
+            Entry entry = getEntry(key);
+            while (!this.closed && entry.idle.isEmpty()
+                && entry.size() >= this.maxPerKey)
+            {
+                wait();
+                entry = getEntry(key);
+            }
+            if (this.closed)
+            {
+                throw new IllegalStateException("The pool is closed.");
+            }
+            if (!entry.idle.isEmpty())
+            {
+                candidate = entry.idle.removeFirst().service;
+            }
+            entry.leased++;
+        }
+
+        // Talk to the server outside of the lock.
+        for (final SWbemServices s : evicted)
+        {
+            disconnect(s);
+        }
+        boolean success = false;
+        try
+        {
+            if (candidate != null && !isValid(candidate))
+            {
+                disconnect(candidate);
+                candidate = null;
+            }
+            if (candidate == null)
+            {
+                candidate =
+                    new SWbemLocator().connect(
+                        hostName,
+                        swbemTarget,
+                        namespace,
+                        userName,
+                        password);
+            }
+            success = true;
+        }
+        finally
+        {
+            synchronized (this)
+            {
+                if (success)
+                {
+                    this.leased.put(candidate, key);
+                }
+                else
+                {
+                    getEntry(key).leased--;
+                    notifyAll();
+                }
+            }
+        }
+
+        return candidate;
+    }
+
+    /**
+     * Returns a leased connection to the pool so that it can be reused.
+     * 
+     * @param service A connection leased from this pool.
+     */
+    public void release(final SWbemServices service)
+    {
+        synchronized (this)
+        {
+            final Key key = this.leased.remove(service);
+            if (key == null)
+            {
+                throw new IllegalArgumentException(
+                    "The connection was not leased from this pool.");
+            }
+            final Entry entry = getEntry(key);
+            entry.leased--;
+            if (!this.closed)
+            {
+                entry.idle.addFirst(new Idle(service, System
+                    .currentTimeMillis()));
+                notifyAll();
+                return;
+            }
+            notifyAll();
+        }
+
+        disconnect(service);
+    }
+
+    /**
+     * Discards a leased connection that is known to be broken. The connection
+     * is disconnected and its slot is freed.
+     * 
+     * @param service A connection leased from this pool.
+     */
+    public void invalidate(final SWbemServices service)
+    {
+        synchronized (this)
+        {
+            final Key key = this.leased.remove(service);
+            if (key == null)
+            {
+                throw new IllegalArgumentException(
+                    "The connection was not leased from this pool.");
+            }
+            getEntry(key).leased--;
+            notifyAll();
+        }
+
+        disconnect(service);
+    }
+
+    /**
+     * Disconnects every idle connection that has not been used for longer than
+     * the maximum idle time. This is also done whenever a connection is leased,
+     * but callers may schedule it to release resources on a quiet pool.
+     */
+    public void evictIdle()
+    {
+        final List<SWbemServices> evicted;
+        synchronized (this)
+        {
+            evicted = evictIdle(System.currentTimeMillis());
+        }
+        for (final SWbemServices s : evicted)
+        {
+            disconnect(s);
+        }
+    }
+
+    /**
+     * Disconnects every idle connection and refuses new leases. Connections
+     * that are still leased are disconnected when they are released.
+     */
+    public void close()
+    {
+        final List<SWbemServices> idle = new ArrayList<SWbemServices>();
+        synchronized (this)
+        {
+            this.closed = true;
+            for (final Entry entry : this.entries.values())
+            {
+                for (final Idle i : entry.idle)
+                {
+                    idle.add(i.service);
+                }
+                entry.idle.clear();
+            }
+            notifyAll();
+        }
+        for (final SWbemServices s : idle)
+        {
+            disconnect(s);
+        }
+    }
+
+    /**
+     * Gets the number of idle connections in the pool.
+     * 
+     * @return The number of idle connections in the pool.
+     */
+    public synchronized int getIdleCount()
+    {
+        int count = 0;
+        for (final Entry entry : this.entries.values())
+        {
+            count += entry.idle.size();
+        }
+        return count;
+    }
+
+    /**
+     * Gets the number of leased connections.
+     * 
+     * @return The number of leased connections.
+     */
+    public synchronized int getLeasedCount()
+    {
+        return this.leased.size();
+    }
+
+    private Entry getEntry(final Key key)
+    {
+        Entry entry = this.entries.get(key);
+        if (entry == null)
+        {
+            entry = new Entry();
+            this.entries.put(key, entry);
+        }
+        return entry;
+    }
+
+    /**
+     * Removes the expired idle connections. Must be called while holding the
+     * pool's lock; the caller is responsible for disconnecting the returned
+     * connections once the lock has been released.
+     */
+    private List<SWbemServices> evictIdle(final long now)
+    {
+        final List<SWbemServices> evicted = new ArrayList<SWbemServices>();
+        final Iterator<Entry> entryIter = this.entries.values().iterator();
+        while (entryIter.hasNext())
+        {
+            final Entry entry = entryIter.next();
+            final Iterator<Idle> idleIter = entry.idle.iterator();
+            while (idleIter.hasNext())
+            {
+                final Idle i = idleIter.next();
+                if (now - i.since > this.maxIdleMillis)
+                {
+                    evicted.add(i.service);
+                    idleIter.remove();
+                }
+            }
+            if (entry.size() == 0)
+            {
+                entryIter.remove();
+            }
+        }
+        return evicted;
+    }
+
+    /**
+     * Validates a pooled connection with a single, cheap round trip.
+     */
+    private static boolean isValid(final SWbemServices service)
+    {
+        try
+        {
+            service.getObjectDispatcher().get("Security_");
+            return true;
+        }
+        catch (Exception e)
+        {
+            return false;
+        }
+    }
+
+    private static void disconnect(final SWbemServices service)
+    {
+        final SWbemLocator locator = service.getLocator();
+        if (locator != null)
+        {
+            locator.disconnect();
+        }
+    }
+
+    /**
+     * The pooled connections for one key.
+     */
+    private static class Entry
+    {
+        /**
+         * The idle connections, most recently used first.
+         */
+        final LinkedList<Idle> idle = new LinkedList<Idle>();
+
+        /**
+         * The number of leased connections.
+         */
+        int leased = 0;
+
+        int size()
+        {
+            return this.leased + this.idle.size();
+        }
+    }
+
+    /**
+     * An idle connection and the time it was returned to the pool.
+     */
+    private static class Idle
+    {
+        final SWbemServices service;
+        final long since;
+
+        Idle(final SWbemServices service, final long since)
+        {
+            this.service = service;
+            this.since = since;
+        }
+    }
+
+    /**
+     * Identifies the connections that may be used interchangeably.
+     */
+    private static class Key
+    {
+        final private String hostName;
+        final private String swbemTarget;
+        final private String namespace;
+        final private String userName;
+        final private String password;
+
+        Key(
+            final String hostName,
+            final String swbemTarget,
+            final String namespace,
+            final String userName,
+            final String password)
+        {
+            this.hostName = hostName.toLowerCase();
+            this.swbemTarget = swbemTarget.toLowerCase();
+            this.namespace = namespace.toLowerCase();
+            this.userName = userName.toLowerCase();
+            this.password = password;
+        }
+
+        @Override
+        public boolean equals(final Object obj)
+        {
+            if (!(obj instanceof Key))
+            {
+                return false;
+            }
+            final Key k = (Key) obj;
+            return this.hostName.equals(k.hostName)
+                && this.swbemTarget.equals(k.swbemTarget)
+                && this.namespace.equals(k.namespace)
+                && this.userName.equals(k.userName)
+                && this.password.equals(k.password);
+        }
+
+        @Override
+        public int hashCode()
+        {
+            int hash = this.hostName.hashCode();
+            hash = 31 * hash + this.swbemTarget.hashCode();
+            hash = 31 * hash + this.namespace.hashCode();
+            hash = 31 * hash + this.userName.hashCode();
+            hash = 31 * hash + this.password.hashCode();
+            return hash;
+        }
+    }
+}
@@ -26,12 +26,15 @@
 package com.h9labs.jwbem;
 
 import java.lang.reflect.Array;
-import java.lang.reflect.Constructor;
+import java.util.ArrayList;
 import java.util.Iterator;
+import java.util.List;
 import java.util.NoSuchElementException;
 import org.jinterop.dcom.common.JIException;
 import org.jinterop.dcom.core.IJIComObject;
 import org.jinterop.dcom.core.JIArray;
+import org.jinterop.dcom.core.JICallBuilder;
+import org.jinterop.dcom.core.JIFlags;
 import org.jinterop.dcom.core.JIString;
 import org.jinterop.dcom.core.JIVariant;
 import org.jinterop.dcom.impls.JIObjectFactory;
@@ -48,13 +51,34 @@ import org.jinterop.dcom.impls.automation.IJIEnumVariant;
 public class SWbemSet<T extends SWbemSetItem> extends SWbemDispatchObject
     implements Iterable<T>
 {
+    /**
+     * The HRESULT IEnumVARIANT::Next returns when fewer elements than requested
+     * were left to fetch.
+     */
+    private static final int S_FALSE = 1;
+
     private Integer size;
 
+    /**
+     * The number of elements fetched per IEnumVARIANT::Next call.
+     */
+    private int fetchSize = 1;
+
+    /**
+     * Whether or not the set was returned by a forward-only query.
+     */
+    private boolean forwardOnly = false;
+
     /**
      * T's class type.
      */
     private Class<T> clazz;
 
+    /**
+     * Creates the items of the set.
+     */
+    private SWbemSetItemFactory<T> factory;
+
     /**
      * Initializes a new instance of the SWbemSet class.
      * 
@@ -65,6 +89,11 @@ public class SWbemSet<T extends SWbemSetItem> extends SWbemDispatchObject
     private SWbemSet(IJIDispatch objectDispatcher, SWbemServices service)
     {
         super(objectDispatcher, service);
+
+        if (service != null)
+        {
+            this.fetchSize = service.getFetchSize();
+        }
     }
 
     /**
@@ -82,6 +111,60 @@ public class SWbemSet<T extends SWbemSetItem> extends SWbemDispatchObject
     {
         this(objectDispatcher, service);
         this.clazz = clazz;
+        this.factory = SWbemSetItemFactories.get(clazz);
+    }
+
+    /**
+     * Gets the number of elements fetched from the server per round trip when
+     * iterating the set.
+     * 
+     * @return The number of elements fetched from the server per round trip.
+     */
+    public int getFetchSize()
+    {
+        return this.fetchSize;
+    }
+
+    /**
+     * Sets the number of elements fetched from the server per round trip when
+     * iterating the set. The remaining elements of each block are served from
+     * a local buffer.
+     * 
+     * @param fetchSize The number of elements fetched from the server per
+     *        round trip.
+     */
+    public void setFetchSize(int fetchSize)
+    {
+        if (fetchSize < 1)
+        {
+            throw new IllegalArgumentException("fetchSize must be positive.");
+        }
+        this.fetchSize = fetchSize;
+    }
+
+    /**
+     * Gets a value indicating whether or not the set was returned by a
+     * forward-only query. A forward-only set does not know its size and can
+     * only be iterated once.
+     * 
+     * @return A value indicating whether or not the set was returned by a
+     *         forward-only query.
+     */
+    public boolean isForwardOnly()
+    {
+        return this.forwardOnly;
+    }
+
+    /**
+     * Sets a value indicating whether or not the set was returned by a
+     * forward-only query.
+     * 
+     * @param forwardOnly A value indicating whether or not the set was
+     *        returned by a forward-only query.
+     */
+    void setForwardOnly(boolean forwardOnly)
+    {
+        this.forwardOnly = forwardOnly;
     }
 
     public Iterator<T> iterator()
@@ -90,10 +173,11 @@ public class SWbemSet<T extends SWbemSetItem> extends SWbemDispatchObject
         {
             return new SWbemSetIterator(super.objectDispatcher, this.service);
         }
-        catch (Exception e)
+        catch (JIException e)
         {
-            // Swallow the exception.
-            return null;
+            throw new SWbemEnumerationException(
+                "The enumeration of the set could not be started.",
+                e);
         }
     }
 
@@ -101,9 +185,17 @@ public class SWbemSet<T extends SWbemSetItem> extends SWbemDispatchObject
      * Gets the number of items in this set.
      * 
      * @return The number of items in this set.
+     * @throws UnsupportedOperationException When the set was returned by a
+     *         forward-only query.
      */
     public int getSize()
     {
+        if (this.forwardOnly)
+        {
+            throw new UnsupportedOperationException(
+                "The size of a forward-only set is unknown.");
+        }
+
         if (this.size != null)
         {
             return this.size;
@@ -130,6 +222,17 @@ public class SWbemSet<T extends SWbemSetItem> extends SWbemDispatchObject
     @SuppressWarnings("unchecked")
     public T[] toArray()
     {
+        if (this.forwardOnly)
+        {
+            final List<T> list = new ArrayList<T>();
+            final Iterator<T> iter = this.iterator();
+            while (iter.hasNext())
+            {
+                list.add(iter.next());
+            }
+            return list.toArray((T[]) Array.newInstance(clazz, list.size()));
+        }
+
         T[] arr = (T[]) Array.newInstance(clazz, this.getSize());
         int x = 0;
         Iterator<T> iter = this.iterator();
@@ -149,6 +252,17 @@ public class SWbemSet<T extends SWbemSetItem> extends SWbemDispatchObject
      */
     public IJIDispatch[] toNativeArray()
     {
+        if (this.forwardOnly)
+        {
+            final T[] items = this.toArray();
+            final IJIDispatch[] arr = new IJIDispatch[items.length];
+            for (int x = 0; x < items.length; ++x)
+            {
+                arr[x] = ((SWbemObject) items[x]).getObjectDispatcher();
+            }
+            return arr;
+        }
+
         IJIDispatch[] arr = new IJIDispatch[this.getSize()];
         int x = 0;
         Iterator<T> iter = this.iterator();
@@ -183,11 +297,7 @@ public class SWbemSet<T extends SWbemSetItem> extends SWbemDispatchObject
                 (IJIDispatch) JIObjectFactory.narrowObject(prop);
 
             // Create a new SWbemSetItem from the result.
-            final Constructor<T> ctor =
-                this.clazz.getConstructor(
-                    IJIDispatch.class,
-                    SWbemServices.class);
-            final T item = ctor.newInstance(dispatch, this.service);
+            final T item = this.factory.newInstance(dispatch, this.service);
 
             // Return the SWbemSetItem.
             return item;
@@ -215,14 +325,40 @@ public class SWbemSet<T extends SWbemSetItem> extends SWbemDispatchObject
         Iterator<T>
     {
         /**
-         * The count.
+         * The number of elements that have not been fetched yet. This is not
+         * known for forward-only sets.
          */
         private int count = 0;
 
+        /**
+         * Whether or not the enumerator has returned its last element.
+         */
+        private boolean exhausted = false;
+
         /**
          * The enumerator.
          */
-        private IJIEnumVariant enumerator = null;
+        private IJIComObject enumerator = null;
+
+        /**
+         * The elements fetched by the last call to the enumerator.
+         */
+        private JIVariant[] buffer = new JIVariant[0];
+
+        /**
+         * The index of the next element in the buffer.
+         */
+        private int bufferIndex = 0;
+
+        /**
+         * The number of valid elements in the buffer.
+         */
+        private int bufferLength = 0;
+
+        /**
+         * The error raised by the enumerator, if any.
+         */
+        private JIException error = null;
 
         /**
          * Initializes a new instance of the SWbemSetIterator class.
@@ -239,51 +375,78 @@ public class SWbemSet<T extends SWbemSetItem> extends SWbemDispatchObject
         {
             super(objectDispatcher, service);
 
-            JIVariant jiCount = super.objectDispatcher.get("Count");
-            this.count = jiCount.getObjectAsInt();
+            // Forward-only sets do not support Count; they are read until the
+            // enumerator runs dry instead.
+            if (!forwardOnly)
+            {
+                JIVariant jiCount = super.objectDispatcher.get("Count");
+                this.count = jiCount.getObjectAsInt();
+            }
 
             JIVariant variant = super.objectDispatcher.get("_NewEnum");
             IJIComObject co = variant.getObjectAsComObject();
-            co = co.queryInterface(IJIEnumVariant.IID);
-            this.enumerator = (IJIEnumVariant) JIObjectFactory.narrowObject(co);
+            this.enumerator = co.queryInterface(IJIEnumVariant.IID);
         }
 
         public boolean hasNext()
         {
-            return this.count > 0;
-        }
+            if (this.bufferIndex < this.bufferLength)
+            {
+                return true;
+            }
 
-        public T next()
-        {
-            try
+            // An enumeration that has failed stays failed; the error is
+            // raised again rather than reported as the end of the set.
+            if (this.error != null)
             {
-                if (hasNext())
+                throw new SWbemEnumerationException(
+                    "The enumeration of the set failed.",
+                    this.error);
+            }
+
+            final boolean more = forwardOnly ? !this.exhausted : this.count > 0;
+            if (more)
+            {
+                try
                 {
-                    count--;
-                    Object[] values = this.enumerator.next(1);
-                    JIArray array = (JIArray) values[0];
-                    Object[] arrayObj = (Object[]) array.getArrayInstance();
-                    IJIComObject co =
-                        ((JIVariant) arrayObj[0]).getObjectAsComObject();
-                    IJIDispatch dispatch =
-                        (IJIDispatch) JIObjectFactory.narrowObject(co);
-
-                    // Create a new SWbemSetItem from the result.
-                    final Constructor<T> ctor =
-                        clazz.getConstructor(
-                            IJIDispatch.class,
-                            SWbemServices.class);
-                    final T item = ctor.newInstance(dispatch, this.service);
-                    return item;
+                    fetch();
                 }
-                else
+                catch (JIException e)
                 {
-                    throw new NoSuchElementException();
+                    this.error = e;
+                    throw new SWbemEnumerationException(
+                        "The enumeration of the set failed.",
+                        e);
                 }
             }
-            catch (Exception ex)
+            return this.bufferIndex < this.bufferLength;
+        }
+
+        public T next()
+        {
+            if (!hasNext())
             {
-                return null;
+                throw new NoSuchElementException();
+            }
+
+            JIVariant variant = this.buffer[this.bufferIndex];
+            this.buffer[this.bufferIndex++] = null;
+
+            try
+            {
+                IJIComObject co = variant.getObjectAsComObject();
+                IJIDispatch dispatch =
+                    (IJIDispatch) JIObjectFactory.narrowObject(co);
+
+                // Create a new SWbemSetItem from the result.
+                final T item = factory.newInstance(dispatch, this.service);
+                return item;
+            }
+            catch (Exception e)
+            {
+                throw new SWbemEnumerationException(
+                    "An element of the set could not be read.",
+                    e);
             }
         }
 
@@ -291,5 +454,65 @@ public class SWbemSet<T extends SWbemSetItem> extends SWbemDispatchObject
         {
             throw new UnsupportedOperationException();
         }
+
+        /**
+         * Fetches the next block of elements into the buffer with a single
+         * IEnumVARIANT::Next call.
+         * 
+         * @throws JIException When an error occurs.
+         */
+        private void fetch() throws JIException
+        {
+            final int requested =
+                forwardOnly ? fetchSize : Math.min(fetchSize, this.count);
+
+            // IEnumVARIANT::Next is invoked directly rather than through
+            // IJIEnumVariant so that the elements of a final, short block,
+            // which the server reports with S_FALSE, are not lost.
+            final JICallBuilder callObject = new JICallBuilder(true);
+            callObject.setOpnum(0);
+            callObject.addInParamAsInt(requested, JIFlags.FLAG_NULL);
+            callObject.addOutParamAsObject(new JIArray(
+                JIVariant.class,
+                null,
+                1,
+                true,
+                true), JIFlags.FLAG_NULL);
+            callObject.addOutParamAsType(Integer.class, JIFlags.FLAG_NULL);
+
+            Object[] results;
+            try
+            {
+                results = this.enumerator.call(callObject);
+            }
+            catch (JIException e)
+            {
+                if (e.getErrorCode() != S_FALSE)
+                {
+                    throw e;
+                }
+                results = callObject.getResultsInCaseOfException();
+            }
+
+            final JIVariant[] fetched =
+                (JIVariant[]) ((JIArray) results[0]).getArrayInstance();
+            final int fetchedCount =
+                Math.min(((Integer) results[1]).intValue(), fetched.length);
+
+            this.buffer = fetched;
+            this.bufferIndex = 0;
+            this.bufferLength = fetchedCount;
+
+            // A short block means the enumeration has ended.
+            if (fetchedCount < requested)
+            {
+                this.exhausted = true;
+                this.count = 0;
+            }
+            else
+            {
+                this.count -= fetchedCount;
+            }
+        }
     }
 }
\ No newline at end of file
@@ -0,0 +1,175 @@
+/*
+ * Copyright (c) 2009, Hyper9 All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer. Redistributions in binary
+ * form must reproduce the above copyright notice, this list of conditions and
+ * the following disclaimer in the documentation and/or other materials provided
+ * with the distribution. Neither the name of Hyper9 nor the names of its
+ * contributors may be used to endorse or promote products derived from this
+ * software without specific prior written permission. THIS SOFTWARE IS PROVIDED
+ * BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO
+ * EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT,
+ * INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+
+package com.h9labs.jwbem;
+
+import java.lang.reflect.Constructor;
+import java.lang.reflect.InvocationTargetException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import org.jinterop.dcom.impls.automation.IJIDispatch;
+
+/**
+ * The registry of SWbemSetItemFactory objects, by item class. A factory is
+ * resolved once per class so that enumerating a set only allocates the items.
+ * Classes without a registered factory get one that invokes their
+ * (IJIDispatch, SWbemServices) constructor.
+ * 
+ * @author akutz
+ * 
+ */
+final public class SWbemSetItemFactories
+{
+    /**
+     * The factories, by item class.
+     */
+    private static final ConcurrentMap<Class<?>, SWbemSetItemFactory<?>> map =
+        new ConcurrentHashMap<Class<?>, SWbemSetItemFactory<?>>();
+
+    static
+    {
+        register(SWbemObject.class, new SWbemSetItemFactory<SWbemObject>()
+        {
+            public SWbemObject newInstance(
+                IJIDispatch objectDispatcher,
+                SWbemServices service)
+            {
+                return new SWbemObject(objectDispatcher, service);
+            }
+        });
+        register(SWbemProperty.class, new SWbemSetItemFactory<SWbemProperty>()
+        {
+            public SWbemProperty newInstance(
+                IJIDispatch objectDispatcher,
+                SWbemServices service)
+            {
+                return new SWbemProperty(objectDispatcher, service);
+            }
+        });
+        register(SWbemMethod.class, new SWbemSetItemFactory<SWbemMethod>()
+        {
+            public SWbemMethod newInstance(
+                IJIDispatch objectDispatcher,
+                SWbemServices service)
+            {
+                return new SWbemMethod(objectDispatcher, service);
+            }
+        });
+    }
+
+    private SWbemSetItemFactories()
+    {
+    }
+
+    /**
+     * Registers the factory for a class, replacing any existing one.
+     * 
+     * @param <T> The type of item.
+     * 
+     * @param clazz The class of item the factory creates.
+     * @param factory The factory.
+     */
+    public static <T extends SWbemSetItem> void register(
+        final Class<T> clazz,
+        final SWbemSetItemFactory<T> factory)
+    {
+        map.put(clazz, factory);
+    }
+
+    /**
+     * Gets the factory for a class.
+     * 
+     * @param <T> The type of item.
+     * 
+     * @param clazz The class of item to create.
+     * @return The factory for the class.
+     * @throws IllegalArgumentException When the class has no registered
+     *         factory and no public (IJIDispatch, SWbemServices) constructor.
+     */
+    @SuppressWarnings("unchecked")
+    public static <T extends SWbemSetItem> SWbemSetItemFactory<T> get(
+        final Class<T> clazz)
+    {
+        SWbemSetItemFactory<T> factory =
+            (SWbemSetItemFactory<T>) map.get(clazz);
+        if (factory != null)
+        {
+            return factory;
+        }
+
+        factory = new ConstructorFactory<T>(clazz);
+        final SWbemSetItemFactory<?> existing =
+            map.putIfAbsent(clazz, factory);
+        return existing != null ? (SWbemSetItemFactory<T>) existing : factory;
+    }
+
+    /**
+     * A factory that invokes a class's (IJIDispatch, SWbemServices)
+     * constructor, which is looked up only once.
+     * 
+     * @param <T> The type of item created.
+     */
+    private static class ConstructorFactory<T extends SWbemSetItem> implements
+        SWbemSetItemFactory<T>
+    {
+        private final Constructor<T> ctor;
+
+        ConstructorFactory(final Class<T> clazz)
+        {
+            try
+            {
+                this.ctor =
+                    clazz.getConstructor(
+                        IJIDispatch.class,
+                        SWbemServices.class);
+            }
+            catch (NoSuchMethodException e)
+            {
+                throw new IllegalArgumentException(clazz.getName()
+                    + " has no (IJIDispatch, SWbemServices) constructor.", e);
+            }
+        }
+
+        public T newInstance(
+            final IJIDispatch objectDispatcher,
+            final SWbemServices service) throws Exception
+        {
+            try
+            {
+                return this.ctor.newInstance(objectDispatcher, service);
+            }
+            catch (InvocationTargetException e)
+            {
+                final Throwable cause = e.getCause();
+                if (cause instanceof Exception)
+                {
+                    throw (Exception) cause;
+                }
+                throw e;
+            }
+        }
+    }
+}
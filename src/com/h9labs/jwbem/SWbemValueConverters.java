@@ -0,0 +1,520 @@
+/*
+ * Copyright (c) 2009, Hyper9 All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer. Redistributions in binary
+ * form must reproduce the above copyright notice, this list of conditions and
+ * the following disclaimer in the documentation and/or other materials provided
+ * with the distribution. Neither the name of Hyper9 nor the names of its
+ * contributors may be used to endorse or promote products derived from this
+ * software without specific prior written permission. THIS SOFTWARE IS PROVIDED
+ * BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO
+ * EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT,
+ * INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+
+package com.h9labs.jwbem;
+
+import java.math.BigInteger;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+import org.jinterop.dcom.common.JIException;
+import org.jinterop.dcom.core.IJIUnsigned;
+import org.jinterop.dcom.core.JIArray;
+import org.jinterop.dcom.core.JIFlags;
+import org.jinterop.dcom.core.JIUnsignedFactory;
+import org.jinterop.dcom.core.JIVariant;
+
+/**
+ * The table of SWbemValueConverter objects, by VARTYPE and target class. The
+ * table is built once and never modified, so a typed read is a single lookup.
+ * 
+ * @author akutz
+ * @remarks WMI returns uint8 as VT_UI1, sint8, sint16, uint16, sint32 and
+ *          uint32 as VT_I2 or VT_I4, sint64 and uint64 as VT_BSTR, real32 as
+ *          VT_R4, real64 as VT_R8 and datetime as VT_BSTR. The unsigned
+ *          VARTYPEs are also supported for values from other sources.
+ *          Narrowing a number follows the Java rules for primitive narrowing.
+ *          A uint32 above Integer.MAX_VALUE arrives as a negative VT_I4; see
+ *          toUnsigned32.
+ */
+final public class SWbemValueConverters
+{
+    /**
+     * One more than the largest VARTYPE in the table.
+     */
+    private static final int VT_LIMIT = JIVariant.VT_UINT + 1;
+
+    /**
+     * The CIM type of a uint32 property.
+     */
+    final static public int CIM_UINT32 = 19;
+
+    /**
+     * The flag that is set on the CIM type of an array property.
+     */
+    final static public int CIM_FLAG_ARRAY = 0x2000;
+
+    /**
+     * The VARTYPEs of numbers.
+     */
+    private static final int[] NUMERIC_TYPES =
+        new int[]
+        {
+            JIVariant.VT_UI1, JIVariant.VT_I2, JIVariant.VT_UI2,
+            JIVariant.VT_I4, JIVariant.VT_UI4, JIVariant.VT_INT,
+            JIVariant.VT_UINT, JIVariant.VT_I8, JIVariant.VT_R4,
+            JIVariant.VT_R8
+        };
+
+    /**
+     * Converts VT_NULL and VT_EMPTY to null, whatever the target class.
+     */
+    private static final SWbemValueConverter<Object> NULL_CONVERTER =
+        new SWbemValueConverter<Object>()
+        {
+            public Object convert(JIVariant value)
+            {
+                return null;
+            }
+        };
+
+    /**
+     * The converters by target class, each indexed by VARTYPE.
+     */
+    private static final Map<Class<?>, SWbemValueConverter<?>[]> table =
+        new HashMap<Class<?>, SWbemValueConverter<?>[]>();
+
+    static
+    {
+        addNumber(Byte.class, new NumberType<Byte>()
+        {
+            Byte fromNumber(Number n)
+            {
+                return n.byteValue();
+            }
+
+            Byte fromString(String s)
+            {
+                return Byte.valueOf(s);
+            }
+        });
+        addNumber(Short.class, new NumberType<Short>()
+        {
+            Short fromNumber(Number n)
+            {
+                return n.shortValue();
+            }
+
+            Short fromString(String s)
+            {
+                return Short.valueOf(s);
+            }
+        });
+        addNumber(Integer.class, new NumberType<Integer>()
+        {
+            Integer fromNumber(Number n)
+            {
+                return n.intValue();
+            }
+
+            Integer fromString(String s)
+            {
+                return Integer.valueOf(s);
+            }
+        });
+        addNumber(Long.class, new NumberType<Long>()
+        {
+            Long fromNumber(Number n)
+            {
+                return n.longValue();
+            }
+
+            Long fromString(String s)
+            {
+                return Long.valueOf(s);
+            }
+        });
+        addNumber(Float.class, new NumberType<Float>()
+        {
+            Float fromNumber(Number n)
+            {
+                return n.floatValue();
+            }
+
+            Float fromString(String s)
+            {
+                return Float.valueOf(s);
+            }
+        });
+        addNumber(Double.class, new NumberType<Double>()
+        {
+            Double fromNumber(Number n)
+            {
+                return n.doubleValue();
+            }
+
+            Double fromString(String s)
+            {
+                return Double.valueOf(s);
+            }
+        });
+        addNumber(BigInteger.class, new NumberType<BigInteger>()
+        {
+            BigInteger fromNumber(Number n)
+            {
+                return BigInteger.valueOf(n.longValue());
+            }
+
+            BigInteger fromString(String s)
+            {
+                return new BigInteger(s);
+            }
+        });
+
+        final SWbemValueConverter<String> numberToString =
+            new SWbemValueConverter<String>()
+            {
+                public String convert(JIVariant value) throws JIException
+                {
+                    return String.valueOf(getNumber(value));
+                }
+            };
+        for (final int vt : NUMERIC_TYPES)
+        {
+            add(vt, String.class, numberToString);
+        }
+        add(JIVariant.VT_BSTR, String.class, new SWbemValueConverter<String>()
+        {
+            public String convert(JIVariant value) throws JIException
+            {
+                return value.getObjectAsString2();
+            }
+        });
+        add(JIVariant.VT_BOOL, String.class, new SWbemValueConverter<String>()
+        {
+            public String convert(JIVariant value) throws JIException
+            {
+                return String.valueOf(value.getObjectAsBoolean());
+            }
+        });
+
+        final SWbemValueConverter<Boolean> numberToBoolean =
+            new SWbemValueConverter<Boolean>()
+            {
+                public Boolean convert(JIVariant value) throws JIException
+                {
+                    return getNumber(value).longValue() != 0;
+                }
+            };
+        for (final int vt : NUMERIC_TYPES)
+        {
+            add(vt, Boolean.class, numberToBoolean);
+        }
+        add(
+            JIVariant.VT_BOOL,
+            Boolean.class,
+            new SWbemValueConverter<Boolean>()
+            {
+                public Boolean convert(JIVariant value) throws JIException
+                {
+                    return value.getObjectAsBoolean();
+                }
+            });
+        add(
+            JIVariant.VT_BSTR,
+            Boolean.class,
+            new SWbemValueConverter<Boolean>()
+            {
+                public Boolean convert(JIVariant value) throws JIException
+                {
+                    return Boolean.valueOf(value.getObjectAsString2());
+                }
+            });
+
+        add(JIVariant.VT_BSTR, Date.class, new SWbemValueConverter<Date>()
+        {
+            public Date convert(JIVariant value) throws JIException
+            {
+                return CIMDateTime.parseDate(value.getObjectAsString2());
+            }
+        });
+    }
+
+    private SWbemValueConverters()
+    {
+    }
+
+    /**
+     * Gets the converter from a VARTYPE to a class.
+     * 
+     * @param <T> The type of value to convert to.
+     * 
+     * @param vartype The VARTYPE of the value.
+     * @param clazz The class to convert the value to. Primitive classes are
+     *        treated as their wrappers.
+     * @return The converter, or null if the conversion is not supported.
+     */
+    @SuppressWarnings("unchecked")
+    public static <T> SWbemValueConverter<T> get(
+        final int vartype,
+        final Class<T> clazz)
+    {
+        return (SWbemValueConverter<T>) get(vartype, table.get(box(clazz)));
+    }
+
+    /**
+     * Gets a converter from any supported VARTYPE to a class. The class is
+     * resolved once, so a caller that converts many values, such as the
+     * elements of an array, should get the converter once and reuse it.
+     * 
+     * @param <T> The type of value to convert to.
+     * 
+     * @param clazz The class to convert values to. Primitive classes are
+     *        treated as their wrappers.
+     * @return The converter. It throws UnsupportedOperationException for a
+     *         VARTYPE that cannot be converted to the class.
+     */
+    public static <T> SWbemValueConverter<T> forClass(final Class<T> clazz)
+    {
+        final SWbemValueConverter<?>[] row = table.get(box(clazz));
+        return new SWbemValueConverter<T>()
+        {
+            @SuppressWarnings("unchecked")
+            public T convert(JIVariant value) throws JIException
+            {
+                final SWbemValueConverter<T> converter =
+                    (SWbemValueConverter<T>) get(value.getType(), row);
+                if (converter == null)
+                {
+                    throw new UnsupportedOperationException("Cannot convert "
+                        + "VARTYPE " + value.getType() + " to "
+                        + clazz.getName() + ".");
+                }
+                return converter.convert(value);
+            }
+        };
+    }
+
+    /**
+     * Converts a VARIANT.
+     * 
+     * @param <T> The type of value to convert to.
+     * 
+     * @param value The VARIANT.
+     * @param clazz The class to convert the value to.
+     * @return The converted value.
+     * @throws JIException When an error occurs.
+     * @throws UnsupportedOperationException When the conversion is not
+     *         supported.
+     */
+    public static <T> T convert(final JIVariant value, final Class<T> clazz)
+        throws JIException
+    {
+        return forClass(clazz).convert(value);
+    }
+
+    /**
+     * Gets a value indicating whether or not a VARIANT reads differently as a
+     * signed and as an unsigned number. Only then does the CIM type of its
+     * property need to be known to convert it.
+     * 
+     * @param value The VARIANT.
+     * @return True if the VARIANT is a negative VT_I4 or an array with a
+     *         negative 32-bit element; otherwise false.
+     * @throws JIException When an error occurs.
+     */
+    public static boolean isSignDependent(final JIVariant value)
+        throws JIException
+    {
+        if (value.isArray())
+        {
+            final Object o = value.getObject();
+            if (!(o instanceof JIArray))
+            {
+                return false;
+            }
+            for (final Object e : (Object[]) ((JIArray) o).getArrayInstance())
+            {
+                final Object n =
+                    e instanceof JIVariant ? ((JIVariant) e).getObject() : e;
+                if (n instanceof Integer && ((Integer) n).intValue() < 0)
+                {
+                    return true;
+                }
+            }
+            return false;
+        }
+        return value.getType() == JIVariant.VT_I4
+            && value.getObjectAsInt() < 0;
+    }
+
+    /**
+     * Gets a value indicating whether or not a CIM type is uint32 or an array
+     * of uint32.
+     * 
+     * @param cimType The CIM type, or null if it is unknown.
+     * @return True if the CIM type is uint32 or an array of uint32.
+     */
+    public static boolean isUnsigned32(final Integer cimType)
+    {
+        return cimType != null
+            && (cimType.intValue() & ~CIM_FLAG_ARRAY) == CIM_UINT32;
+    }
+
+    /**
+     * Reinterprets a VT_I4 VARIANT as the VT_UI4 it stands for. WMI sends
+     * uint32 values as VT_I4, so values above Integer.MAX_VALUE arrive
+     * negative.
+     * 
+     * @param value The VARIANT.
+     * @return The VT_UI4 VARIANT, or the value itself if it is not a VT_I4.
+     * @throws JIException When an error occurs.
+     */
+    public static JIVariant toUnsigned32(final JIVariant value)
+        throws JIException
+    {
+        if (value.getType() != JIVariant.VT_I4)
+        {
+            return value;
+        }
+        return new JIVariant(JIUnsignedFactory.getUnsigned(
+            Long.valueOf(value.getObjectAsInt() & 0xFFFFFFFFL),
+            JIFlags.FLAG_REPRESENTATION_UNSIGNED_INT));
+    }
+
+    /**
+     * Gets the converter for a VARTYPE from a row of the table.
+     */
+    private static SWbemValueConverter<?> get(
+        final int vartype,
+        final SWbemValueConverter<?>[] row)
+    {
+        if (vartype == JIVariant.VT_NULL || vartype == JIVariant.VT_EMPTY)
+        {
+            return NULL_CONVERTER;
+        }
+        if (row == null || vartype < 0 || vartype >= VT_LIMIT)
+        {
+            return null;
+        }
+        return row[vartype];
+    }
+
+    private static Class<?> box(final Class<?> clazz)
+    {
+        if (!clazz.isPrimitive())
+        {
+            return clazz;
+        }
+        if (clazz == int.class)
+        {
+            return Integer.class;
+        }
+        if (clazz == long.class)
+        {
+            return Long.class;
+        }
+        if (clazz == short.class)
+        {
+            return Short.class;
+        }
+        if (clazz == byte.class)
+        {
+            return Byte.class;
+        }
+        if (clazz == double.class)
+        {
+            return Double.class;
+        }
+        if (clazz == float.class)
+        {
+            return Float.class;
+        }
+        if (clazz == boolean.class)
+        {
+            return Boolean.class;
+        }
+        return clazz;
+    }
+
+    /**
+     * Reads a VARIANT with a numeric VARTYPE as a number. The unsigned
+     * VARTYPEs are widened so that their value is never negative.
+     */
+    private static Number getNumber(final JIVariant value) throws JIException
+    {
+        final Object o = value.getObject();
+        if (o instanceof IJIUnsigned)
+        {
+            return ((IJIUnsigned) o).getValue();
+        }
+        return (Number) o;
+    }
+
+    private static <T> void add(
+        final int vartype,
+        final Class<T> clazz,
+        final SWbemValueConverter<T> converter)
+    {
+        SWbemValueConverter<?>[] row = table.get(clazz);
+        if (row == null)
+        {
+            row = new SWbemValueConverter<?>[VT_LIMIT];
+            table.put(clazz, row);
+        }
+        row[vartype] = converter;
+    }
+
+    /**
+     * Adds the converters from the numeric VARTYPEs and VT_BSTR to a number
+     * class.
+     */
+    private static <T> void addNumber(
+        final Class<T> clazz,
+        final NumberType<T> type)
+    {
+        final SWbemValueConverter<T> fromNumber = new SWbemValueConverter<T>()
+        {
+            public T convert(JIVariant value) throws JIException
+            {
+                return type.fromNumber(getNumber(value));
+            }
+        };
+        for (final int vt : NUMERIC_TYPES)
+        {
+            add(vt, clazz, fromNumber);
+        }
+        add(JIVariant.VT_BSTR, clazz, new SWbemValueConverter<T>()
+        {
+            public T convert(JIVariant value) throws JIException
+            {
+                return type.fromString(value.getObjectAsString2().trim());
+            }
+        });
+    }
+
+    /**
+     * Creates instances of a number class.
+     * 
+     * @param <T> The number class.
+     */
+    private static abstract class NumberType<T>
+    {
+        abstract T fromNumber(Number n);
+
+        abstract T fromString(String s);
+    }
+}
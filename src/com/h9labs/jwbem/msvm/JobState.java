@@ -0,0 +1,101 @@
+/*
+ * Copyright (c) 2009, Hyper9 All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer. Redistributions in binary
+ * form must reproduce the above copyright notice, this list of conditions and
+ * the following disclaimer in the documentation and/or other materials provided
+ * with the distribution. Neither the name of Hyper9 nor the names of its
+ * contributors may be used to endorse or promote products derived from this
+ * software without specific prior written permission. THIS SOFTWARE IS PROVIDED
+ * BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO
+ * EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT,
+ * INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+
+package com.h9labs.jwbem.msvm;
+
+/**
+ * This class contains the values of the JobState property of a job.
+ * 
+ * @author akutz
+ * 
+ */
+public class JobState
+{
+    /**
+     * The job has never been started.
+     */
+    final static public int New = 2;
+
+    /**
+     * The job is moving from the New, Suspended, or Service states into the
+     * Running state.
+     */
+    final static public int Starting = 3;
+
+    /**
+     * The job is running.
+     */
+    final static public int Running = 4;
+
+    /**
+     * The job is stopped, but it can be restarted in a seamless manner.
+     */
+    final static public int Suspended = 5;
+
+    /**
+     * The job is moving to a Completed, Terminated, or Killed state.
+     */
+    final static public int ShuttingDown = 6;
+
+    /**
+     * The job has completed normally.
+     */
+    final static public int Completed = 7;
+
+    /**
+     * The job has been stopped by a "Terminate" state change request.
+     */
+    final static public int Terminated = 8;
+
+    /**
+     * The job has been stopped by a "Kill" state change request.
+     */
+    final static public int Killed = 9;
+
+    /**
+     * The job is in an abnormal state that might be indicative of an error
+     * condition.
+     */
+    final static public int Exception = 10;
+
+    /**
+     * The job is in a vendor-specific state that supports problem discovery,
+     * or resolution, or both.
+     */
+    final static public int Service = 11;
+
+    /**
+     * Gets a value indicating whether or not a job in the given state has
+     * finished.
+     * 
+     * @param jobState The state of the job.
+     * @return A value indicating whether or not the job has finished.
+     */
+    public static boolean isFinished(int jobState)
+    {
+        return jobState >= Completed && jobState <= Exception;
+    }
+}
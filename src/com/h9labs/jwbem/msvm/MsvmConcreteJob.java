@@ -0,0 +1,117 @@
+/*
+ * Copyright (c) 2009, Hyper9 All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer. Redistributions in binary
+ * form must reproduce the above copyright notice, this list of conditions and
+ * the following disclaimer in the documentation and/or other materials provided
+ * with the distribution. Neither the name of Hyper9 nor the names of its
+ * contributors may be used to endorse or promote products derived from this
+ * software without specific prior written permission. THIS SOFTWARE IS PROVIDED
+ * BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO
+ * EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT,
+ * INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+
+package com.h9labs.jwbem.msvm;
+
+import org.jinterop.dcom.impls.automation.IJIDispatch;
+import com.h9labs.jwbem.SWbemServices;
+
+/**
+ * Represents a job that performs an asynchronous virtualization operation.
+ * 
+ * @author akutz
+ * @see MsvmJobTracker
+ */
+public class MsvmConcreteJob extends MsvmObject
+{
+    /**
+     * Initializes a new instance of the MsvmConcreteJob class.
+     * 
+     * @param objectDispatcher The underlying dispatch object used to
+     *        communicate with the server.
+     * @param service The service connection.
+     */
+    public MsvmConcreteJob(IJIDispatch objectDispatcher, SWbemServices service)
+    {
+        super(objectDispatcher, service);
+    }
+
+    /**
+     * Gets the key of the job.
+     * 
+     * @return The key of the job.
+     */
+    public String getInstanceID()
+    {
+        return super.getProperty("InstanceID", String.class);
+    }
+
+    /**
+     * Gets the state of the job.
+     * 
+     * @return The state of the job, or 0 if it is unknown.
+     * @see JobState
+     */
+    public int getJobState()
+    {
+        final Integer jobState = super.getProperty("JobState", Integer.class);
+        return jobState == null ? 0 : jobState;
+    }
+
+    /**
+     * Gets the percentage of the job that has completed.
+     * 
+     * @return The percentage of the job that has completed, or 0 if it is
+     *         unknown.
+     */
+    public int getPercentComplete()
+    {
+        final Integer percentComplete =
+            super.getProperty("PercentComplete", Integer.class);
+        return percentComplete == null ? 0 : percentComplete;
+    }
+
+    /**
+     * Gets the error code of the job.
+     * 
+     * @return The error code of the job; 0 if the job did not fail.
+     */
+    public int getErrorCode()
+    {
+        final Integer errorCode = super.getProperty("ErrorCode", Integer.class);
+        return errorCode == null ? 0 : errorCode;
+    }
+
+    /**
+     * Gets a free-form description of the error of the job.
+     * 
+     * @return A description of the error of the job, or null.
+     */
+    public String getErrorDescription()
+    {
+        return super.getProperty("ErrorDescription", String.class);
+    }
+
+    /**
+     * Gets a value indicating whether or not the job has finished.
+     * 
+     * @return A value indicating whether or not the job has finished.
+     */
+    public boolean isFinished()
+    {
+        return JobState.isFinished(getJobState());
+    }
+}
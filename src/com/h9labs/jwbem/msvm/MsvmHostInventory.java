@@ -0,0 +1,402 @@
+/*
+ * Copyright (c) 2009, Hyper9 All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer. Redistributions in binary
+ * form must reproduce the above copyright notice, this list of conditions and
+ * the following disclaimer in the documentation and/or other materials provided
+ * with the distribution. Neither the name of Hyper9 nor the names of its
+ * contributors may be used to endorse or promote products derived from this
+ * software without specific prior written permission. THIS SOFTWARE IS PROVIDED
+ * BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO
+ * EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT,
+ * INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+
+package com.h9labs.jwbem.msvm;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import com.h9labs.jwbem.SWbemObject;
+import com.h9labs.jwbem.SWbemObjectPath;
+import com.h9labs.jwbem.SWbemObjectSet;
+import com.h9labs.jwbem.SWbemServices;
+import com.h9labs.jwbem.msvm.networking.MsvmSwitchPort;
+import com.h9labs.jwbem.msvm.networking.MsvmSwitchPortResolver;
+import com.h9labs.jwbem.msvm.networking.MsvmSyntheticEthernetPort;
+import com.h9labs.jwbem.msvm.networking.MsvmVirtualSwitch;
+import com.h9labs.jwbem.msvm.networking.MsvmVmLANEndpoint;
+import com.h9labs.jwbem.msvm.virtualsystem.MsvmComputerSystem;
+import com.h9labs.jwbem.msvm.virtualsystem.MsvmVirtualSystemSettingData;
+
+/**
+ * A snapshot of the virtual machines of a host and their networking: the
+ * computer systems, their setting data, synthetic Ethernet ports, LAN
+ * endpoints, switch ports and virtual switches. The inventory is loaded with
+ * one flat query per class and per association class and joined in memory,
+ * instead of an ASSOCIATORS OF query per object.
+ * 
+ * @author akutz
+ * @remarks Objects are joined on the keys in their paths, so each object
+ *          costs one read of its path besides the queries. The inventory is
+ *          not refreshed; load a new one to see changes.
+ */
+public class MsvmHostInventory
+{
+    private final Map<String, MsvmComputerSystem> computerSystems;
+
+    private final Map<String, MsvmVirtualSystemSettingData> settingData;
+
+    private final Map<String, MsvmSyntheticEthernetPort> syntheticPorts;
+
+    private final Map<String, MsvmVmLANEndpoint> lanEndpoints;
+
+    private final Map<String, MsvmSwitchPort> switchPorts;
+
+    private final Map<String, MsvmVirtualSwitch> virtualSwitches;
+
+    /**
+     * The key of every object in the inventory.
+     */
+    private final Map<Object, String> keys =
+        new IdentityHashMap<Object, String>();
+
+    /**
+     * The key of the active setting data, by computer system key.
+     */
+    private final Map<String, String> settingDataByComputerSystem =
+        new HashMap<String, String>();
+
+    /**
+     * The keys of the synthetic Ethernet ports, by computer system key.
+     */
+    private final Map<String, List<String>> portsByComputerSystem =
+        new HashMap<String, List<String>>();
+
+    /**
+     * The keys of the LAN endpoints, by synthetic Ethernet port key.
+     */
+    private final Map<String, List<String>> endpointsByPort =
+        new HashMap<String, List<String>>();
+
+    /**
+     * Resolves the switch ports the LAN endpoints are connected to.
+     */
+    private final MsvmSwitchPortResolver resolver;
+
+    private MsvmHostInventory(SWbemServices service) throws Exception
+    {
+        this.computerSystems =
+            load(service, "Msvm_ComputerSystem", MsvmComputerSystem.class);
+        this.settingData =
+            load(
+                service,
+                "Msvm_VirtualSystemSettingData",
+                MsvmVirtualSystemSettingData.class);
+        this.syntheticPorts =
+            load(
+                service,
+                "Msvm_SyntheticEthernetPort",
+                MsvmSyntheticEthernetPort.class);
+        this.lanEndpoints =
+            load(service, "Msvm_VmLANEndpoint", MsvmVmLANEndpoint.class);
+        this.resolver = MsvmSwitchPortResolver.read(service);
+        this.switchPorts = this.resolver.getSwitchPorts();
+        for (final Map.Entry<String, MsvmSwitchPort> e : this.switchPorts
+            .entrySet())
+        {
+            this.keys.put(e.getValue(), e.getKey());
+        }
+        this.virtualSwitches =
+            load(service, "Msvm_VirtualSwitch", MsvmVirtualSwitch.class);
+
+        // The active setting data of each computer system.
+        for (final String[] a : loadAssociations(
+            service,
+            "Msvm_SettingsDefineState",
+            "ManagedElement",
+            "SettingData"))
+        {
+            this.settingDataByComputerSystem.put(a[0], a[1]);
+        }
+
+        // The synthetic Ethernet ports of each computer system.
+        for (final String portKey : this.syntheticPorts.keySet())
+        {
+            add(this.portsByComputerSystem, systemKeyOf(portKey), portKey);
+        }
+
+        // The LAN endpoints of each synthetic Ethernet port.
+        for (final String[] a : loadAssociations(
+            service,
+            "Msvm_DeviceSAPImplementation",
+            "Antecedent",
+            "Dependent"))
+        {
+            if (this.syntheticPorts.containsKey(a[0])
+                && this.lanEndpoints.containsKey(a[1]))
+            {
+                add(this.endpointsByPort, a[0], a[1]);
+            }
+        }
+    }
+
+    /**
+     * Loads the inventory of a host.
+     * 
+     * @param service The host's service connection.
+     * @return The inventory of the host.
+     * @throws Exception When an error occurs.
+     */
+    public static MsvmHostInventory load(SWbemServices service)
+        throws Exception
+    {
+        return new MsvmHostInventory(service);
+    }
+
+    /**
+     * Gets the computer systems of the host, including the host itself.
+     * 
+     * @return The computer systems of the host.
+     */
+    public Collection<MsvmComputerSystem> getComputerSystems()
+    {
+        return Collections.unmodifiableCollection(this.computerSystems
+            .values());
+    }
+
+    /**
+     * Gets a computer system by its name.
+     * 
+     * @param name The name (GUID) of the computer system.
+     * @return The computer system, or null if there is none with that name.
+     */
+    public MsvmComputerSystem getComputerSystem(String name)
+    {
+        return this.computerSystems.get(key(
+            "Msvm_ComputerSystem",
+            "Msvm_ComputerSystem",
+            name));
+    }
+
+    /**
+     * Gets the active setting data of a computer system.
+     * 
+     * @param cs A computer system of this inventory.
+     * @return The active setting data, or null if there is none.
+     */
+    public MsvmVirtualSystemSettingData getSettingData(MsvmComputerSystem cs)
+    {
+        final String sdKey = this.settingDataByComputerSystem.get(keyOf(cs));
+        return sdKey == null ? null : this.settingData.get(sdKey);
+    }
+
+    /**
+     * Gets the synthetic Ethernet ports of a computer system.
+     * 
+     * @param cs A computer system of this inventory.
+     * @return The synthetic Ethernet ports of the computer system.
+     */
+    public List<MsvmSyntheticEthernetPort> getSyntheticEthernetPorts(
+        MsvmComputerSystem cs)
+    {
+        return get(
+            this.syntheticPorts,
+            this.portsByComputerSystem.get(keyOf(cs)));
+    }
+
+    /**
+     * Gets the LAN endpoints of a synthetic Ethernet port.
+     * 
+     * @param port A synthetic Ethernet port of this inventory.
+     * @return The LAN endpoints of the port.
+     */
+    public List<MsvmVmLANEndpoint> getVmLANEndpoints(
+        MsvmSyntheticEthernetPort port)
+    {
+        return get(this.lanEndpoints, this.endpointsByPort.get(keyOf(port)));
+    }
+
+    /**
+     * Gets the switch port a LAN endpoint is connected to.
+     * 
+     * @param endpoint A LAN endpoint of this inventory.
+     * @return The switch port, or null if the endpoint is not connected.
+     */
+    public MsvmSwitchPort getSwitchPort(MsvmVmLANEndpoint endpoint)
+    {
+        return this.resolver.getSwitchPort(keyOf(endpoint));
+    }
+
+    /**
+     * Gets the virtual switch a switch port belongs to.
+     * 
+     * @param port A switch port of this inventory.
+     * @return The virtual switch of the port, or null if it is not known.
+     */
+    public MsvmVirtualSwitch getVirtualSwitch(MsvmSwitchPort port)
+    {
+        return this.virtualSwitches.get(systemKeyOf(keyOf(port)));
+    }
+
+    /**
+     * Gets the switch ports of the host.
+     * 
+     * @return The switch ports of the host.
+     */
+    public Collection<MsvmSwitchPort> getSwitchPorts()
+    {
+        return Collections.unmodifiableCollection(this.switchPorts.values());
+    }
+
+    /**
+     * Gets the virtual switches of the host.
+     * 
+     * @return The virtual switches of the host.
+     */
+    public Collection<MsvmVirtualSwitch> getVirtualSwitches()
+    {
+        return Collections.unmodifiableCollection(this.virtualSwitches
+            .values());
+    }
+
+    private static String key(
+        String wmiClass,
+        String creationClassName,
+        String name)
+    {
+        return SWbemObjectPath.normalize(wmiClass + ".CreationClassName=\""
+            + creationClassName + "\",Name=\"" + name + "\"");
+    }
+
+    /**
+     * Gets the key of the system that hosts a logical device or service
+     * access point, from the SystemCreationClassName and SystemName keys of
+     * the device.
+     */
+    private static String systemKeyOf(String key)
+    {
+        final Map<String, String> keys = SWbemObjectPath.parseKeys(key);
+        final String sccn = keys.get("systemcreationclassname");
+        return key(sccn, sccn, keys.get("systemname"));
+    }
+
+    private String keyOf(Object obj)
+    {
+        final String key = this.keys.get(obj);
+        if (key == null)
+        {
+            throw new IllegalArgumentException("Not part of this inventory.");
+        }
+        return key;
+    }
+
+    private <T extends SWbemObject> Map<String, T> load(
+        SWbemServices service,
+        String wmiClass,
+        Class<T> clazz) throws Exception
+    {
+        final Map<String, T> byKey = new LinkedHashMap<String, T>();
+        final SWbemObjectSet<T> set =
+            service.execStreamingQuery("SELECT * FROM " + wmiClass, clazz);
+        if (set == null)
+        {
+            throw new Exception("Error querying " + wmiClass + ".");
+        }
+        for (final T obj : set)
+        {
+            final String key =
+                SWbemObjectPath.normalize(obj.getObjectPath().getPath());
+            byKey.put(key, obj);
+            this.keys.put(obj, key);
+        }
+        return byKey;
+    }
+
+    /**
+     * Loads the instances of an association class as pairs of the keys of
+     * the objects in the two roles. The references are read from the keys of
+     * the association's own path.
+     */
+    private static List<String[]> loadAssociations(
+        SWbemServices service,
+        String wmiClass,
+        String role1,
+        String role2) throws Exception
+    {
+        final List<String[]> pairs = new ArrayList<String[]>();
+        final SWbemObjectSet<SWbemObject> set =
+            service.execStreamingQuery(
+                "SELECT * FROM " + wmiClass,
+                SWbemObject.class);
+        if (set == null)
+        {
+            throw new Exception("Error querying " + wmiClass + ".");
+        }
+        for (final SWbemObject assoc : set)
+        {
+            final Map<String, String> refs =
+                SWbemObjectPath.parseKeys(assoc.getObjectPath().getPath());
+            final String ref1 = refs.get(role1);
+            final String ref2 = refs.get(role2);
+            if (ref1 != null && ref2 != null)
+            {
+                pairs.add(new String[]
+                {
+                    SWbemObjectPath.normalize(ref1),
+                    SWbemObjectPath.normalize(ref2)
+                });
+            }
+        }
+        return pairs;
+    }
+
+    private static void add(
+        Map<String, List<String>> map,
+        String key,
+        String value)
+    {
+        List<String> values = map.get(key);
+        if (values == null)
+        {
+            values = new ArrayList<String>(2);
+            map.put(key, values);
+        }
+        values.add(value);
+    }
+
+    private static <T> List<T> get(Map<String, T> byKey, List<String> keys)
+    {
+        if (keys == null)
+        {
+            return Collections.emptyList();
+        }
+        final List<T> values = new ArrayList<T>(keys.size());
+        for (final String key : keys)
+        {
+            final T value = byKey.get(key);
+            if (value != null)
+            {
+                values.add(value);
+            }
+        }
+        return values;
+    }
+}
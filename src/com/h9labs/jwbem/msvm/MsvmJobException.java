@@ -0,0 +1,95 @@
+/*
+ * Copyright (c) 2009, Hyper9 All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer. Redistributions in binary
+ * form must reproduce the above copyright notice, this list of conditions and
+ * the following disclaimer in the documentation and/or other materials provided
+ * with the distribution. Neither the name of Hyper9 nor the names of its
+ * contributors may be used to endorse or promote products derived from this
+ * software without specific prior written permission. THIS SOFTWARE IS PROVIDED
+ * BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO
+ * EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT,
+ * INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+
+package com.h9labs.jwbem.msvm;
+
+/**
+ * Thrown when a job does not complete normally.
+ * 
+ * @author akutz
+ * 
+ */
+public class MsvmJobException extends Exception
+{
+    private static final long serialVersionUID = 1L;
+
+    private final String jobPath;
+
+    private final int jobState;
+
+    private final int errorCode;
+
+    /**
+     * Initializes a new instance of the MsvmJobException class.
+     * 
+     * @param jobPath The path of the job.
+     * @param jobState The state the job finished in, or 0 if it is unknown.
+     * @param errorCode The error code of the job.
+     * @param message A description of the error.
+     */
+    public MsvmJobException(
+        String jobPath,
+        int jobState,
+        int errorCode,
+        String message)
+    {
+        super(message);
+        this.jobPath = jobPath;
+        this.jobState = jobState;
+        this.errorCode = errorCode;
+    }
+
+    /**
+     * Gets the path of the job.
+     * 
+     * @return The path of the job.
+     */
+    public String getJobPath()
+    {
+        return this.jobPath;
+    }
+
+    /**
+     * Gets the state the job finished in.
+     * 
+     * @return The state the job finished in, or 0 if it is unknown.
+     * @see JobState
+     */
+    public int getJobState()
+    {
+        return this.jobState;
+    }
+
+    /**
+     * Gets the error code of the job.
+     * 
+     * @return The error code of the job.
+     */
+    public int getErrorCode()
+    {
+        return this.errorCode;
+    }
+}
@@ -0,0 +1,699 @@
+/*
+ * Copyright (c) 2009, Hyper9 All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer. Redistributions in binary
+ * form must reproduce the above copyright notice, this list of conditions and
+ * the following disclaimer in the documentation and/or other materials provided
+ * with the distribution. Neither the name of Hyper9 nor the names of its
+ * contributors may be used to endorse or promote products derived from this
+ * software without specific prior written permission. THIS SOFTWARE IS PROVIDED
+ * BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO
+ * EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT,
+ * INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+
+package com.h9labs.jwbem.msvm;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.logging.Level;
+import org.jinterop.dcom.common.JIException;
+import org.jinterop.dcom.common.JISystem;
+import com.h9labs.jwbem.SWbemObjectPath;
+import com.h9labs.jwbem.SWbemObjectSet;
+import com.h9labs.jwbem.SWbemServices;
+
+/**
+ * Tracks Msvm_ConcreteJob objects until they finish. Every job is
+ * represented by a future; the outstanding jobs of a host are polled together
+ * with a single query per poll, so any number of jobs can be in flight
+ * without a thread per job.
+ * 
+ * @author akutz
+ * @remarks A host is polled every minPollMillis while its jobs make progress.
+ *          When a poll sees no progress the interval doubles, up to
+ *          maxPollMillis, and it drops back to minPollMillis as soon as a job
+ *          advances or a new job is tracked. A job that cannot be read
+ *          MAX_POLL_FAILURES times in a row fails, and a host's poller is
+ *          discarded once it has no outstanding jobs.
+ */
+public class MsvmJobTracker
+{
+    /**
+     * The default shortest interval between two polls of a host.
+     */
+    final static public long DEFAULT_MIN_POLL_MILLIS = 250;
+
+    /**
+     * The default longest interval between two polls of a host.
+     */
+    final static public long DEFAULT_MAX_POLL_MILLIS = 10000;
+
+    /**
+     * The maximum number of jobs that are named in a single query.
+     */
+    private static final int MAX_JOBS_PER_QUERY = 64;
+
+    /**
+     * The number of polls in a row that may fail to read a job before its
+     * future fails.
+     */
+    final static public int MAX_POLL_FAILURES = 10;
+
+    private final ScheduledExecutorService scheduler;
+
+    private final long minPollMillis;
+
+    private final long maxPollMillis;
+
+    /**
+     * The pollers, by host. A poller's own lock is only ever taken inside
+     * this map's lock, never the other way round.
+     */
+    private final Map<SWbemServices, HostPoller> hosts =
+        new IdentityHashMap<SWbemServices, HostPoller>();
+
+    /**
+     * Initializes a new instance of the MsvmJobTracker class.
+     * 
+     * @param scheduler The scheduler the polls run on.
+     */
+    public MsvmJobTracker(ScheduledExecutorService scheduler)
+    {
+        this(scheduler, DEFAULT_MIN_POLL_MILLIS, DEFAULT_MAX_POLL_MILLIS);
+    }
+
+    /**
+     * Initializes a new instance of the MsvmJobTracker class.
+     * 
+     * @param scheduler The scheduler the polls run on.
+     * @param minPollMillis The shortest interval between two polls of a host.
+     * @param maxPollMillis The longest interval between two polls of a host.
+     */
+    public MsvmJobTracker(
+        ScheduledExecutorService scheduler,
+        long minPollMillis,
+        long maxPollMillis)
+    {
+        if (minPollMillis < 1 || maxPollMillis < minPollMillis)
+        {
+            throw new IllegalArgumentException("Invalid poll interval.");
+        }
+        this.scheduler = scheduler;
+        this.minPollMillis = minPollMillis;
+        this.maxPollMillis = maxPollMillis;
+    }
+
+    /**
+     * Tracks a job.
+     * 
+     * @param service The service connection of the job's host.
+     * @param jobPath The path of the job.
+     * @return A future that completes with the job once it has completed
+     *         normally, or fails with an MsvmJobException if it did not.
+     */
+    public JobFuture track(SWbemServices service, String jobPath)
+    {
+        final String instanceID =
+            SWbemObjectPath.parseKeys(jobPath).get("InstanceID");
+        if (instanceID == null)
+        {
+            throw new IllegalArgumentException("Not a job path: " + jobPath);
+        }
+
+        final JobFuture future = new JobFuture(jobPath);
+        synchronized (this.hosts)
+        {
+            HostPoller poller = this.hosts.get(service);
+            if (poller == null)
+            {
+                poller = new HostPoller(service);
+                this.hosts.put(service, poller);
+            }
+            poller.add(instanceID.toUpperCase(), future);
+        }
+        return future;
+    }
+
+    /**
+     * Tracks the job started by a method, if any.
+     * 
+     * @param service The service connection of the job's host.
+     * @param result The result of the method.
+     * @return A future that completes with the job once it has completed
+     *         normally, or fails with an MsvmJobException if it did not. If
+     *         the method completed without starting a job the future has
+     *         already completed with null; if the method failed the future
+     *         has already failed.
+     */
+    public JobFuture track(SWbemServices service, MsvmMethodResult result)
+    {
+        if (result.isJobStarted() && result.getJobPath() != null)
+        {
+            return track(service, result.getJobPath());
+        }
+
+        final JobFuture future = new JobFuture(null);
+        if (result.isCompleted())
+        {
+            future.complete(null);
+        }
+        else
+        {
+            future.fail(new MsvmJobException(
+                null,
+                0,
+                result.getReturnValue(),
+                "The method failed with return value "
+                    + result.getReturnValue() + "."));
+        }
+        return future;
+    }
+
+    /**
+     * Gets the number of jobs that have not yet finished.
+     * 
+     * @return The number of jobs that have not yet finished.
+     */
+    public int getPendingCount()
+    {
+        int count = 0;
+        synchronized (this.hosts)
+        {
+            for (final HostPoller poller : this.hosts.values())
+            {
+                count += poller.size();
+            }
+        }
+        return count;
+    }
+
+    /**
+     * A job that has not yet finished.
+     */
+    private static class Pending
+    {
+        final String instanceID;
+
+        final JobFuture future;
+
+        int percentComplete = -1;
+
+        /**
+         * The number of polls in a row that failed to read the job.
+         */
+        int failures;
+
+        Pending(String instanceID, JobFuture future)
+        {
+            this.instanceID = instanceID;
+            this.future = future;
+        }
+    }
+
+    /**
+     * Polls the outstanding jobs of a host.
+     */
+    private class HostPoller implements Runnable
+    {
+        private final SWbemServices service;
+
+        /**
+         * The outstanding jobs, by upper-case InstanceID.
+         */
+        private final Map<String, Pending> jobs =
+            new HashMap<String, Pending>();
+
+        private long delay = MsvmJobTracker.this.minPollMillis;
+
+        private boolean scheduled;
+
+        HostPoller(SWbemServices service)
+        {
+            this.service = service;
+        }
+
+        synchronized int size()
+        {
+            return this.jobs.size();
+        }
+
+        synchronized void add(String instanceID, JobFuture future)
+        {
+            this.jobs.put(instanceID, new Pending(instanceID, future));
+            this.delay = MsvmJobTracker.this.minPollMillis;
+            if (!this.scheduled)
+            {
+                this.scheduled = true;
+                schedule();
+            }
+        }
+
+        public void run()
+        {
+            final List<Pending> pending;
+            synchronized (this)
+            {
+                removeDone();
+                pending = new ArrayList<Pending>(this.jobs.values());
+            }
+
+            boolean progressed = false;
+            for (int x = 0; x < pending.size(); x += MAX_JOBS_PER_QUERY)
+            {
+                progressed |=
+                    poll(pending.subList(x, Math.min(
+                        pending.size(),
+                        x + MAX_JOBS_PER_QUERY)));
+            }
+
+            synchronized (MsvmJobTracker.this.hosts)
+            {
+                synchronized (this)
+                {
+                    removeDone();
+                    this.delay =
+                        progressed ? MsvmJobTracker.this.minPollMillis
+                            : Math.min(
+                                this.delay * 2,
+                                MsvmJobTracker.this.maxPollMillis);
+                    if (this.jobs.isEmpty())
+                    {
+                        this.scheduled = false;
+                        discard();
+                    }
+                    else
+                    {
+                        schedule();
+                    }
+                }
+            }
+        }
+
+        /**
+         * Polls some of the jobs with a single query.
+         * 
+         * @return A value indicating whether or not any job made progress.
+         */
+        private boolean poll(List<Pending> pending)
+        {
+            final Map<String, Pending> byID = new HashMap<String, Pending>();
+            final StringBuilder wql =
+                new StringBuilder("SELECT * FROM Msvm_ConcreteJob WHERE ");
+            for (final Pending p : pending)
+            {
+                if (!byID.isEmpty())
+                {
+                    wql.append(" OR ");
+                }
+                wql.append("InstanceID='").append(
+                    SWbemServices.escapeWqlString(p.instanceID)).append('\'');
+                byID.put(p.instanceID, p);
+            }
+
+            boolean progressed = false;
+            try
+            {
+                final SWbemObjectSet<MsvmConcreteJob> set =
+                    this.service.execStreamingQuery(
+                        wql.toString(),
+                        MsvmConcreteJob.class);
+                if (set == null)
+                {
+                    throw new Exception("Error querying Msvm_ConcreteJob.");
+                }
+
+                for (final MsvmConcreteJob job : set)
+                {
+                    final Pending p =
+                        byID.remove(job.getInstanceID().toUpperCase());
+                    if (p != null)
+                    {
+                        p.failures = 0;
+                        progressed |= update(p, job);
+                    }
+                }
+            }
+            catch (Exception e)
+            {
+                // Swallow the exception; the jobs are polled again unless they
+                // have failed too often.
+                JISystem.getLogger().log(
+                    Level.FINE,
+                    "Error polling jobs",
+                    e);
+                for (final Pending p : byID.values())
+                {
+                    progressed |= failed(p, e);
+                }
+                return progressed;
+            }
+
+            // A job that was not returned may have been missed by the query
+            // rather than removed, so it is read again by its path. Only a job
+            // that the server reports as not found has gone away.
+            for (final Pending p : byID.values())
+            {
+                try
+                {
+                    final MsvmConcreteJob job =
+                        this.service.getObject(
+                            p.future.getJobPath(),
+                            MsvmConcreteJob.class);
+                    p.failures = 0;
+                    progressed |= update(p, job);
+                }
+                catch (JIException e)
+                {
+                    final int code = SWbemServices.getWbemErrorCode(e);
+                    if (code == SWbemServices.WBEM_E_NOT_FOUND)
+                    {
+                        p.future.fail(new MsvmJobException(
+                            p.future.getJobPath(),
+                            0,
+                            0,
+                            "The job no longer exists."));
+                        progressed = true;
+                    }
+                    else
+                    {
+                        // Swallow the exception; the job is polled again
+                        // unless it has failed too often.
+                        JISystem.getLogger().log(
+                            Level.FINE,
+                            "Error reading job " + p.future.getJobPath(),
+                            e);
+                        progressed |= failed(p, e);
+                    }
+                }
+                catch (Exception e)
+                {
+                    // Swallow the exception; the job is polled again unless
+                    // it has failed too often.
+                    JISystem.getLogger().log(
+                        Level.FINE,
+                        "Error reading job " + p.future.getJobPath(),
+                        e);
+                    progressed |= failed(p, e);
+                }
+            }
+            return progressed;
+        }
+
+        /**
+         * Counts a failed attempt to read a job and fails its future once the
+         * job has failed to be read MAX_POLL_FAILURES times in a row.
+         * 
+         * @return A value indicating whether or not the future failed.
+         */
+        private boolean failed(Pending p, Exception e)
+        {
+            if (++p.failures < MAX_POLL_FAILURES)
+            {
+                return false;
+            }
+
+            final MsvmJobException jobException =
+                new MsvmJobException(
+                    p.future.getJobPath(),
+                    0,
+                    0,
+                    "The job could not be read " + p.failures
+                        + " times in a row.");
+            jobException.initCause(e);
+            p.future.fail(jobException);
+            return true;
+        }
+
+        /**
+         * Completes or fails the future of a job that has finished, or records
+         * the progress of a job that has not.
+         * 
+         * @return A value indicating whether or not the job made progress.
+         */
+        private boolean update(Pending p, MsvmConcreteJob job)
+        {
+            final int jobState = job.getJobState();
+            if (jobState == JobState.Completed)
+            {
+                p.future.complete(job);
+                return true;
+            }
+            if (JobState.isFinished(jobState))
+            {
+                p.future.fail(new MsvmJobException(
+                    p.future.getJobPath(),
+                    jobState,
+                    job.getErrorCode(),
+                    job.getErrorDescription()));
+                return true;
+            }
+
+            final int percentComplete = job.getPercentComplete();
+            final boolean progressed = percentComplete != p.percentComplete;
+            p.percentComplete = percentComplete;
+            return progressed;
+        }
+
+        private void removeDone()
+        {
+            final Iterator<Pending> iter = this.jobs.values().iterator();
+            while (iter.hasNext())
+            {
+                if (iter.next().future.isDone())
+                {
+                    iter.remove();
+                }
+            }
+        }
+
+        private void schedule()
+        {
+            try
+            {
+                MsvmJobTracker.this.scheduler.schedule(
+                    this,
+                    this.delay,
+                    TimeUnit.MILLISECONDS);
+            }
+            catch (RejectedExecutionException e)
+            {
+                for (final Pending p : this.jobs.values())
+                {
+                    p.future.fail(e);
+                }
+                this.jobs.clear();
+                this.scheduled = false;
+                discard();
+            }
+        }
+
+        /**
+         * Removes this poller from the tracker. The caller holds the lock of
+         * the tracker's map of pollers.
+         */
+        private void discard()
+        {
+            final Map<SWbemServices, HostPoller> hosts =
+                MsvmJobTracker.this.hosts;
+            if (hosts.get(this.service) == this)
+            {
+                hosts.remove(this.service);
+            }
+        }
+    }
+
+    /**
+     * The future of a tracked job. It is completed by the tracker rather than
+     * run.
+     */
+    final static public class JobFuture implements Future<MsvmConcreteJob>
+    {
+        private final String jobPath;
+
+        private final CountDownLatch done = new CountDownLatch(1);
+
+        private final List<Runnable> listeners = new LinkedList<Runnable>();
+
+        /**
+         * The outcome of the future; guarded by the listeners list.
+         */
+        private boolean finished;
+
+        private boolean cancelled;
+
+        private MsvmConcreteJob job;
+
+        private Exception exception;
+
+        JobFuture(String jobPath)
+        {
+            this.jobPath = jobPath;
+        }
+
+        /**
+         * Gets the path of the job.
+         * 
+         * @return The path of the job, or null if no job was started.
+         */
+        public String getJobPath()
+        {
+            return this.jobPath;
+        }
+
+        /**
+         * Adds a listener that is run once the future is done. If the future
+         * is already done the listener is run immediately on the calling
+         * thread; otherwise it runs on the thread that completes the future,
+         * so it should not block.
+         * 
+         * @param listener The listener.
+         */
+        public void addListener(Runnable listener)
+        {
+            synchronized (this.listeners)
+            {
+                if (!this.finished)
+                {
+                    this.listeners.add(listener);
+                    return;
+                }
+            }
+            listener.run();
+        }
+
+        /**
+         * Cancels the future. The job itself keeps running on the server; it
+         * is only no longer tracked.
+         */
+        public boolean cancel(boolean mayInterruptIfRunning)
+        {
+            return finish(null, null, true);
+        }
+
+        public boolean isCancelled()
+        {
+            synchronized (this.listeners)
+            {
+                return this.cancelled;
+            }
+        }
+
+        public boolean isDone()
+        {
+            return this.done.getCount() == 0;
+        }
+
+        public MsvmConcreteJob get()
+            throws InterruptedException, ExecutionException
+        {
+            this.done.await();
+            return getOutcome();
+        }
+
+        public MsvmConcreteJob get(long timeout, TimeUnit unit)
+            throws InterruptedException, ExecutionException, TimeoutException
+        {
+            if (!this.done.await(timeout, unit))
+            {
+                throw new TimeoutException();
+            }
+            return getOutcome();
+        }
+
+        void complete(MsvmConcreteJob job)
+        {
+            finish(job, null, false);
+        }
+
+        void fail(Exception e)
+        {
+            finish(null, e, false);
+        }
+
+        private MsvmConcreteJob getOutcome() throws ExecutionException
+        {
+            synchronized (this.listeners)
+            {
+                if (this.cancelled)
+                {
+                    throw new CancellationException();
+                }
+                if (this.exception != null)
+                {
+                    throw new ExecutionException(this.exception);
+                }
+                return this.job;
+            }
+        }
+
+        /**
+         * Sets the outcome of the future, unless it already has one, and runs
+         * the listeners.
+         * 
+         * @return A value indicating whether or not the outcome was set.
+         */
+        private boolean finish(
+            MsvmConcreteJob job,
+            Exception exception,
+            boolean cancelled)
+        {
+            final List<Runnable> toRun;
+            synchronized (this.listeners)
+            {
+                if (this.finished)
+                {
+                    return false;
+                }
+                this.finished = true;
+                this.job = job;
+                this.exception = exception;
+                this.cancelled = cancelled;
+                toRun = new ArrayList<Runnable>(this.listeners);
+                this.listeners.clear();
+            }
+
+            this.done.countDown();
+            for (final Runnable listener : toRun)
+            {
+                try
+                {
+                    listener.run();
+                }
+                catch (RuntimeException e)
+                {
+                    JISystem.getLogger().log(
+                        Level.WARNING,
+                        "Error in job listener",
+                        e);
+                }
+            }
+            return true;
+        }
+    }
+}
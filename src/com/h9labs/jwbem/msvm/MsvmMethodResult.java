@@ -0,0 +1,190 @@
+/*
+ * Copyright (c) 2009, Hyper9 All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer. Redistributions in binary
+ * form must reproduce the above copyright notice, this list of conditions and
+ * the following disclaimer in the documentation and/or other materials provided
+ * with the distribution. Neither the name of Hyper9 nor the names of its
+ * contributors may be used to endorse or promote products derived from this
+ * software without specific prior written permission. THIS SOFTWARE IS PROVIDED
+ * BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO
+ * EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT,
+ * INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+
+package com.h9labs.jwbem.msvm;
+
+import org.jinterop.dcom.common.JIException;
+import org.jinterop.dcom.core.JIVariant;
+import com.h9labs.jwbem.SWbemObject;
+import com.h9labs.jwbem.SWbemValueConverters;
+
+/**
+ * The result of a method of the virtualization namespace: a return value and,
+ * for methods that run asynchronously, the path of the Msvm_ConcreteJob that
+ * tracks the operation.
+ * 
+ * @author akutz
+ * 
+ */
+public class MsvmMethodResult
+{
+    /**
+     * The method completed successfully.
+     */
+    final static public int COMPLETED = 0;
+
+    /**
+     * The method started a job; its progress and outcome are reported by the
+     * job.
+     */
+    final static public int JOB_STARTED = 4096;
+
+    private final int returnValue;
+
+    private final String jobPath;
+
+    private final SWbemObject outParameters;
+
+    /**
+     * Initializes a new instance of the MsvmMethodResult class.
+     * 
+     * @param returnValue The return value of the method.
+     * @param jobPath The path of the job started by the method, or null.
+     */
+    public MsvmMethodResult(int returnValue, String jobPath)
+    {
+        this(returnValue, jobPath, null);
+    }
+
+    /**
+     * Initializes a new instance of the MsvmMethodResult class.
+     * 
+     * @param returnValue The return value of the method.
+     * @param jobPath The path of the job started by the method, or null.
+     * @param outParameters The out parameters of the method, or null.
+     */
+    public MsvmMethodResult(
+        int returnValue,
+        String jobPath,
+        SWbemObject outParameters)
+    {
+        this.returnValue = returnValue;
+        this.jobPath = jobPath;
+        this.outParameters = outParameters;
+    }
+
+    /**
+     * Reads the ReturnValue and Job out parameters of a method.
+     * 
+     * @param outParams The out parameters of the method.
+     * @return The result of the method.
+     * @throws JIException When an error occurs.
+     */
+    public static MsvmMethodResult fromOutParameters(SWbemObject outParams)
+        throws JIException
+    {
+        final Integer returnValue =
+            SWbemValueConverters.convert(outParams.getObjectDispatcher().get(
+                "ReturnValue"), Integer.class);
+
+        String jobPath = null;
+        try
+        {
+            final JIVariant job = outParams.getObjectDispatcher().get("Job");
+            jobPath = SWbemValueConverters.convert(job, String.class);
+        }
+        catch (JIException e)
+        {
+            // Swallow the exception; the method has no Job out parameter.
+        }
+
+        return new MsvmMethodResult(returnValue == null ? -1 : returnValue
+            .intValue(), jobPath == null || jobPath.length() == 0 ? null
+            : jobPath, outParams);
+    }
+
+    /**
+     * Gets the return value of the method.
+     * 
+     * @return The return value of the method.
+     */
+    public int getReturnValue()
+    {
+        return this.returnValue;
+    }
+
+    /**
+     * Gets the path of the Msvm_ConcreteJob started by the method.
+     * 
+     * @return The path of the job started by the method, or null if the
+     *         method did not start one.
+     */
+    public String getJobPath()
+    {
+        return this.jobPath;
+    }
+
+    /**
+     * Gets the out parameters of the method, for methods that return more
+     * than a job.
+     * 
+     * @return The out parameters of the method, or null if they are not
+     *         known.
+     */
+    public SWbemObject getOutParameters()
+    {
+        return this.outParameters;
+    }
+
+    /**
+     * Gets a value indicating whether or not the method completed
+     * successfully without starting a job.
+     * 
+     * @return A value indicating whether or not the method completed.
+     */
+    public boolean isCompleted()
+    {
+        return this.returnValue == COMPLETED;
+    }
+
+    /**
+     * Gets a value indicating whether or not the method started a job.
+     * 
+     * @return A value indicating whether or not the method started a job.
+     */
+    public boolean isJobStarted()
+    {
+        return this.returnValue == JOB_STARTED;
+    }
+
+    /**
+     * Gets a value indicating whether or not the method either completed or
+     * started a job.
+     * 
+     * @return A value indicating whether or not the method succeeded.
+     */
+    public boolean isSuccess()
+    {
+        return isCompleted() || isJobStarted();
+    }
+
+    @Override
+    public String toString()
+    {
+        return this.jobPath == null ? String.valueOf(this.returnValue)
+            : this.returnValue + " " + this.jobPath;
+    }
+}
@@ -25,8 +25,14 @@
 
 package com.h9labs.jwbem.msvm;
 
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Set;
+import org.jinterop.dcom.common.JIException;
 import org.jinterop.dcom.impls.automation.IJIDispatch;
 import com.h9labs.jwbem.SWbemObject;
+import com.h9labs.jwbem.SWbemObjectPath;
 import com.h9labs.jwbem.SWbemObjectSet;
 import com.h9labs.jwbem.SWbemServices;
 import com.h9labs.jwbem.SWbemSet;
@@ -39,6 +45,14 @@ import com.h9labs.jwbem.SWbemSet;
  */
 public class MsvmObject extends SWbemObject
 {
+    /**
+     * The classes whose instances are keyed by CreationClassName and Name
+     * alone, so that their paths can be built from a name.
+     */
+    private static final Set<String> NAME_KEYED_CLASSES =
+        new HashSet<String>(Arrays.asList(
+            "Msvm_ComputerSystem",
+            "Msvm_VirtualSwitch"));
 
     /**
      * Initializes a new instance of the MsvmObject class.
@@ -53,7 +67,9 @@ public class MsvmObject extends SWbemObject
     }
 
     /**
-     * Gets an object by its ID.
+     * Gets an object by its ID. Objects of classes whose keys are
+     * CreationClassName and Name, such as Msvm_ComputerSystem and
+     * Msvm_VirtualSwitch, are fetched directly by path; others are queried.
      * 
      * @param <T> The type of object.
      * 
@@ -68,21 +84,30 @@ public class MsvmObject extends SWbemObject
         final Class<T> clazz,
         String name) throws Exception
     {
-        String format = "SELECT * FROM %s WHERE Name='%s'";
         String wmiClass = clazz.getSimpleName().replace("Msvm", "Msvm_");
-        String query = String.format(format, wmiClass, name);
-        SWbemObjectSet<T> set = service.execQuery(query, clazz);
-        int size = set.getSize();
-        if (size == 0)
+        if (NAME_KEYED_CLASSES.contains(wmiClass))
         {
-            return null;
-        }
-        if (size > 1)
-        {
-            throw new Exception("More than one object found.");
+            String path =
+                String.format(
+                    "%s.CreationClassName=\"%s\",Name=\"%s\"",
+                    wmiClass,
+                    wmiClass,
+                    SWbemObjectPath.escapeKeyValue(name));
+            try
+            {
+                return service.getObject(path, clazz);
+            }
+            catch (JIException e)
+            {
+                int code = SWbemServices.getWbemErrorCode(e);
+                if (code == SWbemServices.WBEM_E_NOT_FOUND)
+                {
+                    return null;
+                }
+                throw e;
+            }
         }
-        T obj = set.iterator().next();
-        return obj;
+        return getByProperty(service, clazz, wmiClass, "Name", name);
     }
 
     /**
@@ -101,21 +126,13 @@ public class MsvmObject extends SWbemObject
         final Class<T> clazz,
         String elementName) throws Exception
     {
-        String format = "SELECT * FROM %s WHERE ElementName='%s'";
         String wmiClass = clazz.getSimpleName().replace("Msvm", "Msvm_");
-        String query = String.format(format, wmiClass, elementName);
-        SWbemObjectSet<T> set = service.execQuery(query, clazz);
-        int size = set.getSize();
-        if (size == 0)
-        {
-            return null;
-        }
-        if (size > 1)
-        {
-            throw new Exception("More than one object found.");
-        }
-        T obj = set.iterator().next();
-        return obj;
+        return getByProperty(
+            service,
+            clazz,
+            wmiClass,
+            "ElementName",
+            elementName);
     }
 
     /**
@@ -143,6 +160,43 @@ public class MsvmObject extends SWbemObject
         return set;
     }
 
+    /**
+     * Gets the only object of a class with the given property value. The
+     * query is streamed, so it costs no Count round trip and stops reading
+     * after the second match.
+     */
+    private static <T extends MsvmObject> T getByProperty(
+        final SWbemServices service,
+        final Class<T> clazz,
+        final String wmiClass,
+        final String propertyName,
+        final String value) throws Exception
+    {
+        String format = "SELECT * FROM %s WHERE %s='%s'";
+        String query =
+            String.format(
+                format,
+                wmiClass,
+                propertyName,
+                SWbemServices.escapeWqlString(value));
+        SWbemObjectSet<T> set = service.execStreamingQuery(query, clazz);
+        if (set == null)
+        {
+            throw new Exception("Error querying " + wmiClass + ".");
+        }
+        Iterator<T> iter = set.iterator();
+        if (!iter.hasNext())
+        {
+            return null;
+        }
+        T obj = iter.next();
+        if (iter.hasNext())
+        {
+            throw new Exception("More than one object found.");
+        }
+        return obj;
+    }
+
     /**
      * Gets the label by which the object is known. This property is inherited
      * from CIM_System and it is a GUID.
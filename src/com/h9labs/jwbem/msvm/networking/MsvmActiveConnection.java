@@ -53,4 +53,24 @@ public class MsvmActiveConnection extends MsvmObject
     {
         super(objectDispatcher, service);
     }
+
+    /**
+     * Gets the path of the switch port of the connection.
+     * 
+     * @return The path of the switch port of the connection.
+     */
+    public String getAntecedent()
+    {
+        return this.getProperty("Antecedent", String.class);
+    }
+
+    /**
+     * Gets the path of the LAN endpoint of the connection.
+     * 
+     * @return The path of the LAN endpoint of the connection.
+     */
+    public String getDependent()
+    {
+        return this.getProperty("Dependent", String.class);
+    }
 }
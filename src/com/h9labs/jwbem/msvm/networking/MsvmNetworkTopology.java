@@ -0,0 +1,782 @@
+/*
+ * Copyright (c) 2009, Hyper9 All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer. Redistributions in binary
+ * form must reproduce the above copyright notice, this list of conditions and
+ * the following disclaimer in the documentation and/or other materials provided
+ * with the distribution. Neither the name of Hyper9 nor the names of its
+ * contributors may be used to endorse or promote products derived from this
+ * software without specific prior written permission. THIS SOFTWARE IS PROVIDED
+ * BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO
+ * EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT,
+ * INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+
+package com.h9labs.jwbem.msvm.networking;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.logging.Level;
+import org.jinterop.dcom.common.JISystem;
+import com.h9labs.jwbem.SWbemEventListener;
+import com.h9labs.jwbem.SWbemEventWatcher;
+import com.h9labs.jwbem.SWbemObject;
+import com.h9labs.jwbem.SWbemObjectPath;
+import com.h9labs.jwbem.SWbemObjectSet;
+import com.h9labs.jwbem.SWbemServices;
+import com.h9labs.jwbem.msvm.virtualsystem.MsvmComputerSystem;
+import com.h9labs.jwbem.msvm.virtualsystem.MsvmComputerSystemRegistry;
+
+/**
+ * An in-memory graph of the virtual networking of a host: its virtual
+ * switches, their ports, and the LAN endpoints and virtual machines the
+ * ports are connected to. Topology questions are answered from the graph
+ * without going to the server.
+ * 
+ * @author akutz
+ * @remarks The graph is loaded with a few flat queries by refresh. Once
+ *          started, it is patched from the switch port changes made through
+ *          MsvmVirtualSwitchManagementService and from the instance events of
+ *          switches, switch ports and active connections, and it is reloaded
+ *          whenever the event subscription is (re)established. A registry the
+ *          topology keeps itself is patched from the instance events of
+ *          computer systems as well. Lookups read an immutable snapshot and
+ *          never block.
+ */
+public class MsvmNetworkTopology
+    implements MsvmSwitchPortListener, SWbemEventListener
+{
+    /**
+     * The default polling interval of the event query, in seconds.
+     */
+    final static public int DEFAULT_WITHIN_SECONDS = 2;
+
+    private final SWbemServices service;
+
+    private final MsvmComputerSystemRegistry registry;
+
+    private final boolean ownRegistry;
+
+    private volatile Graph graph = new Graph(
+        new HashMap<String, MsvmVirtualSwitch>(),
+        new HashMap<String, MsvmSwitchPort>(),
+        new HashMap<String, String>());
+
+    private SWbemEventWatcher watcher;
+
+    /**
+     * The patches made since each running refresh started; guarded by this.
+     */
+    private final Set<List<Patch>> patchLogs =
+        Collections.newSetFromMap(new IdentityHashMap<List<Patch>, Boolean>());
+
+    /**
+     * The number of refreshes started and the sequence number of the last
+     * refresh that was published; guarded by this.
+     */
+    private long refreshesStarted;
+
+    private long refreshPublished;
+
+    /**
+     * Initializes a new instance of the MsvmNetworkTopology class that keeps
+     * its own registry of the host's computer systems. The graph is empty
+     * until it is refreshed or started.
+     * 
+     * @param service The host's service connection.
+     */
+    public MsvmNetworkTopology(SWbemServices service)
+    {
+        this.service = service;
+        this.registry = new MsvmComputerSystemRegistry(service);
+        this.ownRegistry = true;
+    }
+
+    /**
+     * Initializes a new instance of the MsvmNetworkTopology class that finds
+     * virtual machines in a registry that is kept current elsewhere, for
+     * example by an MsvmComputerSystemStateCache.
+     * 
+     * @param service The host's service connection.
+     * @param registry The registry of the host's computer systems.
+     */
+    public MsvmNetworkTopology(
+        SWbemServices service,
+        MsvmComputerSystemRegistry registry)
+    {
+        this.service = service;
+        this.registry = registry;
+        this.ownRegistry = false;
+    }
+
+    /**
+     * Reloads the graph. Patches that arrive while the host is read are
+     * applied to the reloaded graph as well.
+     * 
+     * @throws Exception When an error occurs.
+     */
+    public void refresh() throws Exception
+    {
+        final List<Patch> log = new ArrayList<Patch>();
+        final long sequence;
+        synchronized (this)
+        {
+            sequence = ++this.refreshesStarted;
+            this.patchLogs.add(log);
+        }
+
+        final Map<String, MsvmVirtualSwitch> switches =
+            new HashMap<String, MsvmVirtualSwitch>();
+        final MsvmSwitchPortResolver resolver;
+        try
+        {
+            final SWbemObjectSet<MsvmVirtualSwitch> set =
+                this.service.execStreamingQuery(
+                    "SELECT * FROM Msvm_VirtualSwitch",
+                    MsvmVirtualSwitch.class);
+            if (set == null)
+            {
+                throw new Exception("Error querying Msvm_VirtualSwitch.");
+            }
+            for (final MsvmVirtualSwitch vswitch : set)
+            {
+                switches.put(SWbemObjectPath.normalize(vswitch
+                    .getObjectPath()
+                    .getPath()), vswitch);
+            }
+
+            resolver = MsvmSwitchPortResolver.read(this.service);
+            if (this.ownRegistry)
+            {
+                this.registry.refresh();
+            }
+        }
+        finally
+        {
+            synchronized (this)
+            {
+                this.patchLogs.remove(log);
+            }
+        }
+
+        synchronized (this)
+        {
+            // A refresh that started later has already been published.
+            if (sequence < this.refreshPublished)
+            {
+                return;
+            }
+
+            // Apply the changes that were made while the host was read.
+            Graph g =
+                new Graph(
+                    switches,
+                    resolver.getSwitchPorts(),
+                    resolver.getConnections());
+            for (final Patch patch : log)
+            {
+                g = patch.apply(g);
+            }
+            this.refreshPublished = sequence;
+            this.graph = g;
+        }
+    }
+
+    /**
+     * Starts keeping the graph current with DEFAULT_WITHIN_SECONDS.
+     */
+    public void start()
+    {
+        start(DEFAULT_WITHIN_SECONDS);
+    }
+
+    /**
+     * Starts keeping the graph current. The graph is loaded as soon as the
+     * event subscription is established.
+     * 
+     * @param withinSeconds The polling interval of the event query, in
+     *        seconds.
+     */
+    public synchronized void start(int withinSeconds)
+    {
+        if (this.watcher != null)
+        {
+            throw new IllegalStateException("The topology is already started.");
+        }
+        String query =
+            String.format(
+                "SELECT * FROM __InstanceOperationEvent WITHIN %d WHERE "
+                    + "TargetInstance ISA 'Msvm_VirtualSwitch' OR "
+                    + "TargetInstance ISA 'Msvm_SwitchPort' OR "
+                    + "TargetInstance ISA 'Msvm_ActiveConnection'",
+                withinSeconds);
+        if (this.ownRegistry)
+        {
+            // Virtual machines that are created, renamed or deleted after the
+            // registry was loaded are looked up in it too.
+            query += " OR TargetInstance ISA 'Msvm_ComputerSystem'";
+        }
+        MsvmVirtualSwitchManagementService.addListener(this.service, this);
+        this.watcher = new SWbemEventWatcher(this.service, query, this);
+        this.watcher.start();
+    }
+
+    /**
+     * Stops keeping the graph current. The graph is kept as it is.
+     */
+    public synchronized void stop()
+    {
+        if (this.watcher != null)
+        {
+            MsvmVirtualSwitchManagementService.removeListener(
+                this.service,
+                this);
+            this.watcher.stop();
+            this.watcher = null;
+        }
+    }
+
+    /**
+     * Gets the virtual switches of the host.
+     * 
+     * @return The virtual switches of the host.
+     */
+    public Collection<MsvmVirtualSwitch> getVirtualSwitches()
+    {
+        return Collections.unmodifiableCollection(this.graph.switches
+            .values());
+    }
+
+    /**
+     * Gets a virtual switch.
+     * 
+     * @param switchName The name (GUID) of the switch.
+     * @return The switch, or null if there is none with that name.
+     */
+    public MsvmVirtualSwitch getVirtualSwitch(String switchName)
+    {
+        return this.graph.switches.get(switchKey(switchName));
+    }
+
+    /**
+     * Gets the virtual switches a virtual machine is connected to.
+     * 
+     * @param vmName The name (GUID) of the virtual machine.
+     * @return The switches the virtual machine is connected to.
+     */
+    public List<MsvmVirtualSwitch> getVirtualSwitches(String vmName)
+    {
+        final Graph g = this.graph;
+        final Set<String> names = g.switchesByVm.get(vmName.toLowerCase());
+        final List<MsvmVirtualSwitch> list =
+            new ArrayList<MsvmVirtualSwitch>();
+        if (names != null)
+        {
+            for (final String name : names)
+            {
+                final MsvmVirtualSwitch vswitch =
+                    g.switches.get(switchKey(name));
+                if (vswitch != null)
+                {
+                    list.add(vswitch);
+                }
+            }
+        }
+        return list;
+    }
+
+    /**
+     * Gets the ports of a virtual switch.
+     * 
+     * @param switchName The name (GUID) of the switch.
+     * @return The ports of the switch.
+     */
+    public List<MsvmSwitchPort> getSwitchPorts(String switchName)
+    {
+        final Graph g = this.graph;
+        final List<String> keys =
+            g.portsBySwitch.get(switchName.toLowerCase());
+        final List<MsvmSwitchPort> list = new ArrayList<MsvmSwitchPort>();
+        if (keys != null)
+        {
+            for (final String key : keys)
+            {
+                list.add(g.ports.get(key));
+            }
+        }
+        return list;
+    }
+
+    /**
+     * Gets the virtual machines connected to a virtual switch.
+     * 
+     * @param switchName The name (GUID) of the switch.
+     * @return The virtual machines connected to the switch. Virtual machines
+     *         that are not in the registry are left out.
+     */
+    public List<MsvmComputerSystem> getVirtualMachines(String switchName)
+    {
+        final Set<String> names =
+            this.graph.vmsBySwitch.get(switchName.toLowerCase());
+        final List<MsvmComputerSystem> list =
+            new ArrayList<MsvmComputerSystem>();
+        if (names != null)
+        {
+            for (final String name : names)
+            {
+                final MsvmComputerSystem cs = this.registry.getByName(name);
+                if (cs != null)
+                {
+                    list.add(cs);
+                }
+            }
+        }
+        return list;
+    }
+
+    /**
+     * Gets the LAN endpoint a switch port is connected to.
+     * 
+     * @param switchPortPath The path of the switch port.
+     * @return The normalized path of the connected LAN endpoint, or null if
+     *         the port is not connected.
+     */
+    public String getConnectedEndpoint(String switchPortPath)
+    {
+        return this.graph.endpointByPort.get(SWbemObjectPath
+            .normalize(switchPortPath));
+    }
+
+    /**
+     * Gets the virtual machine a switch port is connected to.
+     * 
+     * @param switchPortPath The path of the switch port.
+     * @return The virtual machine, or null if the port is not connected to a
+     *         virtual machine.
+     */
+    public MsvmComputerSystem getVirtualMachine(String switchPortPath)
+    {
+        final String endpoint = getConnectedEndpoint(switchPortPath);
+        final String vmName = endpoint == null ? null : vmNameOf(endpoint);
+        return vmName == null ? null : this.registry.getByName(vmName);
+    }
+
+    /**
+     * Gets the switch port a LAN endpoint is connected to.
+     * 
+     * @param lanEndPointPath The path of the LAN endpoint.
+     * @return The switch port, or null if the endpoint is not connected.
+     */
+    public MsvmSwitchPort getSwitchPort(String lanEndPointPath)
+    {
+        final Graph g = this.graph;
+        final String port =
+            g.connections.get(SWbemObjectPath.normalize(lanEndPointPath));
+        return port == null ? null : g.ports.get(port);
+    }
+
+    public void switchPortCreated(SWbemServices service, String switchPortPath)
+    {
+        try
+        {
+            final MsvmSwitchPort port =
+                service.getObject(switchPortPath, MsvmSwitchPort.class);
+            putPort(port);
+        }
+        catch (Exception e)
+        {
+            JISystem.getLogger().log(
+                Level.WARNING,
+                "Error reading switch port " + switchPortPath,
+                e);
+        }
+    }
+
+    public void switchPortDeleted(SWbemServices service, String switchPortPath)
+    {
+        final String key = SWbemObjectPath.normalize(switchPortPath);
+        patch(new Patch()
+        {
+            Graph apply(Graph g)
+            {
+                final Map<String, MsvmSwitchPort> ports =
+                    new HashMap<String, MsvmSwitchPort>(g.ports);
+                ports.remove(key);
+                final Map<String, String> connections =
+                    new HashMap<String, String>(g.connections);
+                connections.values().remove(key);
+                return new Graph(g.switches, ports, connections);
+            }
+        });
+    }
+
+    public void switchPortConnected(
+        SWbemServices service,
+        String switchPortPath,
+        String lanEndPointPath)
+    {
+        final String portKey = SWbemObjectPath.normalize(switchPortPath);
+        final String endpointKey = SWbemObjectPath.normalize(lanEndPointPath);
+        patch(new Patch()
+        {
+            Graph apply(Graph g)
+            {
+                final Map<String, String> connections =
+                    new HashMap<String, String>(g.connections);
+                connections.values().remove(portKey);
+                connections.put(endpointKey, portKey);
+                return new Graph(g.switches, g.ports, connections);
+            }
+        });
+    }
+
+    public void switchPortDisconnected(
+        SWbemServices service,
+        String switchPortPath)
+    {
+        final String portKey = SWbemObjectPath.normalize(switchPortPath);
+        patch(new Patch()
+        {
+            Graph apply(Graph g)
+            {
+                final Map<String, String> connections =
+                    new HashMap<String, String>(g.connections);
+                connections.values().remove(portKey);
+                return new Graph(g.switches, g.ports, connections);
+            }
+        });
+    }
+
+    /**
+     * Reloads the graph, since changes made while the watcher was not
+     * subscribed are not reported.
+     */
+    public void subscribed(SWbemServices service)
+    {
+        try
+        {
+            refresh();
+        }
+        catch (Exception e)
+        {
+            JISystem.getLogger().log(
+                Level.WARNING,
+                "Error loading the network topology",
+                e);
+        }
+    }
+
+    /**
+     * Patches the graph with an instance event.
+     */
+    public void eventReceived(SWbemObject event)
+    {
+        try
+        {
+            final boolean deleted =
+                "__InstanceDeletionEvent".equalsIgnoreCase(event
+                    .getObjectPath()
+                    .getClazz());
+            final SWbemObject target =
+                event.getEmbeddedObject("TargetInstance", SWbemObject.class);
+            if (target == null)
+            {
+                return;
+            }
+            final String path = target.getObjectPath().getPath();
+            final String clazz = SWbemObjectPath.parseClass(path);
+
+            if ("Msvm_ActiveConnection".equalsIgnoreCase(clazz))
+            {
+                final Map<String, String> refs =
+                    SWbemObjectPath.parseKeys(path);
+                if (deleted)
+                {
+                    switchPortDisconnected(
+                        this.service,
+                        refs.get("Antecedent"));
+                }
+                else
+                {
+                    switchPortConnected(
+                        this.service,
+                        refs.get("Antecedent"),
+                        refs.get("Dependent"));
+                }
+            }
+            else if ("Msvm_SwitchPort".equalsIgnoreCase(clazz))
+            {
+                if (deleted)
+                {
+                    switchPortDeleted(this.service, path);
+                }
+                else
+                {
+                    putPort(event.getEmbeddedObject(
+                        "TargetInstance",
+                        MsvmSwitchPort.class));
+                }
+            }
+            else if ("Msvm_VirtualSwitch".equalsIgnoreCase(clazz))
+            {
+                putSwitch(path, deleted ? null : event.getEmbeddedObject(
+                    "TargetInstance",
+                    MsvmVirtualSwitch.class));
+            }
+            else if ("Msvm_ComputerSystem".equalsIgnoreCase(clazz)
+                && this.ownRegistry)
+            {
+                final MsvmComputerSystem cs =
+                    event.getEmbeddedObject(
+                        "TargetInstance",
+                        MsvmComputerSystem.class);
+                if (deleted)
+                {
+                    this.registry.remove(cs.getName());
+                }
+                else
+                {
+                    this.registry.update(cs);
+                }
+            }
+        }
+        catch (Exception e)
+        {
+            JISystem.getLogger().log(
+                Level.WARNING,
+                "Error applying network event",
+                e);
+        }
+    }
+
+    private void putPort(final MsvmSwitchPort port) throws Exception
+    {
+        final String key =
+            SWbemObjectPath.normalize(port.getObjectPath().getPath());
+        patch(new Patch()
+        {
+            Graph apply(Graph g)
+            {
+                final Map<String, MsvmSwitchPort> ports =
+                    new HashMap<String, MsvmSwitchPort>(g.ports);
+                ports.put(key, port);
+                return new Graph(g.switches, ports, g.connections);
+            }
+        });
+    }
+
+    /**
+     * Adds, replaces or, if the switch is null, removes a switch and its
+     * ports.
+     */
+    private void putSwitch(String path, final MsvmVirtualSwitch vswitch)
+    {
+        final String key = SWbemObjectPath.normalize(path);
+        patch(new Patch()
+        {
+            Graph apply(Graph g)
+            {
+                final Map<String, MsvmVirtualSwitch> switches =
+                    new HashMap<String, MsvmVirtualSwitch>(g.switches);
+                if (vswitch != null)
+                {
+                    switches.put(key, vswitch);
+                    return new Graph(switches, g.ports, g.connections);
+                }
+
+                switches.remove(key);
+                final String name =
+                    SWbemObjectPath.parseKeys(key).get("name");
+                final Map<String, MsvmSwitchPort> ports =
+                    new HashMap<String, MsvmSwitchPort>(g.ports);
+                final Map<String, String> connections =
+                    new HashMap<String, String>(g.connections);
+                final List<String> portKeys = g.portsBySwitch.get(name);
+                if (portKeys != null)
+                {
+                    ports.keySet().removeAll(portKeys);
+                }
+                final Iterator<String> iter =
+                    connections.values().iterator();
+                while (iter.hasNext())
+                {
+                    final String portKey = iter.next();
+                    if (name.equals(SWbemObjectPath.parseKeys(portKey).get(
+                        "systemname")))
+                    {
+                        iter.remove();
+                    }
+                }
+                return new Graph(switches, ports, connections);
+            }
+        });
+    }
+
+    /**
+     * Applies a patch to the graph and records it for every refresh that is
+     * running.
+     */
+    private synchronized void patch(Patch patch)
+    {
+        this.graph = patch.apply(this.graph);
+        for (final List<Patch> log : this.patchLogs)
+        {
+            log.add(patch);
+        }
+    }
+
+    private static String switchKey(String switchName)
+    {
+        return SWbemObjectPath.normalize("Msvm_VirtualSwitch."
+            + "CreationClassName=\"Msvm_VirtualSwitch\",Name=\""
+            + switchName.replace("\\", "\\\\").replace("\"", "\\\"") + "\"");
+    }
+
+    /**
+     * Gets the name of the virtual machine of a LAN endpoint, or null if the
+     * endpoint does not belong to a virtual machine.
+     */
+    private static String vmNameOf(String endpointKey)
+    {
+        if (!"msvm_vmlanendpoint".equals(SWbemObjectPath
+            .parseClass(endpointKey)))
+        {
+            return null;
+        }
+        return SWbemObjectPath.parseKeys(endpointKey).get("systemname");
+    }
+
+    /**
+     * A change to the graph, which is applied to the current graph and to the
+     * graph of every refresh that is running when it is made.
+     */
+    private static abstract class Patch
+    {
+        /**
+         * Applies the change to a graph.
+         * 
+         * @param g The graph, which is not modified.
+         * @return The changed graph.
+         */
+        abstract Graph apply(Graph g);
+    }
+
+    /**
+     * A snapshot of the graph. The switches, ports and connections are
+     * copied by whoever patches the graph; the indexes are derived from them.
+     */
+    private static class Graph
+    {
+        private final Map<String, MsvmVirtualSwitch> switches;
+
+        private final Map<String, MsvmSwitchPort> ports;
+
+        /**
+         * The normalized path of the connected switch port, by normalized
+         * path of the LAN endpoint.
+         */
+        private final Map<String, String> connections;
+
+        private final Map<String, String> endpointByPort =
+            new HashMap<String, String>();
+
+        /**
+         * The normalized paths of the ports, by lower-case switch name.
+         */
+        private final Map<String, List<String>> portsBySwitch =
+            new HashMap<String, List<String>>();
+
+        /**
+         * The lower-case names of the connected virtual machines, by
+         * lower-case switch name.
+         */
+        private final Map<String, Set<String>> vmsBySwitch =
+            new HashMap<String, Set<String>>();
+
+        /**
+         * The lower-case names of the switches, by lower-case virtual machine
+         * name.
+         */
+        private final Map<String, Set<String>> switchesByVm =
+            new HashMap<String, Set<String>>();
+
+        Graph(
+            Map<String, MsvmVirtualSwitch> switches,
+            Map<String, MsvmSwitchPort> ports,
+            Map<String, String> connections)
+        {
+            this.switches = switches;
+            this.ports = ports;
+            this.connections = connections;
+
+            for (final String portKey : ports.keySet())
+            {
+                final String switchName =
+                    SWbemObjectPath.parseKeys(portKey).get("systemname");
+                addToList(this.portsBySwitch, switchName, portKey);
+            }
+
+            for (final Map.Entry<String, String> e : connections.entrySet())
+            {
+                this.endpointByPort.put(e.getValue(), e.getKey());
+                final String vmName = vmNameOf(e.getKey());
+                if (vmName == null)
+                {
+                    continue;
+                }
+                final String switchName =
+                    SWbemObjectPath.parseKeys(e.getValue()).get("systemname");
+                addToSet(this.vmsBySwitch, switchName, vmName);
+                addToSet(this.switchesByVm, vmName, switchName);
+            }
+        }
+
+        private static void addToList(
+            Map<String, List<String>> map,
+            String key,
+            String value)
+        {
+            List<String> values = map.get(key);
+            if (values == null)
+            {
+                values = new ArrayList<String>();
+                map.put(key, values);
+            }
+            values.add(value);
+        }
+
+        private static void addToSet(
+            Map<String, Set<String>> map,
+            String key,
+            String value)
+        {
+            Set<String> values = map.get(key);
+            if (values == null)
+            {
+                values = new LinkedHashSet<String>();
+                map.put(key, values);
+            }
+            values.add(value);
+        }
+    }
+}
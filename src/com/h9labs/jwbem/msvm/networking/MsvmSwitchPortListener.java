@@ -0,0 +1,80 @@
+/*
+ * Copyright (c) 2009, Hyper9 All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer. Redistributions in binary
+ * form must reproduce the above copyright notice, this list of conditions and
+ * the following disclaimer in the documentation and/or other materials provided
+ * with the distribution. Neither the name of Hyper9 nor the names of its
+ * contributors may be used to endorse or promote products derived from this
+ * software without specific prior written permission. THIS SOFTWARE IS PROVIDED
+ * BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO
+ * EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT,
+ * INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+
+package com.h9labs.jwbem.msvm.networking;
+
+import com.h9labs.jwbem.SWbemServices;
+
+/**
+ * Is told about the switch port changes made through an
+ * MsvmVirtualSwitchManagementService of this library.
+ * 
+ * @author akutz
+ * @remarks Listeners are called on the thread that made the change, after
+ *          the method has completed. Changes that run as jobs, or that are
+ *          made by other clients, are not reported; watch the instance
+ *          events of the host for those.
+ * @see MsvmVirtualSwitchManagementService#addListener(SWbemServices,
+ *      MsvmSwitchPortListener)
+ */
+public interface MsvmSwitchPortListener
+{
+    /**
+     * Called when a switch port has been created.
+     * 
+     * @param service The service connection of the host.
+     * @param switchPortPath The path of the new switch port.
+     */
+    void switchPortCreated(SWbemServices service, String switchPortPath);
+
+    /**
+     * Called when a switch port has been deleted.
+     * 
+     * @param service The service connection of the host.
+     * @param switchPortPath The path of the deleted switch port.
+     */
+    void switchPortDeleted(SWbemServices service, String switchPortPath);
+
+    /**
+     * Called when a switch port has been connected to a LAN endpoint.
+     * 
+     * @param service The service connection of the host.
+     * @param switchPortPath The path of the switch port.
+     * @param lanEndPointPath The path of the LAN endpoint.
+     */
+    void switchPortConnected(
+        SWbemServices service,
+        String switchPortPath,
+        String lanEndPointPath);
+
+    /**
+     * Called when a switch port has been disconnected.
+     * 
+     * @param service The service connection of the host.
+     * @param switchPortPath The path of the switch port.
+     */
+    void switchPortDisconnected(SWbemServices service, String switchPortPath);
+}
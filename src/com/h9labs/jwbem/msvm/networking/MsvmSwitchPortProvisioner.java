@@ -0,0 +1,549 @@
+/*
+ * Copyright (c) 2009, Hyper9 All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer. Redistributions in binary
+ * form must reproduce the above copyright notice, this list of conditions and
+ * the following disclaimer in the documentation and/or other materials provided
+ * with the distribution. Neither the name of Hyper9 nor the names of its
+ * contributors may be used to endorse or promote products derived from this
+ * software without specific prior written permission. THIS SOFTWARE IS PROVIDED
+ * BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO
+ * EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT,
+ * INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+
+package com.h9labs.jwbem.msvm.networking;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import com.h9labs.jwbem.SWbemObjectPath;
+import com.h9labs.jwbem.SWbemServices;
+import com.h9labs.jwbem.SWbemValueConverters;
+import com.h9labs.jwbem.msvm.MsvmJobTracker;
+import com.h9labs.jwbem.msvm.MsvmMethodResult;
+
+/**
+ * Connects and disconnects many LAN endpoints to and from virtual switches at
+ * once. Each request creates a switch port and connects it to an endpoint,
+ * or disconnects and deletes a port. Requests are worked off concurrently on
+ * an ExecutorService with at most a fixed number in flight per host, the jobs
+ * the methods start are followed with an MsvmJobTracker, and a result is
+ * delivered for every request.
+ * 
+ * @author akutz
+ * @remarks Methods are called by path, so a request costs the method calls
+ *          and the reads of the switch and endpoint paths but no queries.
+ *          Every job is waited for at most jobTimeoutMillis, so a batch
+ *          finishes in bounded time even if a host stops answering.
+ */
+public class MsvmSwitchPortProvisioner
+{
+    /**
+     * The default maximum number of concurrent requests per host.
+     */
+    final static public int DEFAULT_MAX_PER_HOST = 8;
+
+    /**
+     * The default time to wait for a job, in milliseconds.
+     */
+    final static public long DEFAULT_JOB_TIMEOUT_MILLIS = 60000;
+
+    private final ExecutorService executor;
+
+    private final MsvmJobTracker tracker;
+
+    private final int maxPerHost;
+
+    private final long jobTimeoutMillis;
+
+    /**
+     * Initializes a new instance of the MsvmSwitchPortProvisioner class that
+     * allows DEFAULT_MAX_PER_HOST concurrent requests per host and waits
+     * DEFAULT_JOB_TIMEOUT_MILLIS for each job.
+     * 
+     * @param executor The executor the requests are run on.
+     * @param tracker The tracker that follows the jobs.
+     */
+    public MsvmSwitchPortProvisioner(
+        ExecutorService executor,
+        MsvmJobTracker tracker)
+    {
+        this(
+            executor,
+            tracker,
+            DEFAULT_MAX_PER_HOST,
+            DEFAULT_JOB_TIMEOUT_MILLIS);
+    }
+
+    /**
+     * Initializes a new instance of the MsvmSwitchPortProvisioner class.
+     * 
+     * @param executor The executor the requests are run on.
+     * @param tracker The tracker that follows the jobs.
+     * @param maxPerHost The maximum number of concurrent requests per host.
+     * @param jobTimeoutMillis The time to wait for each job, in milliseconds.
+     */
+    public MsvmSwitchPortProvisioner(
+        ExecutorService executor,
+        MsvmJobTracker tracker,
+        int maxPerHost,
+        long jobTimeoutMillis)
+    {
+        if (maxPerHost < 1)
+        {
+            throw new IllegalArgumentException("maxPerHost must be positive.");
+        }
+        this.executor = executor;
+        this.tracker = tracker;
+        this.maxPerHost = maxPerHost;
+        this.jobTimeoutMillis = jobTimeoutMillis;
+    }
+
+    /**
+     * Creates a switch port for each request and connects it to the request's
+     * endpoint, and returns immediately. If a port is created but cannot be
+     * connected, it is deleted again.
+     * 
+     * @param requests The requests. Requests are grouped by host according to
+     *        the SWbemServices their switches were read from.
+     * @return A queue that receives exactly one result per request, in the
+     *         order the requests complete.
+     */
+    public BlockingQueue<Result> connect(Collection<Request> requests)
+    {
+        return submit(requests, true);
+    }
+
+    /**
+     * Disconnects and deletes the switch port of each request, and returns
+     * immediately. The port is identified by the request's switch and port
+     * name; the endpoint of the request is not used.
+     * 
+     * @param requests The requests. Requests are grouped by host according to
+     *        the SWbemServices their switches were read from.
+     * @return A queue that receives exactly one result per request, in the
+     *         order the requests complete.
+     */
+    public BlockingQueue<Result> disconnect(Collection<Request> requests)
+    {
+        return submit(requests, false);
+    }
+
+    /**
+     * Waits for one result per request from a queue returned by connect or
+     * disconnect.
+     * 
+     * @param results The queue.
+     * @param count The number of requests.
+     * @return The results, in the order the requests completed.
+     * @throws InterruptedException When the thread is interrupted while
+     *         waiting.
+     */
+    public static List<Result> await(BlockingQueue<Result> results, int count)
+        throws InterruptedException
+    {
+        final List<Result> list = new ArrayList<Result>(count);
+        for (int x = 0; x < count; ++x)
+        {
+            list.add(results.take());
+        }
+        return list;
+    }
+
+    private BlockingQueue<Result> submit(
+        final Collection<Request> requests,
+        final boolean connect)
+    {
+        final BlockingQueue<Result> results = new LinkedBlockingQueue<Result>();
+
+        // Group the requests by host.
+        final Map<SWbemServices, Queue<Request>> hosts =
+            new IdentityHashMap<SWbemServices, Queue<Request>>();
+        for (final Request request : requests)
+        {
+            final SWbemServices service = request.getSwitch().getService();
+            Queue<Request> queue = hosts.get(service);
+            if (queue == null)
+            {
+                queue = new ConcurrentLinkedQueue<Request>();
+                hosts.put(service, queue);
+            }
+            queue.add(request);
+        }
+
+        for (final Map.Entry<SWbemServices, Queue<Request>> e : hosts
+            .entrySet())
+        {
+            final Host host = new Host(e.getKey());
+            final Queue<Request> queue = e.getValue();
+            final int lanes = Math.min(this.maxPerHost, queue.size());
+            for (int x = 0; x < lanes; ++x)
+            {
+                try
+                {
+                    this.executor.execute(new Runnable()
+                    {
+                        public void run()
+                        {
+                            Request request;
+                            while ((request = queue.poll()) != null)
+                            {
+                                results.add(connect
+                                    ? provision(host, request)
+                                    : deprovision(host, request));
+                            }
+                        }
+                    });
+                }
+                catch (RejectedExecutionException e2)
+                {
+                    // The lanes that were accepted work off the whole queue.
+                    // If none was, the host's requests fail here.
+                    if (x == 0)
+                    {
+                        Request request;
+                        while ((request = queue.poll()) != null)
+                        {
+                            results.add(new Result(request, null, e2));
+                        }
+                    }
+                    break;
+                }
+            }
+        }
+
+        return results;
+    }
+
+    private Result provision(Host host, Request request)
+    {
+        String portPath = null;
+        try
+        {
+            final MsvmVirtualSwitchManagementService mgmtSvc =
+                host.getManagementService();
+
+            final MsvmMethodResult created =
+                mgmtSvc.execCreateSwitchPort(
+                    request.getSwitch().getObjectPath().getPath(),
+                    request.getPortName(),
+                    request.getFriendlyName(),
+                    request.getScope());
+            waitFor(host.service, created);
+            portPath =
+                SWbemValueConverters.convert(created
+                    .getOutParameters()
+                    .getObjectDispatcher()
+                    .get("CreatedSwitchPort"), String.class);
+            if (portPath == null || portPath.length() == 0)
+            {
+                throw new Exception("No switch port was created.");
+            }
+
+            try
+            {
+                waitFor(host.service, mgmtSvc.execConnectSwitchPort(
+                    portPath,
+                    request.getEndpoint().getObjectPath().getPath()));
+            }
+            catch (Exception e)
+            {
+                // Do not leave an unconnected port behind.
+                try
+                {
+                    waitFor(
+                        host.service,
+                        mgmtSvc.execDeleteSwitchPort(portPath));
+                }
+                catch (Exception e2)
+                {
+                    // Swallow the exception; report the connect failure.
+                }
+                throw e;
+            }
+
+            // The host's connections have changed.
+            MsvmSwitchPortResolver.unload(host.service);
+            return new Result(request, portPath, null);
+        }
+        catch (Exception e)
+        {
+            return new Result(request, portPath, e);
+        }
+    }
+
+    private Result deprovision(Host host, Request request)
+    {
+        String portPath = null;
+        try
+        {
+            final MsvmVirtualSwitchManagementService mgmtSvc =
+                host.getManagementService();
+
+            portPath =
+                String.format(
+                    "Msvm_SwitchPort.CreationClassName=\"Msvm_SwitchPort\","
+                        + "Name=\"%s\",SystemCreationClassName="
+                        + "\"Msvm_VirtualSwitch\",SystemName=\"%s\"",
+                    SWbemObjectPath.escapeKeyValue(request.getPortName()),
+                    SWbemObjectPath.escapeKeyValue(request
+                        .getSwitch()
+                        .getName()));
+            waitFor(host.service, mgmtSvc.execDisconnectSwitchPort(portPath));
+            waitFor(host.service, mgmtSvc.execDeleteSwitchPort(portPath));
+            MsvmSwitchPortResolver.unload(host.service);
+            return new Result(request, portPath, null);
+        }
+        catch (Exception e)
+        {
+            return new Result(request, portPath, e);
+        }
+    }
+
+    /**
+     * Waits for a method to finish, following its job if it started one.
+     */
+    private void waitFor(SWbemServices service, MsvmMethodResult result)
+        throws Exception
+    {
+        try
+        {
+            this.tracker.track(service, result).get(
+                this.jobTimeoutMillis,
+                TimeUnit.MILLISECONDS);
+        }
+        catch (ExecutionException e)
+        {
+            final Throwable cause = e.getCause();
+            throw cause instanceof Exception ? (Exception) cause : e;
+        }
+        catch (TimeoutException e)
+        {
+            throw new TimeoutException("Timed out waiting for job "
+                + result.getJobPath() + ".");
+        }
+    }
+
+    /**
+     * A host of a batch and its management service, which is read once by
+     * whichever request needs it first.
+     */
+    private static class Host
+    {
+        private final SWbemServices service;
+
+        private MsvmVirtualSwitchManagementService mgmtSvc;
+
+        Host(SWbemServices service)
+        {
+            this.service = service;
+        }
+
+        synchronized MsvmVirtualSwitchManagementService getManagementService()
+            throws Exception
+        {
+            if (this.mgmtSvc == null)
+            {
+                this.mgmtSvc =
+                    MsvmVirtualSwitchManagementService
+                        .getManagementService(this.service);
+            }
+            return this.mgmtSvc;
+        }
+    }
+
+    /**
+     * A switch port to provision: the switch, the name of the port and the
+     * endpoint the port connects to.
+     */
+    final static public class Request
+    {
+        private final MsvmVirtualSwitch vswitch;
+
+        private final String portName;
+
+        private final String friendlyName;
+
+        private final String scope;
+
+        private final MsvmVmLANEndpoint endpoint;
+
+        /**
+         * Initializes a new instance of the Request class, using the port
+         * name as the friendly name and no authorization scope.
+         * 
+         * @param vswitch The switch of the port.
+         * @param portName The name of the port. This name must be unique
+         *        among all ports.
+         * @param endpoint The endpoint the port connects to, or null when
+         *        disconnecting.
+         */
+        public Request(
+            MsvmVirtualSwitch vswitch,
+            String portName,
+            MsvmVmLANEndpoint endpoint)
+        {
+            this(vswitch, portName, portName, "", endpoint);
+        }
+
+        /**
+         * Initializes a new instance of the Request class.
+         * 
+         * @param vswitch The switch of the port.
+         * @param portName The name of the port. This name must be unique
+         *        among all ports.
+         * @param friendlyName A user-readable name for the port.
+         * @param scope The authorization scope to be used for the access
+         *        control policy of the port.
+         * @param endpoint The endpoint the port connects to, or null when
+         *        disconnecting.
+         */
+        public Request(
+            MsvmVirtualSwitch vswitch,
+            String portName,
+            String friendlyName,
+            String scope,
+            MsvmVmLANEndpoint endpoint)
+        {
+            this.vswitch = vswitch;
+            this.portName = portName;
+            this.friendlyName = friendlyName;
+            this.scope = scope;
+            this.endpoint = endpoint;
+        }
+
+        /**
+         * Gets the switch of the port.
+         * 
+         * @return The switch of the port.
+         */
+        public MsvmVirtualSwitch getSwitch()
+        {
+            return this.vswitch;
+        }
+
+        /**
+         * Gets the name of the port.
+         * 
+         * @return The name of the port.
+         */
+        public String getPortName()
+        {
+            return this.portName;
+        }
+
+        /**
+         * Gets the user-readable name of the port.
+         * 
+         * @return The user-readable name of the port.
+         */
+        public String getFriendlyName()
+        {
+            return this.friendlyName;
+        }
+
+        /**
+         * Gets the authorization scope of the port.
+         * 
+         * @return The authorization scope of the port.
+         */
+        public String getScope()
+        {
+            return this.scope;
+        }
+
+        /**
+         * Gets the endpoint the port connects to.
+         * 
+         * @return The endpoint the port connects to, or null.
+         */
+        public MsvmVmLANEndpoint getEndpoint()
+        {
+            return this.endpoint;
+        }
+    }
+
+    /**
+     * The outcome of one request.
+     */
+    final static public class Result
+    {
+        private final Request request;
+
+        private final String switchPortPath;
+
+        private final Exception exception;
+
+        Result(Request request, String switchPortPath, Exception exception)
+        {
+            this.request = request;
+            this.switchPortPath = switchPortPath;
+            this.exception = exception;
+        }
+
+        /**
+         * Gets the request.
+         * 
+         * @return The request.
+         */
+        public Request getRequest()
+        {
+            return this.request;
+        }
+
+        /**
+         * Gets the path of the switch port that was created or removed.
+         * 
+         * @return The path of the switch port, or null if the request failed
+         *         before the port was known.
+         */
+        public String getSwitchPortPath()
+        {
+            return this.switchPortPath;
+        }
+
+        /**
+         * Gets the exception the request failed with.
+         * 
+         * @return The exception the request failed with, or null.
+         */
+        public Exception getException()
+        {
+            return this.exception;
+        }
+
+        /**
+         * Gets a value indicating whether or not the request succeeded.
+         * 
+         * @return A value indicating whether or not the request succeeded.
+         */
+        public boolean isSuccess()
+        {
+            return this.exception == null;
+        }
+    }
+}
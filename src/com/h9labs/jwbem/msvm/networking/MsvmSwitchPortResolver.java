@@ -0,0 +1,268 @@
+/*
+ * Copyright (c) 2009, Hyper9 All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer. Redistributions in binary
+ * form must reproduce the above copyright notice, this list of conditions and
+ * the following disclaimer in the documentation and/or other materials provided
+ * with the distribution. Neither the name of Hyper9 nor the names of its
+ * contributors may be used to endorse or promote products derived from this
+ * software without specific prior written permission. THIS SOFTWARE IS PROVIDED
+ * BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO
+ * EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT,
+ * INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+
+package com.h9labs.jwbem.msvm.networking;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import org.jinterop.dcom.common.JIException;
+import com.h9labs.jwbem.SWbemObject;
+import com.h9labs.jwbem.SWbemObjectPath;
+import com.h9labs.jwbem.SWbemObjectSet;
+import com.h9labs.jwbem.SWbemServices;
+
+/**
+ * Resolves the switch ports that LAN endpoints are connected to for a whole
+ * host at once. The connections are read with one enumeration of
+ * Msvm_ActiveConnection and the switch ports with one enumeration of
+ * Msvm_SwitchPort, instead of an ASSOCIATORS OF query per endpoint.
+ * 
+ * @author akutz
+ * @remarks A resolver is a snapshot of the connections at the time it was
+ *          read. Reading one with read does not affect anything else. Only a
+ *          resolver that is registered with load is used by the getSwitchPort
+ *          methods of MsvmLANEndPoint and MsvmVmLANEndpoint, and then only for
+ *          the endpoints it knows; other endpoints are still queried. A
+ *          registered resolver stays registered, and keeps its service
+ *          connection reachable, until it is unloaded.
+ */
+public class MsvmSwitchPortResolver
+{
+    /**
+     * The loaded resolvers, by service connection.
+     */
+    private static final ConcurrentMap<SWbemServices, MsvmSwitchPortResolver>
+        loaded =
+            new ConcurrentHashMap<SWbemServices, MsvmSwitchPortResolver>();
+
+    /**
+     * The switch ports of the host, by normalized path.
+     */
+    private final Map<String, MsvmSwitchPort> switchPorts;
+
+    /**
+     * The normalized path of the connected switch port, by normalized path of
+     * the LAN endpoint.
+     */
+    private final Map<String, String> connections;
+
+    private MsvmSwitchPortResolver(SWbemServices service) throws Exception
+    {
+        this.switchPorts = new HashMap<String, MsvmSwitchPort>();
+        final SWbemObjectSet<MsvmSwitchPort> ports =
+            service.execStreamingQuery(
+                "SELECT * FROM Msvm_SwitchPort",
+                MsvmSwitchPort.class);
+        if (ports == null)
+        {
+            throw new Exception("Error querying Msvm_SwitchPort.");
+        }
+        for (final MsvmSwitchPort port : ports)
+        {
+            this.switchPorts.put(SWbemObjectPath.normalize(port
+                .getObjectPath()
+                .getPath()), port);
+        }
+
+        // The references are the keys of the association's own path.
+        this.connections = new HashMap<String, String>();
+        final SWbemObjectSet<SWbemObject> conns =
+            service.execStreamingQuery(
+                "SELECT * FROM Msvm_ActiveConnection",
+                SWbemObject.class);
+        if (conns == null)
+        {
+            throw new Exception("Error querying Msvm_ActiveConnection.");
+        }
+        for (final SWbemObject conn : conns)
+        {
+            final Map<String, String> refs =
+                SWbemObjectPath.parseKeys(conn.getObjectPath().getPath());
+            final String antecedent = refs.get("Antecedent");
+            final String dependent = refs.get("Dependent");
+            if (antecedent != null && dependent != null)
+            {
+                this.connections.put(
+                    SWbemObjectPath.normalize(dependent),
+                    SWbemObjectPath.normalize(antecedent));
+            }
+        }
+    }
+
+    /**
+     * Reads a resolver for a host and registers it for the service
+     * connection. The resolver is used by the getSwitchPort methods of the
+     * host's LAN endpoints until it is unloaded or another resolver is loaded
+     * for the same service connection. The registration holds on to the
+     * service connection, so callers must call unload once they are done with
+     * the host.
+     * 
+     * @param service The host's service connection.
+     * @return The resolver.
+     * @throws Exception When an error occurs.
+     */
+    public static MsvmSwitchPortResolver load(SWbemServices service)
+        throws Exception
+    {
+        final MsvmSwitchPortResolver resolver =
+            new MsvmSwitchPortResolver(service);
+        loaded.put(service, resolver);
+        return resolver;
+    }
+
+    /**
+     * Reads the connections of a host without registering the resolver, so
+     * that the getSwitchPort methods of the host's LAN endpoints keep querying
+     * the server.
+     * 
+     * @param service The host's service connection.
+     * @return The resolver.
+     * @throws Exception When an error occurs.
+     */
+    public static MsvmSwitchPortResolver read(SWbemServices service)
+        throws Exception
+    {
+        return new MsvmSwitchPortResolver(service);
+    }
+
+    /**
+     * Gets the resolver that is loaded for a host.
+     * 
+     * @param service The host's service connection.
+     * @return The loaded resolver, or null if none is loaded.
+     */
+    public static MsvmSwitchPortResolver getLoaded(SWbemServices service)
+    {
+        return loaded.get(service);
+    }
+
+    /**
+     * Unloads the resolver of a host, so that LAN endpoints query the server
+     * again.
+     * 
+     * @param service The host's service connection.
+     */
+    public static void unload(SWbemServices service)
+    {
+        loaded.remove(service);
+    }
+
+    /**
+     * Gets the switch ports that LAN endpoints are connected to.
+     * 
+     * @param <T> The type of the LAN endpoints.
+     * @param endpoints The LAN endpoints of the host, such as MsvmVmLANEndpoint
+     *        or MsvmLANEndPoint objects.
+     * @return The connected switch port of each endpoint, in the order of the
+     *         endpoints. Endpoints that are not connected map to null.
+     * @throws JIException When an error occurs.
+     */
+    public <T extends SWbemObject> Map<T, MsvmSwitchPort> resolve(
+        Collection<? extends T> endpoints) throws JIException
+    {
+        final Map<T, MsvmSwitchPort> map =
+            new LinkedHashMap<T, MsvmSwitchPort>(endpoints.size() * 4 / 3 + 1);
+        for (final T endpoint : endpoints)
+        {
+            map.put(endpoint, getSwitchPort(endpoint));
+        }
+        return map;
+    }
+
+    /**
+     * Gets the switch port a LAN endpoint is connected to.
+     * 
+     * @param endpoint A LAN endpoint of the host.
+     * @return The connected switch port, or null if the endpoint is not
+     *         connected.
+     * @throws JIException When an error occurs.
+     */
+    public MsvmSwitchPort getSwitchPort(SWbemObject endpoint)
+        throws JIException
+    {
+        return getSwitchPort(endpoint.getObjectPath().getPath());
+    }
+
+    /**
+     * Gets the switch port a LAN endpoint is connected to.
+     * 
+     * @param endpointPath The path of a LAN endpoint of the host.
+     * @return The connected switch port, or null if the endpoint is not
+     *         connected.
+     */
+    public MsvmSwitchPort getSwitchPort(String endpointPath)
+    {
+        final String portPath =
+            this.connections.get(SWbemObjectPath.normalize(endpointPath));
+        return portPath == null ? null : this.switchPorts.get(portPath);
+    }
+
+    /**
+     * Gets a value indicating whether or not the switch port of a LAN endpoint
+     * is known to this resolver. An endpoint that is not connected in the
+     * snapshot cannot be told apart from one that was created or connected
+     * after it, so only endpoints with a connection to a switch port of the
+     * snapshot are known.
+     * 
+     * @param endpointPath The path of a LAN endpoint of the host.
+     * @return A value indicating whether or not getSwitchPort answers for the
+     *         endpoint from the snapshot.
+     */
+    public boolean isKnown(String endpointPath)
+    {
+        final String portPath =
+            this.connections.get(SWbemObjectPath.normalize(endpointPath));
+        return portPath != null && this.switchPorts.containsKey(portPath);
+    }
+
+    /**
+     * Gets the switch ports of the host.
+     * 
+     * @return The switch ports of the host, by normalized path.
+     * @see SWbemObjectPath#normalize(String)
+     */
+    public Map<String, MsvmSwitchPort> getSwitchPorts()
+    {
+        return Collections.unmodifiableMap(this.switchPorts);
+    }
+
+    /**
+     * Gets the connections of the host.
+     * 
+     * @return The normalized path of the connected switch port, by
+     *         normalized path of the LAN endpoint.
+     * @see SWbemObjectPath#normalize(String)
+     */
+    public Map<String, String> getConnections()
+    {
+        return Collections.unmodifiableMap(this.connections);
+    }
+}
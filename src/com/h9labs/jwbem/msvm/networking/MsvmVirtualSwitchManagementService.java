@@ -25,16 +25,22 @@
 
 package com.h9labs.jwbem.msvm.networking;
 
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.logging.Level;
 import org.jinterop.dcom.common.JIException;
-import org.jinterop.dcom.core.IJIComObject;
+import org.jinterop.dcom.common.JISystem;
 import org.jinterop.dcom.core.JIString;
 import org.jinterop.dcom.core.JIVariant;
-import org.jinterop.dcom.impls.JIObjectFactory;
 import org.jinterop.dcom.impls.automation.IJIDispatch;
-import com.h9labs.jwbem.SWbemMethod;
 import com.h9labs.jwbem.SWbemObject;
 import com.h9labs.jwbem.SWbemObjectSet;
 import com.h9labs.jwbem.SWbemServices;
+import com.h9labs.jwbem.SWbemValueConverters;
+import com.h9labs.jwbem.msvm.MsvmMethodResult;
 import com.h9labs.jwbem.msvm.MsvmObject;
 
 /**
@@ -47,11 +53,13 @@ import com.h9labs.jwbem.msvm.MsvmObject;
  */
 public class MsvmVirtualSwitchManagementService extends MsvmObject
 {
-
-    private SWbemMethod disconnectSwitchPort;
-    private SWbemMethod connectSwitchPort;
-    private SWbemMethod createSwitchPort;
-    private SWbemMethod deleteSwitchPort;
+    /**
+     * The listeners of each host, by service connection.
+     */
+    private static final
+        ConcurrentMap<SWbemServices, List<MsvmSwitchPortListener>> listeners =
+            new ConcurrentHashMap<SWbemServices,
+                List<MsvmSwitchPortListener>>();
 
     /**
      * Initializes a new instance of the MsvmVirtualSwitchManagementService
@@ -93,6 +101,48 @@ public class MsvmVirtualSwitchManagementService extends MsvmObject
         return mgmtSvc;
     }
 
+    /**
+     * Adds a listener that is told about the switch port changes made
+     * through this library on a host.
+     * 
+     * @param service The service connection of the host.
+     * @param listener The listener.
+     */
+    static public void addListener(
+        final SWbemServices service,
+        final MsvmSwitchPortListener listener)
+    {
+        List<MsvmSwitchPortListener> list = listeners.get(service);
+        if (list == null)
+        {
+            final List<MsvmSwitchPortListener> newList =
+                new CopyOnWriteArrayList<MsvmSwitchPortListener>();
+            list = listeners.putIfAbsent(service, newList);
+            if (list == null)
+            {
+                list = newList;
+            }
+        }
+        list.add(listener);
+    }
+
+    /**
+     * Removes a listener added with addListener.
+     * 
+     * @param service The service connection of the host.
+     * @param listener The listener.
+     */
+    static public void removeListener(
+        final SWbemServices service,
+        final MsvmSwitchPortListener listener)
+    {
+        final List<MsvmSwitchPortListener> list = listeners.get(service);
+        if (list != null)
+        {
+            list.remove(listener);
+        }
+    }
+
     /**
      * Connects a switch port to a LAN endpoint.
      * 
@@ -106,49 +156,15 @@ public class MsvmVirtualSwitchManagementService extends MsvmObject
         final MsvmSwitchPort switchPort,
         final MsvmVmLANEndpoint lanEndPoint) throws JIException
     {
-        if (this.connectSwitchPort == null)
-        {
-            for (final SWbemMethod m : super.getMethods())
-            {
-                if (m.getName().equals("ConnectSwitchPort"))
-                {
-                    this.connectSwitchPort = m;
-                }
-            }
-        }
-
-        final String switchPortPath = switchPort.getObjectPath().getPath();
-        final String lanEndPointPath = lanEndPoint.getObjectPath().getPath();
-
-        // Get the IN parameters.
-        SWbemObject inParams = this.connectSwitchPort.getInParameters();
-        inParams.getObjectDispatcher().put(
-            "SwitchPort",
-            new JIVariant(new JIString(switchPortPath)));
-        inParams.getObjectDispatcher().put(
-            "LANEndpoint",
-            new JIVariant(new JIString(lanEndPointPath)));
-
-        Object[] methodParams =
-            new Object[]
-            {
-                new JIString("ConnectSwitchPort"),
-                new JIVariant(inParams.getObjectDispatcher()), new Integer(0),
-                JIVariant.NULL(),
-            };
-
-        JIVariant[] results =
-            super.objectDispatcher.callMethodA("ExecMethod_", methodParams);
-
-        // Get the out parameters.
-        JIVariant outParamsVar = results[0];
-        IJIComObject co = outParamsVar.getObjectAsComObject();
-        IJIDispatch outParamsDisp =
-            (IJIDispatch) JIObjectFactory.narrowObject(co);
+        final SWbemObject outParams =
+            execConnectSwitchPort(
+                switchPort.getObjectPath().getPath(),
+                lanEndPoint.getObjectPath().getPath()).getOutParameters();
 
         // Get the out parameter ActiveConnection and convert it into an
         // array of JIVariants.
-        JIVariant acVar = outParamsDisp.get("ActiveConnection");
+        JIVariant acVar =
+            outParams.getObjectDispatcher().get("ActiveConnection");
         String acPath = acVar.getObjectAsString2();
 
         if (acPath.equals(""))
@@ -170,109 +186,209 @@ public class MsvmVirtualSwitchManagementService extends MsvmObject
     public void disconnectSwitchPort(final MsvmSwitchPort toDisconnect)
         throws JIException
     {
-        if (this.disconnectSwitchPort == null)
+        execDisconnectSwitchPort(toDisconnect.getObjectPath().getPath());
+    }
+
+    /**
+     * Deletes a virtual switch port.
+     * 
+     * @param toDelete A reference to the port to be deleted.
+     * @throws JIException When an error occurs.
+     */
+    public void deleteSwitchPort(final MsvmSwitchPort toDelete)
+        throws JIException
+    {
+        execDeleteSwitchPort(toDelete.getObjectPath().getPath());
+    }
+
+    /**
+     * Creates a new port on a virtual switch.
+     * 
+     * @param vswitch The switch on which the port is to be created.
+     * @param name The name of the port. This name must be unique among all
+     *        ports.
+     * @param friendlyName A user-readable name for the port.
+     * @param scope The authorization scope to be used for the access control
+     *        policy of this virtual switch port.
+     * 
+     * @return The new switch port.
+     * @throws Exception When an error occurs.
+     */
+    public MsvmSwitchPort createSwitchPort(
+        final MsvmVirtualSwitch vswitch,
+        final String name,
+        final String friendlyName,
+        final String scope) throws Exception
+    {
+        final SWbemObject outParams =
+            execCreateSwitchPort(
+                vswitch.getObjectPath().getPath(),
+                name,
+                friendlyName,
+                scope).getOutParameters();
+
+        // Get the out parameter ActiveConnection and convert it into an
+        // array of JIVariants.
+        JIVariant cspVar =
+            outParams.getObjectDispatcher().get("CreatedSwitchPort");
+        String cspPath = cspVar.getObjectAsString2();
+
+        if (cspPath.equals(""))
         {
-            for (final SWbemMethod m : super.getMethods())
-            {
-                if (m.getName().equals("DisconnectSwitchPort"))
-                {
-                    this.disconnectSwitchPort = m;
-                }
-            }
+            return null;
         }
 
-        final String toDisconnectPath = toDisconnect.getObjectPath().getPath();
+        MsvmSwitchPort sp =
+            MsvmSwitchPort.getByName(service, MsvmSwitchPort.class, name);
+        return sp;
+    }
 
+    /**
+     * Connects a switch port to a LAN endpoint, by path.
+     * 
+     * @param switchPortPath The path of the switch port.
+     * @param lanEndPointPath The path of the LAN endpoint.
+     * @return The return code and out parameters of the method. The
+     *         ActiveConnection out parameter is the path of the new
+     *         connection.
+     * @throws JIException When an error occurs.
+     */
+    public MsvmMethodResult execConnectSwitchPort(
+        final String switchPortPath,
+        final String lanEndPointPath) throws JIException
+    {
         // Get the IN parameters.
         final SWbemObject inParams =
-            this.disconnectSwitchPort.getInParameters();
+            super.getMethod("ConnectSwitchPort").spawnInParameters();
         inParams.getObjectDispatcher().put(
             "SwitchPort",
-            new JIVariant(new JIString(toDisconnectPath)));
+            new JIVariant(new JIString(switchPortPath)));
+        inParams.getObjectDispatcher().put(
+            "LANEndpoint",
+            new JIVariant(new JIString(lanEndPointPath)));
 
-        Object[] methodParams =
-            new Object[]
+        final MsvmMethodResult result =
+            MsvmMethodResult.fromOutParameters(super.execMethod(
+                "ConnectSwitchPort",
+                inParams));
+        if (result.isCompleted())
+        {
+            for (final MsvmSwitchPortListener l : getListeners())
             {
-                new JIString("DisconnectSwitchPort"),
-                new JIVariant(inParams.getObjectDispatcher()), new Integer(0),
-                JIVariant.NULL(),
-            };
-
-        super.objectDispatcher.callMethodA("ExecMethod_", methodParams);
+                try
+                {
+                    l.switchPortConnected(
+                        super.service,
+                        switchPortPath,
+                        lanEndPointPath);
+                }
+                catch (RuntimeException e)
+                {
+                    logListenerError(e);
+                }
+            }
+        }
+        return result;
     }
 
     /**
-     * Deletes a virtual switch port.
+     * Disconnects a virtual switch port, by path.
      * 
-     * @param toDelete A reference to the port to be deleted.
+     * @param switchPortPath The path of the switch port.
+     * @return The return code of the method.
      * @throws JIException When an error occurs.
      */
-    public void deleteSwitchPort(final MsvmSwitchPort toDelete)
-        throws JIException
+    public MsvmMethodResult execDisconnectSwitchPort(
+        final String switchPortPath) throws JIException
     {
-        if (this.deleteSwitchPort == null)
+        // Get the IN parameters.
+        final SWbemObject inParams =
+            super.getMethod("DisconnectSwitchPort").spawnInParameters();
+        inParams.getObjectDispatcher().put(
+            "SwitchPort",
+            new JIVariant(new JIString(switchPortPath)));
+
+        final MsvmMethodResult result =
+            MsvmMethodResult.fromOutParameters(super.execMethod(
+                "DisconnectSwitchPort",
+                inParams));
+        if (result.isCompleted())
         {
-            for (final SWbemMethod m : super.getMethods())
+            for (final MsvmSwitchPortListener l : getListeners())
             {
-                if (m.getName().equals("DeleteSwitchPort"))
+                try
                 {
-                    this.deleteSwitchPort = m;
+                    l.switchPortDisconnected(super.service, switchPortPath);
+                }
+                catch (RuntimeException e)
+                {
+                    logListenerError(e);
                 }
             }
         }
+        return result;
+    }
 
-        final String toDeletePath = toDelete.getObjectPath().getPath();
-
-        SWbemObject inParams = this.deleteSwitchPort.getInParameters();
+    /**
+     * Deletes a virtual switch port, by path.
+     * 
+     * @param switchPortPath The path of the switch port.
+     * @return The return code of the method.
+     * @throws JIException When an error occurs.
+     */
+    public MsvmMethodResult execDeleteSwitchPort(final String switchPortPath)
+        throws JIException
+    {
+        final SWbemObject inParams =
+            super.getMethod("DeleteSwitchPort").spawnInParameters();
         inParams.getObjectDispatcher().put(
             "SwitchPort",
-            new JIVariant(new JIString(toDeletePath)));
+            new JIVariant(new JIString(switchPortPath)));
 
-        Object[] methodParams =
-            new Object[]
+        final MsvmMethodResult result =
+            MsvmMethodResult.fromOutParameters(super.execMethod(
+                "DeleteSwitchPort",
+                inParams));
+        if (result.isCompleted())
+        {
+            for (final MsvmSwitchPortListener l : getListeners())
             {
-                new JIString("DeleteSwitchPort"),
-                new JIVariant(inParams.getObjectDispatcher()), new Integer(0),
-                JIVariant.NULL(),
-            };
-
-        super.objectDispatcher.callMethodA("ExecMethod_", methodParams);
+                try
+                {
+                    l.switchPortDeleted(super.service, switchPortPath);
+                }
+                catch (RuntimeException e)
+                {
+                    logListenerError(e);
+                }
+            }
+        }
+        return result;
     }
 
     /**
-     * Creates a new port on a virtual switch.
+     * Creates a new port on a virtual switch, by path.
      * 
-     * @param vswitch The switch on which the port is to be created.
+     * @param vswitchPath The path of the switch on which the port is to be
+     *        created.
      * @param name The name of the port. This name must be unique among all
      *        ports.
      * @param friendlyName A user-readable name for the port.
      * @param scope The authorization scope to be used for the access control
      *        policy of this virtual switch port.
-     * 
-     * @return The new switch port.
-     * @throws Exception When an error occurs.
+     * @return The return code and out parameters of the method. The
+     *         CreatedSwitchPort out parameter is the path of the new port.
+     * @throws JIException When an error occurs.
      */
-    public MsvmSwitchPort createSwitchPort(
-        final MsvmVirtualSwitch vswitch,
+    public MsvmMethodResult execCreateSwitchPort(
+        final String vswitchPath,
         final String name,
         final String friendlyName,
-        final String scope) throws Exception
+        final String scope) throws JIException
     {
-        if (this.createSwitchPort == null)
-        {
-            for (final SWbemMethod m : super.getMethods())
-            {
-                if (m.getName().equals("CreateSwitchPort"))
-                {
-                    this.createSwitchPort = m;
-                }
-            }
-        }
-
-        final String vswitchPath = vswitch.getObjectPath().getPath();
-
         // Get the IN parameters.
-        SWbemObject inParams = this.createSwitchPort.getInParameters();
+        final SWbemObject inParams =
+            super.getMethod("CreateSwitchPort").spawnInParameters();
         inParams.getObjectDispatcher().put(
             "VirtualSwitch",
             new JIVariant(new JIString(vswitchPath)));
@@ -286,35 +402,56 @@ public class MsvmVirtualSwitchManagementService extends MsvmObject
             "ScopeOfResidence",
             new JIVariant(new JIString(scope)));
 
-        Object[] methodParams =
-            new Object[]
+        final MsvmMethodResult result =
+            MsvmMethodResult.fromOutParameters(super.execMethod(
+                "CreateSwitchPort",
+                inParams));
+        if (result.isCompleted())
+        {
+            final String created =
+                SWbemValueConverters.convert(result
+                    .getOutParameters()
+                    .getObjectDispatcher()
+                    .get("CreatedSwitchPort"), String.class);
+            if (created != null && created.length() > 0)
             {
-                new JIString("CreateSwitchPort"),
-                new JIVariant(inParams.getObjectDispatcher()), new Integer(0),
-                JIVariant.NULL(),
-            };
-
-        JIVariant[] results =
-            super.objectDispatcher.callMethodA("ExecMethod_", methodParams);
-
-        // Get the out parameters.
-        JIVariant outParamsVar = results[0];
-        IJIComObject co = outParamsVar.getObjectAsComObject();
-        IJIDispatch outParamsDisp =
-            (IJIDispatch) JIObjectFactory.narrowObject(co);
+                for (final MsvmSwitchPortListener l : getListeners())
+                {
+                    try
+                    {
+                        l.switchPortCreated(super.service, created);
+                    }
+                    catch (RuntimeException e)
+                    {
+                        logListenerError(e);
+                    }
+                }
+            }
+        }
+        return result;
+    }
 
-        // Get the out parameter ActiveConnection and convert it into an
-        // array of JIVariants.
-        JIVariant cspVar = outParamsDisp.get("CreatedSwitchPort");
-        String cspPath = cspVar.getObjectAsString2();
+    /**
+     * Logs an exception thrown by a listener. A failing listener does not
+     * fail the method call, which has already completed, nor keep the other
+     * listeners from being notified.
+     */
+    private static void logListenerError(RuntimeException e)
+    {
+        JISystem.getLogger().log(
+            Level.WARNING,
+            "Error in switch port listener",
+            e);
+    }
 
-        if (cspPath.equals(""))
+    private List<MsvmSwitchPortListener> getListeners()
+    {
+        final List<MsvmSwitchPortListener> list =
+            listeners.get(super.service);
+        if (list == null)
         {
-            return null;
+            return Collections.emptyList();
         }
-
-        MsvmSwitchPort sp =
-            MsvmSwitchPort.getByName(service, MsvmSwitchPort.class, name);
-        return sp;
+        return list;
     }
 }
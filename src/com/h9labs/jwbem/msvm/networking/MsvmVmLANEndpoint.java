@@ -55,13 +55,25 @@ public class MsvmVmLANEndpoint extends MsvmObject
     /**
      * Gets the associated MsvmSwitchPort for this LAN EndPoint.
      * 
+     * @remarks Uses the host's MsvmSwitchPortResolver when one is loaded and
+     *          knows this endpoint.
      * @return The associated MsvmSwitchPort for this LAN EndPoint.
      * @throws Exception When an error occurs.
      */
     public MsvmSwitchPort getSwitchPort() throws Exception
     {
-        // Get the settings data.
         String path = super.getObjectPath().getPath();
+
+        // Answer from the host's resolver if one is loaded and knows the
+        // endpoint.
+        MsvmSwitchPortResolver resolver =
+            MsvmSwitchPortResolver.getLoaded(super.getService());
+        if (resolver != null && resolver.isKnown(path))
+        {
+            return resolver.getSwitchPort(path);
+        }
+
+        // Get the settings data.
         String wmiClass = "Msvm_SwitchPort";
         String format = "ASSOCIATORS OF {%s} WHERE ResultClass=%s";
         String wql = String.format(format, path, wmiClass);
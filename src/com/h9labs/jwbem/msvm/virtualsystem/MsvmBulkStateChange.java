@@ -0,0 +1,453 @@
+/*
+ * Copyright (c) 2009, Hyper9 All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer. Redistributions in binary
+ * form must reproduce the above copyright notice, this list of conditions and
+ * the following disclaimer in the documentation and/or other materials provided
+ * with the distribution. Neither the name of Hyper9 nor the names of its
+ * contributors may be used to endorse or promote products derived from this
+ * software without specific prior written permission. THIS SOFTWARE IS PROVIDED
+ * BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO
+ * EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT,
+ * INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+
+package com.h9labs.jwbem.msvm.virtualsystem;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import com.h9labs.jwbem.SWbemObjectSet;
+import com.h9labs.jwbem.SWbemServices;
+import com.h9labs.jwbem.msvm.MsvmMethodResult;
+
+/**
+ * Changes the state of many virtual computer systems at once. The
+ * RequestStateChange calls are issued concurrently on an ExecutorService,
+ * with at most a fixed number of calls in flight per host, and their results
+ * are delivered as they complete.
+ * 
+ * @author akutz
+ * @remarks Each host's systems are worked off by at most maxPerHost tasks
+ *          that each take the next system from the host's queue, so a busy
+ *          host never ties up more than maxPerHost of the executor's threads
+ *          and no thread waits for a permit. A system whose call cannot be
+ *          run, because the executor rejects its host's tasks or the call
+ *          fails with an unexpected error, still gets a failed result.
+ */
+public class MsvmBulkStateChange
+{
+    /**
+     * The default maximum number of concurrent calls per host.
+     */
+    final static public int DEFAULT_MAX_PER_HOST = 8;
+
+    /**
+     * The maximum number of names that are matched by a single query.
+     */
+    private static final int MAX_NAMES_PER_QUERY = 64;
+
+    private final ExecutorService executor;
+
+    private final int maxPerHost;
+
+    /**
+     * Initializes a new instance of the MsvmBulkStateChange class that
+     * allows DEFAULT_MAX_PER_HOST concurrent calls per host.
+     * 
+     * @param executor The executor the calls are run on.
+     */
+    public MsvmBulkStateChange(ExecutorService executor)
+    {
+        this(executor, DEFAULT_MAX_PER_HOST);
+    }
+
+    /**
+     * Initializes a new instance of the MsvmBulkStateChange class.
+     * 
+     * @param executor The executor the calls are run on.
+     * @param maxPerHost The maximum number of concurrent calls per host.
+     */
+    public MsvmBulkStateChange(ExecutorService executor, int maxPerHost)
+    {
+        if (maxPerHost < 1)
+        {
+            throw new IllegalArgumentException("maxPerHost must be positive.");
+        }
+        this.executor = executor;
+        this.maxPerHost = maxPerHost;
+    }
+
+    /**
+     * Requests a state change for each of the given computer systems and
+     * returns immediately.
+     * 
+     * @param systems The computer systems. Systems are grouped by host
+     *        according to the SWbemServices they were read from.
+     * @param requestedState The new state.
+     * @return A queue that receives exactly one result per system, in the
+     *         order the calls complete.
+     * @see RequestedState
+     */
+    public BlockingQueue<Result> submit(
+        final Collection<? extends MsvmComputerSystem> systems,
+        final int requestedState)
+    {
+        final BlockingQueue<Result> results = new LinkedBlockingQueue<Result>();
+
+        // Group the systems by host.
+        final Map<SWbemServices, Queue<MsvmComputerSystem>> hosts =
+            new IdentityHashMap<SWbemServices, Queue<MsvmComputerSystem>>();
+        for (final MsvmComputerSystem cs : systems)
+        {
+            Queue<MsvmComputerSystem> queue = hosts.get(cs.getService());
+            if (queue == null)
+            {
+                queue = new ConcurrentLinkedQueue<MsvmComputerSystem>();
+                hosts.put(cs.getService(), queue);
+            }
+            queue.add(cs);
+        }
+
+        for (final Queue<MsvmComputerSystem> queue : hosts.values())
+        {
+            final int lanes = Math.min(this.maxPerHost, queue.size());
+            for (int x = 0; x < lanes; ++x)
+            {
+                try
+                {
+                    this.executor.execute(new Runnable()
+                    {
+                        public void run()
+                        {
+                            MsvmComputerSystem cs;
+                            while ((cs = queue.poll()) != null)
+                            {
+                                results.add(requestStateChange(
+                                    cs,
+                                    requestedState));
+                            }
+                        }
+                    });
+                }
+                catch (RejectedExecutionException e)
+                {
+                    // The lanes that were accepted work off the whole queue.
+                    // If none was, the host's systems fail here.
+                    if (x == 0)
+                    {
+                        MsvmComputerSystem cs;
+                        while ((cs = queue.poll()) != null)
+                        {
+                            results.add(new Result(null, cs, null, e));
+                        }
+                    }
+                    break;
+                }
+            }
+        }
+
+        return results;
+    }
+
+    /**
+     * Requests a state change for each of the virtual computer systems with
+     * the given names on a host and returns immediately. The systems are
+     * resolved with a single query.
+     * 
+     * @param service The host's service connection.
+     * @param names The names (GUIDs) of the virtual computer systems. Names
+     *        are compared without regard to case and each system is changed
+     *        once, however often its name is given.
+     * @param requestedState The new state.
+     * @return A queue that receives exactly one result per distinct name, in
+     *         the order the calls complete. Names that do not exist produce a
+     *         result without a computer system.
+     * @see RequestedState
+     */
+    public BlockingQueue<Result> submit(
+        final SWbemServices service,
+        final Collection<String> names,
+        final int requestedState)
+    {
+        // Drop repeated names, keeping the first spelling of each.
+        final Map<String, String> distinct =
+            new LinkedHashMap<String, String>();
+        for (final String name : names)
+        {
+            final String key = name.toUpperCase();
+            if (!distinct.containsKey(key))
+            {
+                distinct.put(key, name);
+            }
+        }
+
+        final Map<String, MsvmComputerSystem> byName =
+            new HashMap<String, MsvmComputerSystem>();
+        Exception error = null;
+        try
+        {
+            byName.putAll(getByNames(service, distinct.values()));
+        }
+        catch (Exception e)
+        {
+            error = e;
+        }
+
+        final List<MsvmComputerSystem> found =
+            new ArrayList<MsvmComputerSystem>(byName.size());
+        final List<Result> missing = new LinkedList<Result>();
+        for (final Map.Entry<String, String> e : distinct.entrySet())
+        {
+            final String name = e.getValue();
+            final MsvmComputerSystem cs = byName.get(e.getKey());
+            if (cs != null)
+            {
+                found.add(cs);
+            }
+            else
+            {
+                missing.add(new Result(name, null, null, error != null ? error
+                    : new Exception("No virtual computer system named "
+                        + name + ".")));
+            }
+        }
+
+        final BlockingQueue<Result> results = submit(found, requestedState);
+        results.addAll(missing);
+        return results;
+    }
+
+    /**
+     * Requests a state change for each of the given computer systems and
+     * waits for all of the calls to complete.
+     * 
+     * @param systems The computer systems.
+     * @param requestedState The new state.
+     * @return The results, in the order the calls completed.
+     * @throws InterruptedException When the thread is interrupted while
+     *         waiting.
+     */
+    public List<Result> requestStateChange(
+        final Collection<? extends MsvmComputerSystem> systems,
+        final int requestedState) throws InterruptedException
+    {
+        final BlockingQueue<Result> queue = submit(systems, requestedState);
+        final List<Result> results = new ArrayList<Result>(systems.size());
+        for (int x = 0; x < systems.size(); ++x)
+        {
+            results.add(queue.take());
+        }
+        return results;
+    }
+
+    /**
+     * Requests a state change for each of the given computer systems and
+     * waits at most the given time for the calls to complete. Calls that are
+     * still running when the time elapses are not cancelled.
+     * 
+     * @param systems The computer systems.
+     * @param requestedState The new state.
+     * @param timeout The maximum time to wait.
+     * @param unit The unit of the timeout.
+     * @return The results, in the order the calls completed. There are fewer
+     *         results than systems if the time elapsed first.
+     * @throws InterruptedException When the thread is interrupted while
+     *         waiting.
+     */
+    public List<Result> requestStateChange(
+        final Collection<? extends MsvmComputerSystem> systems,
+        final int requestedState,
+        final long timeout,
+        final TimeUnit unit) throws InterruptedException
+    {
+        final long deadline = System.nanoTime() + unit.toNanos(timeout);
+        final BlockingQueue<Result> queue = submit(systems, requestedState);
+        final List<Result> results = new ArrayList<Result>(systems.size());
+        for (int x = 0; x < systems.size(); ++x)
+        {
+            final Result result =
+                queue.poll(
+                    deadline - System.nanoTime(),
+                    TimeUnit.NANOSECONDS);
+            if (result == null)
+            {
+                break;
+            }
+            results.add(result);
+        }
+        return results;
+    }
+
+    private static Result requestStateChange(
+        final MsvmComputerSystem cs,
+        final int requestedState)
+    {
+        try
+        {
+            return new Result(null, cs, cs
+                .execRequestStateChange(requestedState), null);
+        }
+        catch (Exception e)
+        {
+            return new Result(null, cs, null, e);
+        }
+        catch (Throwable e)
+        {
+            return new Result(null, cs, null, new Exception(
+                "The state change failed with an unexpected error.",
+                e));
+        }
+    }
+
+    /**
+     * Gets the virtual computer systems with the given names, by upper-case
+     * name.
+     */
+    private static Map<String, MsvmComputerSystem> getByNames(
+        final SWbemServices service,
+        final Collection<String> names) throws Exception
+    {
+        final Map<String, MsvmComputerSystem> byName =
+            new HashMap<String, MsvmComputerSystem>();
+        if (names.isEmpty())
+        {
+            return byName;
+        }
+
+        final List<String> list = new ArrayList<String>(names);
+        for (int x = 0; x < list.size(); x += MAX_NAMES_PER_QUERY)
+        {
+            final StringBuilder wql =
+                new StringBuilder("SELECT * FROM Msvm_ComputerSystem WHERE ");
+            final int end = Math.min(list.size(), x + MAX_NAMES_PER_QUERY);
+            for (int y = x; y < end; ++y)
+            {
+                if (y > x)
+                {
+                    wql.append(" OR ");
+                }
+                wql.append("Name='").append(
+                    SWbemServices.escapeWqlString(list.get(y))).append('\'');
+            }
+
+            final SWbemObjectSet<MsvmComputerSystem> set =
+                service.execStreamingQuery(
+                    wql.toString(),
+                    MsvmComputerSystem.class);
+            if (set == null)
+            {
+                throw new Exception("Error querying Msvm_ComputerSystem.");
+            }
+            for (final MsvmComputerSystem cs : set)
+            {
+                byName.put(cs.getName().toUpperCase(), cs);
+            }
+        }
+        return byName;
+    }
+
+    /**
+     * The outcome of a state change request for one computer system.
+     */
+    final static public class Result
+    {
+        private final String name;
+
+        private final MsvmComputerSystem computerSystem;
+
+        private final MsvmMethodResult methodResult;
+
+        private final Exception exception;
+
+        Result(
+            String name,
+            MsvmComputerSystem computerSystem,
+            MsvmMethodResult methodResult,
+            Exception exception)
+        {
+            this.name = name;
+            this.computerSystem = computerSystem;
+            this.methodResult = methodResult;
+            this.exception = exception;
+        }
+
+        /**
+         * Gets the name of a computer system that could not be resolved.
+         * 
+         * @return The requested name when no computer system was found for
+         *         it; otherwise null.
+         */
+        public String getName()
+        {
+            return this.name;
+        }
+
+        /**
+         * Gets the computer system.
+         * 
+         * @return The computer system, or null if no computer system has the
+         *         requested name.
+         */
+        public MsvmComputerSystem getComputerSystem()
+        {
+            return this.computerSystem;
+        }
+
+        /**
+         * Gets the return code and job of the RequestStateChange call.
+         * 
+         * @return The return code and job of the call, or null if the call
+         *         failed with an exception.
+         */
+        public MsvmMethodResult getMethodResult()
+        {
+            return this.methodResult;
+        }
+
+        /**
+         * Gets the exception the call failed with.
+         * 
+         * @return The exception the call failed with, or null.
+         */
+        public Exception getException()
+        {
+            return this.exception;
+        }
+
+        /**
+         * Gets a value indicating whether or not the state change completed
+         * or was started as a job.
+         * 
+         * @return A value indicating whether or not the call succeeded.
+         */
+        public boolean isSuccess()
+        {
+            return this.methodResult != null && this.methodResult.isSuccess();
+        }
+    }
+}
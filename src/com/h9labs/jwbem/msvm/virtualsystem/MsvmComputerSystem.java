@@ -25,14 +25,14 @@
 
 package com.h9labs.jwbem.msvm.virtualsystem;
 
-import org.jinterop.dcom.core.JIString;
+import org.jinterop.dcom.common.JIException;
 import org.jinterop.dcom.core.JIVariant;
 import org.jinterop.dcom.impls.automation.IJIDispatch;
-import com.h9labs.jwbem.SWbemMethod;
 import com.h9labs.jwbem.SWbemObject;
 import com.h9labs.jwbem.SWbemObjectSet;
 import com.h9labs.jwbem.SWbemServices;
 import com.h9labs.jwbem.SWbemSet;
+import com.h9labs.jwbem.msvm.MsvmMethodResult;
 import com.h9labs.jwbem.msvm.MsvmObject;
 import com.h9labs.jwbem.msvm.networking.MsvmSyntheticEthernetPort;
 
@@ -44,8 +44,6 @@ import com.h9labs.jwbem.msvm.networking.MsvmSyntheticEthernetPort;
  */
 public class MsvmComputerSystem extends MsvmObject
 {
-    private SWbemMethod requestStateChange;
-
     /**
      * Initializes a new instance of the MsvmComputerSystem class.
      * 
@@ -65,7 +63,8 @@ public class MsvmComputerSystem extends MsvmObject
      * specified in the RequestedState parameter. Invoking the
      * RequestStateChange method multiple times could result in earlier requests
      * being overwritten or lost. If 0 is returned, then the task completed
-     * successfully. Any other return code indicates an error condition.
+     * successfully. If 4096 is returned, then the task was started as a job.
+     * Any other return code indicates an error condition.
      * 
      * @param requestedState The new state
      * @return A status code.
@@ -73,34 +72,33 @@ public class MsvmComputerSystem extends MsvmObject
      */
     public int requestStateChange(final int requestedState) throws Exception
     {
-        if (this.requestStateChange == null)
-        {
-            for (final SWbemMethod m : super.getMethods())
-            {
-                if (m.getName().equals("RequestStateChange"))
-                {
-                    this.requestStateChange = m;
-                }
-            }
-        }
+        return execRequestStateChange(requestedState).getReturnValue();
+    }
 
-        SWbemObject inParams = this.requestStateChange.getInParameters();
+    /**
+     * Requests that the state of the computer system be changed to the value
+     * specified in the RequestedState parameter, and returns both the return
+     * code and the job that tracks the change.
+     * 
+     * @param requestedState The new state
+     * @return The return code and, if the task was started as a job, the path
+     *         of the job.
+     * @throws JIException When an error occurs.
+     * @see RequestedState
+     */
+    public MsvmMethodResult execRequestStateChange(final int requestedState)
+        throws JIException
+    {
+        final SWbemObject inParams =
+            super.getMethod("RequestStateChange").spawnInParameters();
         inParams.getObjectDispatcher().put(
             "RequestedState",
             new JIVariant(requestedState));
         inParams.getObjectDispatcher().put("TimeoutPeriod", JIVariant.NULL());
 
-        Object[] methodParams =
-            new Object[]
-            {
-                new JIString("RequestStateChange"),
-                new JIVariant(inParams.getObjectDispatcher()), new Integer(0),
-                JIVariant.NULL(),
-            };
-
-        super.objectDispatcher.callMethodA("ExecMethod_", methodParams);
-
-        return 0;
+        final SWbemObject outParams =
+            super.execMethod("RequestStateChange", inParams);
+        return MsvmMethodResult.fromOutParameters(outParams);
     }
 
     /**
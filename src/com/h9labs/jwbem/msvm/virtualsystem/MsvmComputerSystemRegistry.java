@@ -0,0 +1,430 @@
+/*
+ * Copyright (c) 2009, Hyper9 All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer. Redistributions in binary
+ * form must reproduce the above copyright notice, this list of conditions and
+ * the following disclaimer in the documentation and/or other materials provided
+ * with the distribution. Neither the name of Hyper9 nor the names of its
+ * contributors may be used to endorse or promote products derived from this
+ * software without specific prior written permission. THIS SOFTWARE IS PROVIDED
+ * BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO
+ * EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT,
+ * INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+
+package com.h9labs.jwbem.msvm.virtualsystem;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import org.jinterop.dcom.common.JISystem;
+import com.h9labs.jwbem.SWbemObjectSet;
+import com.h9labs.jwbem.SWbemServices;
+
+/**
+ * An in-memory index of the computer systems of a host by Name and by
+ * ElementName. The systems are loaded with one query and then resolved
+ * locally, instead of with a WQL query per lookup. The index is refreshed on
+ * a schedule or updated one system at a time from change notifications.
+ * 
+ * @author akutz
+ * @remarks Lookups read an immutable snapshot of the index and never block;
+ *          a refresh or update builds a new snapshot and swaps it in. Updates
+ *          and removals made while a refresh is reading the host are recorded
+ *          and applied again to the refreshed snapshot, so they are not lost.
+ *          Like MsvmObject.getByElementName, ElementName lookups are not case
+ *          sensitive.
+ */
+public class MsvmComputerSystemRegistry
+{
+    private final SWbemServices service;
+
+    private volatile Index index = new Index();
+
+    private ScheduledFuture<?> refreshTask;
+
+    /**
+     * The updates and removals made since each running refresh started;
+     * guarded by this.
+     */
+    private final Set<List<Patch>> patchLogs =
+        Collections.newSetFromMap(new IdentityHashMap<List<Patch>, Boolean>());
+
+    /**
+     * The number of refreshes started and the sequence number of the last
+     * refresh that was published; guarded by this.
+     */
+    private long refreshesStarted;
+
+    private long refreshPublished;
+
+    /**
+     * Initializes a new instance of the MsvmComputerSystemRegistry class. The
+     * registry is empty until it is refreshed.
+     * 
+     * @param service The host's service connection.
+     */
+    public MsvmComputerSystemRegistry(SWbemServices service)
+    {
+        this.service = service;
+    }
+
+    /**
+     * Reloads every computer system of the host with a single query.
+     * 
+     * @return The number of computer systems.
+     * @throws Exception When an error occurs.
+     */
+    public int refresh() throws Exception
+    {
+        final List<Patch> log = new ArrayList<Patch>();
+        final long sequence;
+        synchronized (this)
+        {
+            sequence = ++this.refreshesStarted;
+            this.patchLogs.add(log);
+        }
+
+        final Index newIndex = new Index();
+        try
+        {
+            final SWbemObjectSet<MsvmComputerSystem> set =
+                this.service.execStreamingQuery(
+                    "SELECT * FROM Msvm_ComputerSystem",
+                    MsvmComputerSystem.class);
+            if (set == null)
+            {
+                throw new Exception("Error querying Msvm_ComputerSystem.");
+            }
+            for (final MsvmComputerSystem cs : set)
+            {
+                newIndex.put(new Entry(cs));
+            }
+        }
+        finally
+        {
+            synchronized (this)
+            {
+                this.patchLogs.remove(log);
+            }
+        }
+
+        synchronized (this)
+        {
+            // A refresh that started later has already been published.
+            if (sequence < this.refreshPublished)
+            {
+                return this.index.byName.size();
+            }
+
+            // Apply the changes that were made while the host was read.
+            for (final Patch patch : log)
+            {
+                newIndex.remove(patch.name);
+                if (patch.entry != null)
+                {
+                    newIndex.put(patch.entry);
+                }
+            }
+            this.refreshPublished = sequence;
+            this.index = newIndex;
+        }
+        return newIndex.byName.size();
+    }
+
+    /**
+     * Adds a computer system to the registry or replaces the entry with the
+     * same name, for example when a system is created or renamed.
+     * 
+     * @param cs The computer system.
+     * @throws Exception When an error occurs.
+     */
+    public void update(MsvmComputerSystem cs) throws Exception
+    {
+        final Entry entry = new Entry(cs);
+        synchronized (this)
+        {
+            final Index newIndex = new Index(this.index);
+            newIndex.remove(entry.name);
+            newIndex.put(entry);
+            this.index = newIndex;
+            log(new Patch(entry.name, entry));
+        }
+    }
+
+    /**
+     * Removes a computer system from the registry, for example when a system
+     * is deleted.
+     * 
+     * @param name The name (GUID) of the computer system.
+     */
+    public void remove(String name)
+    {
+        final String key = name.toUpperCase();
+        synchronized (this)
+        {
+            final Index newIndex = new Index(this.index);
+            newIndex.remove(key);
+            this.index = newIndex;
+            log(new Patch(key, null));
+        }
+    }
+
+    /**
+     * Records a change for every refresh that is running. Must be called
+     * while holding the lock on this.
+     */
+    private void log(Patch patch)
+    {
+        for (final List<Patch> log : this.patchLogs)
+        {
+            log.add(patch);
+        }
+    }
+
+    /**
+     * Refreshes the registry periodically. Failed refreshes are logged and
+     * leave the registry as it was.
+     * 
+     * @param scheduler The scheduler the refreshes run on.
+     * @param periodMillis The time between the end of one refresh and the
+     *        start of the next, in milliseconds.
+     */
+    public synchronized void start(
+        ScheduledExecutorService scheduler,
+        long periodMillis)
+    {
+        stop();
+        this.refreshTask =
+            scheduler.scheduleWithFixedDelay(new Runnable()
+            {
+                public void run()
+                {
+                    try
+                    {
+                        refresh();
+                    }
+                    catch (Exception e)
+                    {
+                        JISystem.getLogger().log(
+                            Level.WARNING,
+                            "Error refreshing the computer system registry",
+                            e);
+                    }
+                }
+            }, 0, periodMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Stops the periodic refreshes.
+     */
+    public synchronized void stop()
+    {
+        if (this.refreshTask != null)
+        {
+            this.refreshTask.cancel(false);
+            this.refreshTask = null;
+        }
+    }
+
+    /**
+     * Gets a computer system by name.
+     * 
+     * @param name The name (GUID) of the computer system.
+     * @return The computer system, or null if there is none with that name.
+     */
+    public MsvmComputerSystem getByName(String name)
+    {
+        final Entry entry = this.index.byName.get(name.toUpperCase());
+        return entry == null ? null : entry.cs;
+    }
+
+    /**
+     * Gets a computer system by its friendly name.
+     * 
+     * @param elementName The friendly name of the computer system.
+     * @return The computer system, or null if there is none with that name.
+     * @throws Exception When more than one computer system has that name.
+     */
+    public MsvmComputerSystem getByElementName(String elementName)
+        throws Exception
+    {
+        final List<MsvmComputerSystem> list =
+            this.index.byElementName.get(elementName.toLowerCase());
+        if (list == null)
+        {
+            return null;
+        }
+        if (list.size() > 1)
+        {
+            throw new Exception("More than one object found.");
+        }
+        return list.get(0);
+    }
+
+    /**
+     * Gets all of the computer systems with a friendly name.
+     * 
+     * @param elementName The friendly name of the computer systems.
+     * @return The computer systems with that name.
+     */
+    public List<MsvmComputerSystem> getAllByElementName(String elementName)
+    {
+        final List<MsvmComputerSystem> list =
+            this.index.byElementName.get(elementName.toLowerCase());
+        if (list == null)
+        {
+            return Collections.emptyList();
+        }
+        return list;
+    }
+
+    /**
+     * Gets all of the computer systems in the registry.
+     * 
+     * @return The computer systems in the registry.
+     */
+    public Collection<MsvmComputerSystem> getAll()
+    {
+        final Collection<Entry> entries = this.index.byName.values();
+        final List<MsvmComputerSystem> list =
+            new ArrayList<MsvmComputerSystem>(entries.size());
+        for (final Entry entry : entries)
+        {
+            list.add(entry.cs);
+        }
+        return list;
+    }
+
+    /**
+     * A computer system and the names it is indexed by.
+     */
+    private static class Entry
+    {
+        private final MsvmComputerSystem cs;
+
+        private final String name;
+
+        private final String elementName;
+
+        Entry(MsvmComputerSystem cs) throws Exception
+        {
+            this.cs = cs;
+            this.name = cs.getName().toUpperCase();
+            final String en = cs.getElementName();
+            this.elementName = en == null ? null : en.toLowerCase();
+        }
+    }
+
+    /**
+     * An update or removal made while a refresh was running.
+     */
+    private static class Patch
+    {
+        private final String name;
+
+        /**
+         * The new entry, or null if the computer system was removed.
+         */
+        private final Entry entry;
+
+        Patch(String name, Entry entry)
+        {
+            this.name = name;
+            this.entry = entry;
+        }
+    }
+
+    /**
+     * A snapshot of the indexes. A snapshot is only modified before it is
+     * published.
+     */
+    private static class Index
+    {
+        private final Map<String, Entry> byName;
+
+        private final Map<String, List<MsvmComputerSystem>> byElementName;
+
+        Index()
+        {
+            this.byName = new HashMap<String, Entry>();
+            this.byElementName =
+                new HashMap<String, List<MsvmComputerSystem>>();
+        }
+
+        Index(Index toCopy)
+        {
+            this.byName = new HashMap<String, Entry>(toCopy.byName);
+            this.byElementName =
+                new HashMap<String, List<MsvmComputerSystem>>(
+                    toCopy.byElementName);
+        }
+
+        void put(Entry entry)
+        {
+            this.byName.put(entry.name, entry);
+            if (entry.elementName == null)
+            {
+                return;
+            }
+            final List<MsvmComputerSystem> old =
+                this.byElementName.get(entry.elementName);
+            final List<MsvmComputerSystem> list =
+                new ArrayList<MsvmComputerSystem>(old == null ? 1 : old
+                    .size() + 1);
+            if (old != null)
+            {
+                list.addAll(old);
+            }
+            list.add(entry.cs);
+            this.byElementName.put(
+                entry.elementName,
+                Collections.unmodifiableList(list));
+        }
+
+        void remove(String name)
+        {
+            final Entry entry = this.byName.remove(name);
+            if (entry == null || entry.elementName == null)
+            {
+                return;
+            }
+            final List<MsvmComputerSystem> old =
+                this.byElementName.get(entry.elementName);
+            final List<MsvmComputerSystem> list =
+                new ArrayList<MsvmComputerSystem>(old);
+            list.remove(entry.cs);
+            if (list.isEmpty())
+            {
+                this.byElementName.remove(entry.elementName);
+            }
+            else
+            {
+                this.byElementName.put(
+                    entry.elementName,
+                    Collections.unmodifiableList(list));
+            }
+        }
+    }
+}
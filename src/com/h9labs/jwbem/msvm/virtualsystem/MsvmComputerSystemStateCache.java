@@ -0,0 +1,350 @@
+/*
+ * Copyright (c) 2009, Hyper9 All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer. Redistributions in binary
+ * form must reproduce the above copyright notice, this list of conditions and
+ * the following disclaimer in the documentation and/or other materials provided
+ * with the distribution. Neither the name of Hyper9 nor the names of its
+ * contributors may be used to endorse or promote products derived from this
+ * software without specific prior written permission. THIS SOFTWARE IS PROVIDED
+ * BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO
+ * EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT,
+ * INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+
+package com.h9labs.jwbem.msvm.virtualsystem;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.logging.Level;
+import org.jinterop.dcom.common.JISystem;
+import com.h9labs.jwbem.SWbemEventListener;
+import com.h9labs.jwbem.SWbemEventWatcher;
+import com.h9labs.jwbem.SWbemObject;
+import com.h9labs.jwbem.SWbemObjectSet;
+import com.h9labs.jwbem.SWbemServices;
+
+/**
+ * Keeps the enabled and health states of the computer systems of a host in
+ * memory. The states are loaded once and then kept current by instance
+ * events, so reading a state costs no round trip and the host only reports
+ * the changes.
+ * 
+ * @author akutz
+ * @remarks The cache subscribes to __InstanceOperationEvent, which covers
+ *          modification as well as creation and deletion. The states are
+ *          reloaded every time the subscription is established, so changes
+ *          that happen while the connection is down are not missed. An
+ *          attached MsvmComputerSystemRegistry is kept current from the same
+ *          events.
+ */
+public class MsvmComputerSystemStateCache implements SWbemEventListener
+{
+    /**
+     * The default polling interval of the event query, in seconds.
+     */
+    final static public int DEFAULT_WITHIN_SECONDS = 2;
+
+    private final SWbemServices service;
+
+    private final MsvmComputerSystemRegistry registry;
+
+    /**
+     * The states, by upper-case name.
+     */
+    private final ConcurrentMap<String, State> states =
+        new ConcurrentHashMap<String, State>();
+
+    private SWbemEventWatcher watcher;
+
+    /**
+     * Initializes a new instance of the MsvmComputerSystemStateCache class.
+     * 
+     * @param service The host's service connection.
+     */
+    public MsvmComputerSystemStateCache(SWbemServices service)
+    {
+        this(service, null);
+    }
+
+    /**
+     * Initializes a new instance of the MsvmComputerSystemStateCache class
+     * that also keeps a registry current.
+     * 
+     * @param service The host's service connection.
+     * @param registry The registry of the host's computer systems, or null.
+     */
+    public MsvmComputerSystemStateCache(
+        SWbemServices service,
+        MsvmComputerSystemRegistry registry)
+    {
+        this.service = service;
+        this.registry = registry;
+    }
+
+    /**
+     * Starts watching the host with DEFAULT_WITHIN_SECONDS.
+     */
+    public void start()
+    {
+        start(DEFAULT_WITHIN_SECONDS);
+    }
+
+    /**
+     * Starts watching the host.
+     * 
+     * @param withinSeconds The polling interval of the event query, in
+     *        seconds. A change is reported at most this long after it
+     *        happened.
+     */
+    public synchronized void start(int withinSeconds)
+    {
+        if (this.watcher != null)
+        {
+            throw new IllegalStateException("The cache is already started.");
+        }
+        final String query =
+            String.format(
+                "SELECT * FROM __InstanceOperationEvent WITHIN %d "
+                    + "WHERE TargetInstance ISA 'Msvm_ComputerSystem'",
+                withinSeconds);
+        this.watcher = new SWbemEventWatcher(this.service, query, this);
+        this.watcher.start();
+    }
+
+    /**
+     * Stops watching the host. The cached states are kept but no longer
+     * updated.
+     */
+    public synchronized void stop()
+    {
+        if (this.watcher != null)
+        {
+            this.watcher.stop();
+            this.watcher = null;
+        }
+    }
+
+    /**
+     * Gets the state of a computer system.
+     * 
+     * @param name The name (GUID) of the computer system.
+     * @return The state, or null if the computer system is not known.
+     */
+    public State getState(String name)
+    {
+        return this.states.get(name.toUpperCase());
+    }
+
+    /**
+     * Gets the enabled state of a computer system.
+     * 
+     * @param name The name (GUID) of the computer system.
+     * @return The enabled state, or -1 if the computer system is not known.
+     * @see MsvmComputerSystem#getEnabledState()
+     */
+    public int getEnabledState(String name)
+    {
+        final State state = getState(name);
+        return state == null ? -1 : state.getEnabledState();
+    }
+
+    /**
+     * Gets the health state of a computer system.
+     * 
+     * @param name The name (GUID) of the computer system.
+     * @return The health state, or -1 if the computer system is not known.
+     * @see MsvmComputerSystem#getHealthState()
+     */
+    public int getHealthState(String name)
+    {
+        final State state = getState(name);
+        return state == null ? -1 : state.getHealthState();
+    }
+
+    /**
+     * Gets the states of all of the computer systems.
+     * 
+     * @return The states, by upper-case name.
+     */
+    public Map<String, State> getStates()
+    {
+        return Collections.unmodifiableMap(this.states);
+    }
+
+    /**
+     * Reloads the states of every computer system with a single query.
+     */
+    public void subscribed(SWbemServices service)
+    {
+        try
+        {
+            final SWbemObjectSet<MsvmComputerSystem> set =
+                service.execStreamingQuery(
+                    "SELECT * FROM Msvm_ComputerSystem",
+                    MsvmComputerSystem.class);
+            if (set == null)
+            {
+                throw new Exception("Error querying Msvm_ComputerSystem.");
+            }
+            final Set<String> seen = new HashSet<String>();
+            for (final MsvmComputerSystem cs : set)
+            {
+                final State state = new State(cs);
+                this.states.put(state.name, state);
+                seen.add(state.name);
+            }
+            this.states.keySet().retainAll(seen);
+
+            if (this.registry != null)
+            {
+                this.registry.refresh();
+            }
+        }
+        catch (Exception e)
+        {
+            JISystem.getLogger().log(
+                Level.WARNING,
+                "Error loading computer system states",
+                e);
+        }
+    }
+
+    /**
+     * Applies an instance event to the cached states.
+     */
+    public void eventReceived(SWbemObject event)
+    {
+        try
+        {
+            final String eventClass = event.getObjectPath().getClazz();
+            final MsvmComputerSystem cs =
+                event.getEmbeddedObject(
+                    "TargetInstance",
+                    MsvmComputerSystem.class);
+            if (cs == null)
+            {
+                return;
+            }
+            final State state = new State(cs);
+
+            if ("__InstanceDeletionEvent".equalsIgnoreCase(eventClass))
+            {
+                this.states.remove(state.name);
+                if (this.registry != null)
+                {
+                    this.registry.remove(state.name);
+                }
+            }
+            else
+            {
+                this.states.put(state.name, state);
+                if (this.registry != null)
+                {
+                    this.registry.update(cs);
+                }
+            }
+        }
+        catch (Exception e)
+        {
+            JISystem.getLogger().log(
+                Level.WARNING,
+                "Error applying computer system event",
+                e);
+        }
+    }
+
+    /**
+     * The state of a computer system at the time it was last reported.
+     */
+    final static public class State
+    {
+        private final String name;
+
+        private final String elementName;
+
+        private final int enabledState;
+
+        private final int healthState;
+
+        private final long timestamp;
+
+        State(MsvmComputerSystem cs)
+        {
+            this.name = cs.getName().toUpperCase();
+            this.elementName = cs.getElementName();
+            this.enabledState = cs.getEnabledState();
+            this.healthState = cs.getHealthState();
+            this.timestamp = System.currentTimeMillis();
+        }
+
+        /**
+         * Gets the name (GUID) of the computer system.
+         * 
+         * @return The upper-case name of the computer system.
+         */
+        public String getName()
+        {
+            return this.name;
+        }
+
+        /**
+         * Gets the friendly name of the computer system.
+         * 
+         * @return The friendly name of the computer system.
+         */
+        public String getElementName()
+        {
+            return this.elementName;
+        }
+
+        /**
+         * Gets the enabled state of the computer system.
+         * 
+         * @return The enabled state of the computer system.
+         * @see MsvmComputerSystem#getEnabledState()
+         */
+        public int getEnabledState()
+        {
+            return this.enabledState;
+        }
+
+        /**
+         * Gets the health state of the computer system.
+         * 
+         * @return The health state of the computer system.
+         * @see MsvmComputerSystem#getHealthState()
+         */
+        public int getHealthState()
+        {
+            return this.healthState;
+        }
+
+        /**
+         * Gets the time the state was read.
+         * 
+         * @return The time the state was read, in milliseconds since the
+         *         epoch.
+         */
+        public long getTimestamp()
+        {
+            return this.timestamp;
+        }
+    }
+}
@@ -0,0 +1,302 @@
+/*
+ * Copyright (c) 2009, Hyper9 All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer. Redistributions in binary
+ * form must reproduce the above copyright notice, this list of conditions and
+ * the following disclaimer in the documentation and/or other materials provided
+ * with the distribution. Neither the name of Hyper9 nor the names of its
+ * contributors may be used to endorse or promote products derived from this
+ * software without specific prior written permission. THIS SOFTWARE IS PROVIDED
+ * BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO
+ * EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT,
+ * INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+
+package com.h9labs.jwbem.msvm.virtualsystem;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.logging.Level;
+import org.jinterop.dcom.common.JISystem;
+import com.h9labs.jwbem.SWbemEventListener;
+import com.h9labs.jwbem.SWbemEventWatcher;
+import com.h9labs.jwbem.SWbemObject;
+import com.h9labs.jwbem.SWbemObjectPath;
+import com.h9labs.jwbem.SWbemServices;
+
+/**
+ * Caches the setting data of the virtual computer systems of a host, by the
+ * path of the computer system. An entry is read once and served from memory
+ * until it expires or the settings of its computer system change.
+ * 
+ * @author akutz
+ * @remarks Once started, the cache drops the entry of a computer system as
+ *          soon as an instance event reports a change to its
+ *          Msvm_VirtualSystemSettingData, and drops every entry whenever the
+ *          event subscription is (re)established. The time to live bounds
+ *          how stale an entry can be when the cache is not started or events
+ *          are lost. Concurrent reads of the same missing entry are served by
+ *          a single query.
+ */
+public class MsvmSettingDataCache implements SWbemEventListener
+{
+    /**
+     * The default time an entry is kept, in milliseconds.
+     */
+    final static public long DEFAULT_TTL_MILLIS = 60000;
+
+    /**
+     * The default polling interval of the event query, in seconds.
+     */
+    final static public int DEFAULT_WITHIN_SECONDS = 2;
+
+    private final SWbemServices service;
+
+    private final long ttlMillis;
+
+    /**
+     * The entries, by normalized path of the computer system.
+     */
+    private final ConcurrentMap<String, Entry> entries =
+        new ConcurrentHashMap<String, Entry>();
+
+    private SWbemEventWatcher watcher;
+
+    /**
+     * Initializes a new instance of the MsvmSettingDataCache class that keeps
+     * entries for DEFAULT_TTL_MILLIS.
+     * 
+     * @param service The host's service connection.
+     */
+    public MsvmSettingDataCache(SWbemServices service)
+    {
+        this(service, DEFAULT_TTL_MILLIS);
+    }
+
+    /**
+     * Initializes a new instance of the MsvmSettingDataCache class.
+     * 
+     * @param service The host's service connection.
+     * @param ttlMillis The time an entry is kept, in milliseconds.
+     */
+    public MsvmSettingDataCache(SWbemServices service, long ttlMillis)
+    {
+        if (ttlMillis < 0)
+        {
+            throw new IllegalArgumentException(
+                "ttlMillis must not be negative.");
+        }
+        this.service = service;
+        this.ttlMillis = ttlMillis;
+    }
+
+    /**
+     * Gets the setting data of a virtual computer system.
+     * 
+     * @param cs The virtual computer system.
+     * @return The setting data of the computer system.
+     * @throws Exception When an error occurs.
+     * @see MsvmComputerSystem#getSettingData()
+     */
+    public MsvmVirtualSystemSettingData getSettingData(
+        final MsvmComputerSystem cs) throws Exception
+    {
+        final String key =
+            SWbemObjectPath.normalize(cs.getObjectPath().getPath());
+        while (true)
+        {
+            Entry entry = this.entries.get(key);
+            if (entry == null || entry.isExpired())
+            {
+                final Entry newEntry =
+                    new Entry(new Callable<MsvmVirtualSystemSettingData>()
+                    {
+                        public MsvmVirtualSystemSettingData call()
+                            throws Exception
+                        {
+                            return cs.getSettingData();
+                        }
+                    });
+                final boolean added =
+                    entry == null
+                        ? this.entries.putIfAbsent(key, newEntry) == null
+                        : this.entries.replace(key, entry, newEntry);
+                if (!added)
+                {
+                    // Another thread got there first; use its entry.
+                    continue;
+                }
+                entry = newEntry;
+                entry.task.run();
+            }
+
+            try
+            {
+                return entry.task.get();
+            }
+            catch (ExecutionException e)
+            {
+                // Do not cache failures.
+                this.entries.remove(key, entry);
+                final Throwable cause = e.getCause();
+                throw cause instanceof Exception ? (Exception) cause : e;
+            }
+        }
+    }
+
+    /**
+     * Drops the entry of a computer system.
+     * 
+     * @param vmPath The path of the computer system.
+     */
+    public void invalidate(String vmPath)
+    {
+        this.entries.remove(SWbemObjectPath.normalize(vmPath));
+    }
+
+    /**
+     * Drops the entries of the computer system with a name.
+     * 
+     * @param vmName The name (GUID) of the computer system.
+     */
+    public void invalidateByName(String vmName)
+    {
+        final Iterator<Map.Entry<String, Entry>> iter =
+            this.entries.entrySet().iterator();
+        while (iter.hasNext())
+        {
+            final String name =
+                SWbemObjectPath.parseKeys(iter.next().getKey()).get("name");
+            if (vmName.equalsIgnoreCase(name))
+            {
+                iter.remove();
+            }
+        }
+    }
+
+    /**
+     * Drops every entry.
+     */
+    public void clear()
+    {
+        this.entries.clear();
+    }
+
+    /**
+     * Starts dropping entries when their settings change, with
+     * DEFAULT_WITHIN_SECONDS.
+     */
+    public void start()
+    {
+        start(DEFAULT_WITHIN_SECONDS);
+    }
+
+    /**
+     * Starts dropping entries when their settings change.
+     * 
+     * @param withinSeconds The polling interval of the event query, in
+     *        seconds. A change shows up at most this long after it happened.
+     */
+    public synchronized void start(int withinSeconds)
+    {
+        if (this.watcher != null)
+        {
+            throw new IllegalStateException("The cache is already started.");
+        }
+        final String query =
+            String.format(
+                "SELECT * FROM __InstanceOperationEvent WITHIN %d "
+                    + "WHERE TargetInstance ISA "
+                    + "'Msvm_VirtualSystemSettingData'",
+                withinSeconds);
+        this.watcher = new SWbemEventWatcher(this.service, query, this);
+        this.watcher.start();
+    }
+
+    /**
+     * Stops watching for changes. Entries are then only dropped when they
+     * expire.
+     */
+    public synchronized void stop()
+    {
+        if (this.watcher != null)
+        {
+            this.watcher.stop();
+            this.watcher = null;
+        }
+    }
+
+    /**
+     * Drops every entry, since changes made while the watcher was not
+     * subscribed are not reported.
+     */
+    public void subscribed(SWbemServices service)
+    {
+        clear();
+    }
+
+    /**
+     * Drops the entry of the computer system whose settings changed.
+     */
+    public void eventReceived(SWbemObject event)
+    {
+        try
+        {
+            final MsvmVirtualSystemSettingData sd =
+                event.getEmbeddedObject(
+                    "TargetInstance",
+                    MsvmVirtualSystemSettingData.class);
+            final String vmName = sd == null ? null : sd.getSystemName();
+            if (vmName != null)
+            {
+                invalidateByName(vmName);
+            }
+        }
+        catch (Exception e)
+        {
+            // Without knowing which entry changed, drop them all.
+            clear();
+            JISystem.getLogger().log(
+                Level.WARNING,
+                "Error applying setting data event",
+                e);
+        }
+    }
+
+    /**
+     * A cached value and the time it was requested.
+     */
+    private class Entry
+    {
+        private final FutureTask<MsvmVirtualSystemSettingData> task;
+
+        private final long createdMillis = System.currentTimeMillis();
+
+        Entry(Callable<MsvmVirtualSystemSettingData> loader)
+        {
+            this.task = new FutureTask<MsvmVirtualSystemSettingData>(loader);
+        }
+
+        boolean isExpired()
+        {
+            return System.currentTimeMillis() - this.createdMillis >= ttlMillis;
+        }
+    }
+}
@@ -25,6 +25,7 @@
 
 package com.h9labs.jwbem.msvm.virtualsystem;
 
+import java.util.Date;
 import org.jinterop.dcom.impls.automation.IJIDispatch;
 import com.h9labs.jwbem.SWbemServices;
 import com.h9labs.jwbem.msvm.MsvmObject;
@@ -35,7 +36,9 @@ import com.h9labs.jwbem.msvm.MsvmObject;
  * information related to a virtual system or snapshot.
  * 
  * @author akutz
- * 
+ * @remarks Only the properties named in the RequestedInformation of the call
+ *          are set.
+ * @see RequestedInformation
  */
 public class MsvmSummaryInformation extends MsvmObject
 {
@@ -56,7 +59,7 @@ public class MsvmSummaryInformation extends MsvmObject
     /**
      * Gets the current processor load.
      * 
-     * @return The current processor load.
+     * @return The current processor load, or -1 if it was not requested.
      */
     public int getProcessorLoad()
     {
@@ -73,7 +76,7 @@ public class MsvmSummaryInformation extends MsvmObject
     /**
      * Gets the current memory usage.
      * 
-     * @return The current memory usage.
+     * @return The current memory usage, or -1 if it was not requested.
      */
     public int getMemoryUsage()
     {
@@ -86,4 +89,196 @@ public class MsvmSummaryInformation extends MsvmObject
             return -1;
         }
     }
+
+    /**
+     * Gets the time the virtual system was created.
+     * 
+     * @return The time the virtual system was created, or null if it was not
+     *         requested.
+     */
+    public Date getCreationTime()
+    {
+        return super.getProperty("CreationTime", Date.class);
+    }
+
+    /**
+     * Gets the notes of the virtual system.
+     * 
+     * @return The notes of the virtual system, or null if it was not requested.
+     */
+    public String getNotes()
+    {
+        return super.getProperty("Notes", String.class);
+    }
+
+    /**
+     * Gets the number of processors of the virtual system.
+     * 
+     * @return The number of processors of the virtual system, or -1 if it was
+     *         not requested.
+     */
+    public int getNumberOfProcessors()
+    {
+        try
+        {
+            return super.getProperty("NumberOfProcessors", Integer.class);
+        }
+        catch (Exception e)
+        {
+            return -1;
+        }
+    }
+
+    /**
+     * Gets the enabled state of the virtual machine.
+     * 
+     * @return The enabled state of the virtual machine, or -1 if it was not
+     *         requested.
+     */
+    public int getEnabledState()
+    {
+        try
+        {
+            return super.getProperty("EnabledState", Integer.class);
+        }
+        catch (Exception e)
+        {
+            return -1;
+        }
+    }
+
+    /**
+     * Gets the processor load history of the virtual machine.
+     * 
+     * @return The processor load history of the virtual machine, one sample per
+     *         element with the most recent sample last, or null if it was not
+     *         requested.
+     */
+    public int[] getProcessorLoadHistory()
+    {
+        return super.getProperty("ProcessorLoadHistory", int[].class);
+    }
+
+    /**
+     * Gets the status of the heartbeat integration component.
+     * 
+     * @return The status of the heartbeat integration component, or -1 if it
+     *         was not requested.
+     */
+    public int getHeartbeat()
+    {
+        try
+        {
+            return super.getProperty("Heartbeat", Integer.class);
+        }
+        catch (Exception e)
+        {
+            return -1;
+        }
+    }
+
+    /**
+     * Gets the time since the virtual machine was last started.
+     * 
+     * @return The time since the virtual machine was last started, in
+     *         milliseconds, or -1 if it was not requested.
+     */
+    public long getUptime()
+    {
+        try
+        {
+            return super.getProperty("Uptime", Long.class);
+        }
+        catch (Exception e)
+        {
+            return -1;
+        }
+    }
+
+    /**
+     * Gets the guest operating system of the virtual machine.
+     * 
+     * @return The guest operating system of the virtual machine, or null if it
+     *         was not requested.
+     */
+    public String getGuestOperatingSystem()
+    {
+        return super.getProperty("GuestOperatingSystem", String.class);
+    }
+
+    /**
+     * Gets the health state of the virtual machine.
+     * 
+     * @return The health state of the virtual machine, or -1 if it was not
+     *         requested.
+     */
+    public int getHealthState()
+    {
+        try
+        {
+            return super.getProperty("HealthState", Integer.class);
+        }
+        catch (Exception e)
+        {
+            return -1;
+        }
+    }
+
+    /**
+     * Gets the operational status of the virtual machine.
+     * 
+     * @return The operational status of the virtual machine, or null if it was
+     *         not requested.
+     */
+    public int[] getOperationalStatus()
+    {
+        return super.getProperty("OperationalStatus", int[].class);
+    }
+
+    /**
+     * Gets the status descriptions of the virtual machine.
+     * 
+     * @return The status descriptions of the virtual machine, or null if it was
+     *         not requested.
+     */
+    public String[] getStatusDescriptions()
+    {
+        return super.getProperty("StatusDescriptions", String[].class);
+    }
+
+    /**
+     * Gets the memory available to the virtual machine.
+     * 
+     * @return The memory available to the virtual machine, or -1 if it was not
+     *         requested.
+     */
+    public int getMemoryAvailable()
+    {
+        try
+        {
+            return super.getProperty("MemoryAvailable", Integer.class);
+        }
+        catch (Exception e)
+        {
+            return -1;
+        }
+    }
+
+    /**
+     * Gets the memory buffer available to the virtual machine.
+     * 
+     * @return The memory buffer available to the virtual machine, or -1 if it
+     *         was not requested.
+     */
+    public int getAvailableMemoryBuffer()
+    {
+        try
+        {
+            return super.getProperty("AvailableMemoryBuffer", Integer.class);
+        }
+        catch (Exception e)
+        {
+            return -1;
+        }
+    }
 }
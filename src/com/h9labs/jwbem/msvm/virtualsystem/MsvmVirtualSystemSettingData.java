@@ -50,4 +50,14 @@ public class MsvmVirtualSystemSettingData extends MsvmObject
     {
         super(objectDispatcher, service);
     }
+
+    /**
+     * Gets the name of the virtual system the settings belong to.
+     * 
+     * @return The name (GUID) of the virtual system.
+     */
+    public String getSystemName()
+    {
+        return this.getProperty("SystemName", String.class);
+    }
 }
@@ -0,0 +1,420 @@
+/*
+ * Copyright (c) 2009, Hyper9 All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer. Redistributions in binary
+ * form must reproduce the above copyright notice, this list of conditions and
+ * the following disclaimer in the documentation and/or other materials provided
+ * with the distribution. Neither the name of Hyper9 nor the names of its
+ * contributors may be used to endorse or promote products derived from this
+ * software without specific prior written permission. THIS SOFTWARE IS PROVIDED
+ * BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO
+ * EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT,
+ * INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+
+package com.h9labs.jwbem.msvm.virtualsystem;
+
+import java.util.Arrays;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * This class contains the values for the RequestedInformation parameter of a
+ * GetSummaryInformation call, and an immutable set of them built from the
+ * MsvmSummaryInformation accessors a caller actually uses.
+ * 
+ * @author akutz
+ * @remarks Build a RequestedInformation once and keep it; equal sets share a
+ *          single instance and its array of codes is compiled only once.
+ */
+public class RequestedInformation
+{
+    /**
+     * The Name of the virtual system.
+     */
+    final static public int Name = 0;
+
+    /**
+     * The ElementName of the virtual system.
+     */
+    final static public int ElementName = 1;
+
+    /**
+     * The time the virtual system was created.
+     */
+    final static public int CreationTime = 2;
+
+    /**
+     * The notes of the virtual system.
+     */
+    final static public int Notes = 3;
+
+    /**
+     * The number of processors of the virtual system.
+     */
+    final static public int NumberOfProcessors = 4;
+
+    /**
+     * An 80x60 thumbnail image of the virtual system.
+     */
+    final static public int SmallThumbnailImage = 5;
+
+    /**
+     * A 160x120 thumbnail image of the virtual system.
+     */
+    final static public int MediumThumbnailImage = 6;
+
+    /**
+     * A 320x240 thumbnail image of the virtual system.
+     */
+    final static public int LargeThumbnailImage = 7;
+
+    /**
+     * The enabled state of the virtual machine.
+     */
+    final static public int EnabledState = 100;
+
+    /**
+     * The current processor load of the virtual machine.
+     */
+    final static public int ProcessorLoad = 101;
+
+    /**
+     * The processor load history of the virtual machine.
+     */
+    final static public int ProcessorLoadHistory = 102;
+
+    /**
+     * The current memory usage of the virtual machine.
+     */
+    final static public int MemoryUsage = 103;
+
+    /**
+     * The status of the heartbeat integration component.
+     */
+    final static public int Heartbeat = 104;
+
+    /**
+     * The time since the virtual machine was last started.
+     */
+    final static public int Uptime = 105;
+
+    /**
+     * The guest operating system of the virtual machine.
+     */
+    final static public int GuestOperatingSystem = 106;
+
+    /**
+     * The snapshots of the virtual machine.
+     */
+    final static public int Snapshots = 107;
+
+    /**
+     * The tasks running against the virtual machine.
+     */
+    final static public int AsynchronousTasks = 108;
+
+    /**
+     * The health state of the virtual machine.
+     */
+    final static public int HealthState = 109;
+
+    /**
+     * The operational status of the virtual machine.
+     */
+    final static public int OperationalStatus = 110;
+
+    /**
+     * The status descriptions of the virtual machine.
+     */
+    final static public int StatusDescriptions = 111;
+
+    /**
+     * The memory available to the virtual machine.
+     */
+    final static public int MemoryAvailable = 112;
+
+    /**
+     * The memory buffer available to the virtual machine.
+     */
+    final static public int AvailableMemoryBuffer = 113;
+
+    /**
+     * The canonical instances, by their codes.
+     */
+    private static final ConcurrentMap<String, RequestedInformation> instances =
+        new ConcurrentHashMap<String, RequestedInformation>();
+
+    private final Integer[] codes;
+
+    private RequestedInformation(Integer[] codes)
+    {
+        this.codes = codes;
+    }
+
+    /**
+     * Creates a builder for a RequestedInformation.
+     * 
+     * @return A new builder.
+     */
+    public static Builder builder()
+    {
+        return new Builder();
+    }
+
+    /**
+     * Gets the codes, in ascending order, as the array that is passed to
+     * GetSummaryInformation.
+     * 
+     * @return A copy of the codes.
+     */
+    public Integer[] getCodes()
+    {
+        return this.codes.clone();
+    }
+
+    /**
+     * Gets a value indicating whether or not a code is requested.
+     * 
+     * @param code The code.
+     * @return A value indicating whether or not the code is requested.
+     */
+    public boolean contains(int code)
+    {
+        return Arrays.binarySearch(this.codes, code) >= 0;
+    }
+
+    @Override
+    public String toString()
+    {
+        return Arrays.toString(this.codes);
+    }
+
+    /**
+     * Builds a RequestedInformation from the MsvmSummaryInformation accessors
+     * a caller uses.
+     */
+    final static public class Builder
+    {
+        private final TreeSet<Integer> codes = new TreeSet<Integer>();
+
+        private Builder()
+        {
+        }
+
+        /**
+         * Requests a code.
+         * 
+         * @param code The code.
+         * @return This builder.
+         */
+        public Builder add(int code)
+        {
+            this.codes.add(code);
+            return this;
+        }
+
+        /**
+         * Requests the value of getName.
+         * 
+         * @return This builder.
+         */
+        public Builder name()
+        {
+            return add(Name);
+        }
+
+        /**
+         * Requests the value of getElementName.
+         * 
+         * @return This builder.
+         */
+        public Builder elementName()
+        {
+            return add(ElementName);
+        }
+
+        /**
+         * Requests the value of getCreationTime.
+         * 
+         * @return This builder.
+         */
+        public Builder creationTime()
+        {
+            return add(CreationTime);
+        }
+
+        /**
+         * Requests the value of getNotes.
+         * 
+         * @return This builder.
+         */
+        public Builder notes()
+        {
+            return add(Notes);
+        }
+
+        /**
+         * Requests the value of getNumberOfProcessors.
+         * 
+         * @return This builder.
+         */
+        public Builder numberOfProcessors()
+        {
+            return add(NumberOfProcessors);
+        }
+
+        /**
+         * Requests the value of getEnabledState.
+         * 
+         * @return This builder.
+         */
+        public Builder enabledState()
+        {
+            return add(EnabledState);
+        }
+
+        /**
+         * Requests the value of getProcessorLoad.
+         * 
+         * @return This builder.
+         */
+        public Builder processorLoad()
+        {
+            return add(ProcessorLoad);
+        }
+
+        /**
+         * Requests the value of getProcessorLoadHistory.
+         * 
+         * @return This builder.
+         */
+        public Builder processorLoadHistory()
+        {
+            return add(ProcessorLoadHistory);
+        }
+
+        /**
+         * Requests the value of getMemoryUsage.
+         * 
+         * @return This builder.
+         */
+        public Builder memoryUsage()
+        {
+            return add(MemoryUsage);
+        }
+
+        /**
+         * Requests the value of getHeartbeat.
+         * 
+         * @return This builder.
+         */
+        public Builder heartbeat()
+        {
+            return add(Heartbeat);
+        }
+
+        /**
+         * Requests the value of getUptime.
+         * 
+         * @return This builder.
+         */
+        public Builder uptime()
+        {
+            return add(Uptime);
+        }
+
+        /**
+         * Requests the value of getGuestOperatingSystem.
+         * 
+         * @return This builder.
+         */
+        public Builder guestOperatingSystem()
+        {
+            return add(GuestOperatingSystem);
+        }
+
+        /**
+         * Requests the value of getHealthState.
+         * 
+         * @return This builder.
+         */
+        public Builder healthState()
+        {
+            return add(HealthState);
+        }
+
+        /**
+         * Requests the value of getOperationalStatus.
+         * 
+         * @return This builder.
+         */
+        public Builder operationalStatus()
+        {
+            return add(OperationalStatus);
+        }
+
+        /**
+         * Requests the value of getStatusDescriptions.
+         * 
+         * @return This builder.
+         */
+        public Builder statusDescriptions()
+        {
+            return add(StatusDescriptions);
+        }
+
+        /**
+         * Requests the value of getMemoryAvailable.
+         * 
+         * @return This builder.
+         */
+        public Builder memoryAvailable()
+        {
+            return add(MemoryAvailable);
+        }
+
+        /**
+         * Requests the value of getAvailableMemoryBuffer.
+         * 
+         * @return This builder.
+         */
+        public Builder availableMemoryBuffer()
+        {
+            return add(AvailableMemoryBuffer);
+        }
+
+        /**
+         * Builds the RequestedInformation.
+         * 
+         * @return The RequestedInformation for the requested codes.
+         */
+        public RequestedInformation build()
+        {
+            final Integer[] arr = this.codes.toArray(new Integer[0]);
+            final String key = Arrays.toString(arr);
+            final RequestedInformation ri = instances.get(key);
+            if (ri != null)
+            {
+                return ri;
+            }
+            final RequestedInformation created = new RequestedInformation(arr);
+            final RequestedInformation existing =
+                instances.putIfAbsent(key, created);
+            return existing != null ? existing : created;
+        }
+    }
+}
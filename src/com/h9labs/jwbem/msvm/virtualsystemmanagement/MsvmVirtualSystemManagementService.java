@@ -25,19 +25,22 @@
 
 package com.h9labs.jwbem.msvm.virtualsystemmanagement;
 
+import java.util.Arrays;
+import java.util.Map;
+import java.util.TreeMap;
 import org.jinterop.dcom.core.IJIComObject;
 import org.jinterop.dcom.core.JIArray;
 import org.jinterop.dcom.core.JIString;
 import org.jinterop.dcom.core.JIVariant;
 import org.jinterop.dcom.impls.JIObjectFactory;
 import org.jinterop.dcom.impls.automation.IJIDispatch;
-import com.h9labs.jwbem.SWbemMethod;
 import com.h9labs.jwbem.SWbemObject;
 import com.h9labs.jwbem.SWbemObjectSet;
 import com.h9labs.jwbem.SWbemServices;
 import com.h9labs.jwbem.msvm.MsvmObject;
 import com.h9labs.jwbem.msvm.virtualsystem.MsvmSummaryInformation;
 import com.h9labs.jwbem.msvm.virtualsystem.MsvmVirtualSystemSettingData;
+import com.h9labs.jwbem.msvm.virtualsystem.RequestedInformation;
 
 /**
  * This class represents the Msvm_VirtualSystemManagementService class.
@@ -47,7 +50,10 @@ import com.h9labs.jwbem.msvm.virtualsystem.MsvmVirtualSystemSettingData;
  */
 public class MsvmVirtualSystemManagementService extends MsvmObject
 {
-    private SWbemMethod getSummaryInformation;
+    /**
+     * The RequestedInformation value for the Name of a virtual system.
+     */
+    private static final Integer NAME = Integer.valueOf(0);
 
     /**
      * Initializes a new instance of the MsvmVirtualSystemManagementService
@@ -105,74 +111,189 @@ public class MsvmVirtualSystemManagementService extends MsvmObject
      *        Values in the 200-299 range apply to snapshots only, and will be
      *        ignored for elements of SettingData which represent virtual
      *        machines.
-     * @return Virtual system summary information.
+     * @return Virtual system summary information, or null if no summary is
+     *         returned.
      * @throws Exception When an error occurs.
+     * @remarks This method fails if more than one summary is returned; use
+     *          getSummaryInformations to retrieve more than one.
      */
     public MsvmSummaryInformation getSummaryInformation(
         MsvmVirtualSystemSettingData[] settingData,
         Integer[] requestedInformation) throws Exception
     {
-        if (this.getSummaryInformation == null)
+        final MsvmSummaryInformation[] summaries =
+            getSummaryInformations(settingData, requestedInformation);
+
+        if (summaries.length == 0)
         {
-            for (final SWbemMethod m : super.getMethods())
-            {
-                if (m.getName().equals("GetSummaryInformation"))
-                {
-                    this.getSummaryInformation = m;
-                }
-            }
+            return null;
         }
-
-        JIString[] sdpaths = new JIString[settingData.length];
-        for (int x = 0; x < sdpaths.length; ++x)
+        if (summaries.length > 1)
         {
-            String path = settingData[x].getObjectPath().getPath();
-            sdpaths[x] = new JIString(path);
+            throw new UnsupportedOperationException("More than one summary.");
         }
 
+        return summaries[0];
+    }
+
+    /**
+     * Returns virtual system summary information for any number of virtual
+     * machines and/or snapshots with a single method call.
+     * 
+     * @param settingData An array of CIM_VirtualSystemSettingData instances
+     *        that specifies the virtual machines and/or snapshots for which
+     *        information is to be retrieved. If this parameter is null,
+     *        information for all virtual machines is retrieved.
+     * @param requestedInformation An array of enumeration values (which
+     *        correspond to the properties in the Msvm_SummaryInformation class)
+     *        that specifies the data to retrieve.
+     * @return Virtual system summary information, one element per virtual
+     *         machine or snapshot.
+     * @throws Exception When an error occurs.
+     */
+    public MsvmSummaryInformation[] getSummaryInformations(
+        MsvmVirtualSystemSettingData[] settingData,
+        Integer[] requestedInformation) throws Exception
+    {
         // Get the IN parameters.
-        SWbemObject inParams = this.getSummaryInformation.getInParameters();
-        inParams.getObjectDispatcher().put(
-            "SettingData",
-            new JIVariant(new JIArray(sdpaths)));
+        final SWbemObject inParams =
+            super.getMethod("GetSummaryInformation").spawnInParameters();
+        if (settingData != null)
+        {
+            JIString[] sdpaths = new JIString[settingData.length];
+            for (int x = 0; x < sdpaths.length; ++x)
+            {
+                String path = settingData[x].getObjectPath().getPath();
+                sdpaths[x] = new JIString(path);
+            }
+            inParams.getObjectDispatcher().put(
+                "SettingData",
+                new JIVariant(new JIArray(sdpaths)));
+        }
         inParams.getObjectDispatcher().put(
             "RequestedInformation",
             new JIVariant(new JIArray(requestedInformation)));
 
-        Object[] methodParams =
-            new Object[]
-            {
-                new JIString("GetSummaryInformation"),
-                new JIVariant(inParams.getObjectDispatcher()), new Integer(0),
-                JIVariant.NULL(),
-            };
-
         // Execute the method.
-        JIVariant[] results =
-            super.objectDispatcher.callMethodA("ExecMethod_", methodParams);
-
-        // Get the out parameters.
-        JIVariant outParamsVar = results[0];
-        IJIComObject co = outParamsVar.getObjectAsComObject();
-        IJIDispatch outParamsDisp =
-            (IJIDispatch) JIObjectFactory.narrowObject(co);
+        final SWbemObject outParams =
+            super.execMethod("GetSummaryInformation", inParams);
 
         // Get the out parameter SummaryInformation and convert it into an
         // array of JIVariants.
-        JIVariant summInfoVars = outParamsDisp.get("SummaryInformation");
+        JIVariant summInfoVars =
+            outParams.getObjectDispatcher().get("SummaryInformation");
+        if (summInfoVars.getType() == JIVariant.VT_NULL
+            || summInfoVars.getType() == JIVariant.VT_EMPTY)
+        {
+            return new MsvmSummaryInformation[0];
+        }
         JIArray summInfoJIArr = summInfoVars.getObjectAsArray();
         JIVariant[] summInfoJIVarArr =
             (JIVariant[]) summInfoJIArr.getArrayInstance();
 
-        if (summInfoJIVarArr.length != 1)
+        final MsvmSummaryInformation[] summaries =
+            new MsvmSummaryInformation[summInfoJIVarArr.length];
+        for (int x = 0; x < summaries.length; ++x)
         {
-            throw new UnsupportedOperationException("More than one summary.");
+            IJIComObject summInfoCo =
+                summInfoJIVarArr[x].getObjectAsComObject();
+            IJIDispatch summInfoDisp =
+                (IJIDispatch) JIObjectFactory.narrowObject(summInfoCo);
+            summaries[x] =
+                new MsvmSummaryInformation(summInfoDisp, this.service);
         }
+        return summaries;
+    }
 
-        IJIComObject summInfoCo = summInfoJIVarArr[0].getObjectAsComObject();
-        IJIDispatch summInfoDisp =
-            (IJIDispatch) JIObjectFactory.narrowObject(summInfoCo);
+    /**
+     * Returns virtual system summary information for any number of virtual
+     * machines with a single method call, indexed by the names (GUIDs) of the
+     * virtual machines.
+     * 
+     * @param settingData An array of CIM_VirtualSystemSettingData instances
+     *        that specifies the virtual machines for which information is to be
+     *        retrieved. If this parameter is null, information for all virtual
+     *        machines is retrieved.
+     * @param requestedInformation An array of enumeration values (which
+     *        correspond to the properties in the Msvm_SummaryInformation class)
+     *        that specifies the data to retrieve. The Name (0) is always
+     *        retrieved.
+     * @return Virtual system summary information by virtual machine name. The
+     *         names are compared without regard to case.
+     * @throws Exception When an error occurs.
+     */
+    public Map<String, MsvmSummaryInformation> getSummaryInformationByName(
+        MsvmVirtualSystemSettingData[] settingData,
+        Integer[] requestedInformation) throws Exception
+    {
+        Integer[] requested = requestedInformation;
+        if (!Arrays.asList(requested).contains(NAME))
+        {
+            requested = new Integer[requestedInformation.length + 1];
+            requested[0] = NAME;
+            System.arraycopy(
+                requestedInformation,
+                0,
+                requested,
+                1,
+                requestedInformation.length);
+        }
+
+        final Map<String, MsvmSummaryInformation> byName =
+            new TreeMap<String, MsvmSummaryInformation>(
+                String.CASE_INSENSITIVE_ORDER);
+        for (final MsvmSummaryInformation summary : getSummaryInformations(
+            settingData,
+            requested))
+        {
+            byName.put(summary.getName(), summary);
+        }
+        return byName;
+    }
 
-        return new MsvmSummaryInformation(summInfoDisp, this.service);
+    /**
+     * Returns virtual system summary information for any number of virtual
+     * machines and/or snapshots with a single method call.
+     * 
+     * @param settingData An array of CIM_VirtualSystemSettingData instances
+     *        that specifies the virtual machines and/or snapshots for which
+     *        information is to be retrieved. If this parameter is null,
+     *        information for all virtual machines is retrieved.
+     * @param requestedInformation The information to retrieve.
+     * @return Virtual system summary information, one element per virtual
+     *         machine or snapshot.
+     * @throws Exception When an error occurs.
+     */
+    public MsvmSummaryInformation[] getSummaryInformations(
+        MsvmVirtualSystemSettingData[] settingData,
+        RequestedInformation requestedInformation) throws Exception
+    {
+        return getSummaryInformations(
+            settingData,
+            requestedInformation.getCodes());
+    }
+
+    /**
+     * Returns virtual system summary information for any number of virtual
+     * machines with a single method call, indexed by the names (GUIDs) of the
+     * virtual machines.
+     * 
+     * @param settingData An array of CIM_VirtualSystemSettingData instances
+     *        that specifies the virtual machines for which information is to be
+     *        retrieved. If this parameter is null, information for all virtual
+     *        machines is retrieved.
+     * @param requestedInformation The information to retrieve. The Name is
+     *        always retrieved.
+     * @return Virtual system summary information by virtual machine name. The
+     *         names are compared without regard to case.
+     * @throws Exception When an error occurs.
+     */
+    public Map<String, MsvmSummaryInformation> getSummaryInformationByName(
+        MsvmVirtualSystemSettingData[] settingData,
+        RequestedInformation requestedInformation) throws Exception
+    {
+        return getSummaryInformationByName(
+            settingData,
+            requestedInformation.getCodes());
     }
 }
@@ -0,0 +1,141 @@
+/*
+ * Copyright (c) 2009, Hyper9 All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer. Redistributions in binary
+ * form must reproduce the above copyright notice, this list of conditions and
+ * the following disclaimer in the documentation and/or other materials provided
+ * with the distribution. Neither the name of Hyper9 nor the names of its
+ * contributors may be used to endorse or promote products derived from this
+ * software without specific prior written permission. THIS SOFTWARE IS PROVIDED
+ * BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO
+ * EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT,
+ * INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+
+package com.h9labs.jwbem.msvm.virtualsystemmanagement;
+
+/**
+ * A fixed-capacity ring of processor load samples, stored as primitives. Once
+ * the ring is full each new sample replaces the oldest one.
+ * 
+ * @author akutz
+ * @see ProcessorLoadSampler
+ */
+public class ProcessorLoadBuffer
+{
+    private final int[] samples;
+
+    /**
+     * The index the next sample is written to.
+     */
+    private int next;
+
+    private int size;
+
+    private long totalCount;
+
+    /**
+     * Initializes a new instance of the ProcessorLoadBuffer class.
+     * 
+     * @param capacity The maximum number of samples kept.
+     */
+    public ProcessorLoadBuffer(int capacity)
+    {
+        if (capacity < 1)
+        {
+            throw new IllegalArgumentException("capacity must be positive.");
+        }
+        this.samples = new int[capacity];
+    }
+
+    /**
+     * Adds samples, oldest first.
+     * 
+     * @param values The array holding the samples.
+     * @param offset The index of the first sample to add.
+     * @param length The number of samples to add.
+     */
+    public synchronized void add(int[] values, int offset, int length)
+    {
+        for (int x = offset; x < offset + length; ++x)
+        {
+            this.samples[this.next] = values[x];
+            this.next = (this.next + 1) % this.samples.length;
+        }
+        this.size = Math.min(this.samples.length, this.size + length);
+        this.totalCount += length;
+    }
+
+    /**
+     * Gets the maximum number of samples kept.
+     * 
+     * @return The maximum number of samples kept.
+     */
+    public int getCapacity()
+    {
+        return this.samples.length;
+    }
+
+    /**
+     * Gets the number of samples kept.
+     * 
+     * @return The number of samples kept.
+     */
+    public synchronized int size()
+    {
+        return this.size;
+    }
+
+    /**
+     * Gets the number of samples ever added.
+     * 
+     * @return The number of samples ever added.
+     */
+    public synchronized long getTotalCount()
+    {
+        return this.totalCount;
+    }
+
+    /**
+     * Gets the most recent sample.
+     * 
+     * @return The most recent sample, or -1 if there are none.
+     */
+    public synchronized int getLatest()
+    {
+        if (this.size == 0)
+        {
+            return -1;
+        }
+        return this.samples[(this.next + this.samples.length - 1)
+            % this.samples.length];
+    }
+
+    /**
+     * Copies the samples kept, oldest first.
+     * 
+     * @return The samples kept, oldest first.
+     */
+    public synchronized int[] toArray()
+    {
+        final int[] arr = new int[this.size];
+        final int start =
+            (this.next - this.size + this.samples.length) % this.samples.length;
+        final int first = Math.min(this.size, this.samples.length - start);
+        System.arraycopy(this.samples, start, arr, 0, first);
+        System.arraycopy(this.samples, 0, arr, first, this.size - first);
+        return arr;
+    }
+}
@@ -0,0 +1,342 @@
+/*
+ * Copyright (c) 2009, Hyper9 All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer. Redistributions in binary
+ * form must reproduce the above copyright notice, this list of conditions and
+ * the following disclaimer in the documentation and/or other materials provided
+ * with the distribution. Neither the name of Hyper9 nor the names of its
+ * contributors may be used to endorse or promote products derived from this
+ * software without specific prior written permission. THIS SOFTWARE IS PROVIDED
+ * BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO
+ * EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT,
+ * INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+
+package com.h9labs.jwbem.msvm.virtualsystemmanagement;
+
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import com.h9labs.jwbem.msvm.virtualsystem.MsvmSummaryInformation;
+import com.h9labs.jwbem.msvm.virtualsystem.RequestedInformation;
+
+/**
+ * Records the processor load of every virtual machine on a host from the
+ * ProcessorLoadHistory of Msvm_SummaryInformation. One GetSummaryInformation
+ * call per sample returns the recent history of all the virtual machines, so
+ * the host can be sampled far less often than the load itself changes.
+ * 
+ * @author akutz
+ * @remarks Successive histories overlap. The number of new samples is
+ *          expected from the time elapsed since the previous history and the
+ *          interval between samples of the history; of the runs of samples at
+ *          the end of the previous history that start the new one, the one
+ *          closest to that expectation is taken as the overlap, and only the
+ *          samples after it are recorded. This keeps flat load (for example
+ *          an idle VM), which matches at every offset, from being mistaken
+ *          for no new samples. Unless the interval is given it is learned
+ *          from histories that line up at exactly one offset, starting from
+ *          DEFAULT_SAMPLE_INTERVAL_MILLIS. If the sampler is called less
+ *          often than the history covers, the missing samples are lost.
+ */
+public class ProcessorLoadSampler
+{
+    /**
+     * The default number of samples kept per virtual machine.
+     */
+    final static public int DEFAULT_CAPACITY = 1000;
+
+    /**
+     * The interval between two samples of a ProcessorLoadHistory that is
+     * assumed until a better one has been learned.
+     */
+    final static public long DEFAULT_SAMPLE_INTERVAL_MILLIS = 1000;
+
+    private static final RequestedInformation REQUESTED =
+        RequestedInformation.builder().name().processorLoadHistory().build();
+
+    private final MsvmVirtualSystemManagementService managementService;
+
+    private final int capacity;
+
+    private final long sampleIntervalMillis;
+
+    /**
+     * The interval between two samples of a history that is used when none
+     * was given; guarded by vms.
+     */
+    private double learnedIntervalMillis = DEFAULT_SAMPLE_INTERVAL_MILLIS;
+
+    /**
+     * The state of each virtual machine, by name.
+     */
+    private final Map<String, VmState> vms =
+        new TreeMap<String, VmState>(String.CASE_INSENSITIVE_ORDER);
+
+    /**
+     * Initializes a new instance of the ProcessorLoadSampler class that keeps
+     * DEFAULT_CAPACITY samples per virtual machine and learns the interval
+     * between two samples of a history.
+     * 
+     * @param managementService The host's management service.
+     */
+    public ProcessorLoadSampler(
+        MsvmVirtualSystemManagementService managementService)
+    {
+        this(managementService, DEFAULT_CAPACITY, 0);
+    }
+
+    /**
+     * Initializes a new instance of the ProcessorLoadSampler class.
+     * 
+     * @param managementService The host's management service.
+     * @param capacity The number of samples kept per virtual machine.
+     * @param sampleIntervalMillis The interval between two samples of a
+     *        ProcessorLoadHistory, or 0 to learn it from the histories.
+     */
+    public ProcessorLoadSampler(
+        MsvmVirtualSystemManagementService managementService,
+        int capacity,
+        long sampleIntervalMillis)
+    {
+        if (capacity < 1 || sampleIntervalMillis < 0)
+        {
+            throw new IllegalArgumentException();
+        }
+        this.managementService = managementService;
+        this.capacity = capacity;
+        this.sampleIntervalMillis = sampleIntervalMillis;
+    }
+
+    /**
+     * Fetches the processor load history of every virtual machine with a
+     * single GetSummaryInformation call and records the new samples. Virtual
+     * machines that no longer exist are forgotten.
+     * 
+     * @return The number of new samples recorded across all virtual machines.
+     * @throws Exception When an error occurs.
+     */
+    public int sample() throws Exception
+    {
+        final MsvmSummaryInformation[] summaries =
+            this.managementService.getSummaryInformations(null, REQUESTED);
+        final long now = System.currentTimeMillis();
+
+        int added = 0;
+        synchronized (this.vms)
+        {
+            final Map<String, VmState> seen =
+                new TreeMap<String, VmState>(String.CASE_INSENSITIVE_ORDER);
+            for (final MsvmSummaryInformation summary : summaries)
+            {
+                final String name = summary.getName();
+                final int[] history = summary.getProcessorLoadHistory();
+                if (name == null || history == null)
+                {
+                    continue;
+                }
+
+                VmState state = this.vms.get(name);
+                if (state == null)
+                {
+                    state = new VmState(this.capacity);
+                }
+                added += state.update(history, now, getIntervalMillis());
+                seen.put(name, state);
+
+                // A history that lines up at exactly one offset shows how
+                // long one sample takes.
+                if (this.sampleIntervalMillis == 0
+                    && state.observedIntervalMillis > 0)
+                {
+                    this.learnedIntervalMillis =
+                        (3 * this.learnedIntervalMillis
+                            + state.observedIntervalMillis) / 4;
+                }
+            }
+
+            final Iterator<String> iter = this.vms.keySet().iterator();
+            while (iter.hasNext())
+            {
+                if (!seen.containsKey(iter.next()))
+                {
+                    iter.remove();
+                }
+            }
+            this.vms.putAll(seen);
+        }
+        return added;
+    }
+
+    /**
+     * Gets the samples of a virtual machine.
+     * 
+     * @param name The name (GUID) of the virtual machine.
+     * @return The samples of the virtual machine, or null if it has not been
+     *         sampled.
+     */
+    public ProcessorLoadBuffer getBuffer(String name)
+    {
+        synchronized (this.vms)
+        {
+            final VmState state = this.vms.get(name);
+            return state == null ? null : state.buffer;
+        }
+    }
+
+    /**
+     * Gets the names of the virtual machines that have been sampled.
+     * 
+     * @return The names (GUIDs) of the virtual machines.
+     */
+    public Set<String> getNames()
+    {
+        synchronized (this.vms)
+        {
+            return Collections.unmodifiableSet(new TreeSet<String>(
+                this.vms.keySet()));
+        }
+    }
+
+    /**
+     * Gets the interval between two samples of a history, as given or as
+     * learned so far.
+     */
+    private double getIntervalMillis()
+    {
+        return this.sampleIntervalMillis > 0
+            ? this.sampleIntervalMillis
+            : this.learnedIntervalMillis;
+    }
+
+    /**
+     * Gets the number of samples at the start of next that repeat samples at
+     * the end of prev.
+     * 
+     * @param prev The previous history.
+     * @param next The new history.
+     * @param expectedNew The number of new samples expected, or -1 if it is
+     *        not known.
+     * @return The number of samples of next that were already recorded.
+     */
+    static int overlap(int[] prev, int[] next, int expectedNew)
+    {
+        final int max = Math.min(prev.length, next.length);
+        final int expected =
+            expectedNew < 0 ? -1 : Math.max(0, next.length - expectedNew);
+
+        int best = 0;
+        for (int k = max; k > 0; --k)
+        {
+            if (!matches(prev, next, k))
+            {
+                continue;
+            }
+            if (expected < 0)
+            {
+                return k;
+            }
+            if (best == 0 || Math.abs(k - expected) < Math.abs(best - expected))
+            {
+                best = k;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Gets a value indicating whether or not prev and next line up at no
+     * other overlap than k.
+     */
+    static boolean isUnique(int[] prev, int[] next, int k)
+    {
+        final int max = Math.min(prev.length, next.length);
+        for (int x = 1; x <= max; ++x)
+        {
+            if (x != k && matches(prev, next, x))
+            {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Gets a value indicating whether the last k samples of prev are the
+     * first k samples of next.
+     */
+    private static boolean matches(int[] prev, int[] next, int k)
+    {
+        final int offset = prev.length - k;
+        for (int x = 0; x < k; ++x)
+        {
+            if (prev[offset + x] != next[x])
+            {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * The samples and last history of a virtual machine.
+     */
+    private static class VmState
+    {
+        final ProcessorLoadBuffer buffer;
+
+        int[] history;
+
+        long sampledAt;
+
+        /**
+         * The interval between two samples seen by the last update, or 0 if
+         * the histories did not show it.
+         */
+        double observedIntervalMillis;
+
+        VmState(int capacity)
+        {
+            this.buffer = new ProcessorLoadBuffer(capacity);
+        }
+
+        int update(int[] next, long now, double sampleIntervalMillis)
+        {
+            int skip = 0;
+            this.observedIntervalMillis = 0;
+            if (this.history != null)
+            {
+                final long elapsed = now - this.sampledAt;
+                final int expectedNew =
+                    (int) Math.min(next.length, Math.round(elapsed
+                        / sampleIntervalMillis));
+                skip = overlap(this.history, next, expectedNew);
+                if (skip > 0 && skip < next.length
+                    && isUnique(this.history, next, skip))
+                {
+                    this.observedIntervalMillis =
+                        elapsed / (double) (next.length - skip);
+                }
+            }
+            this.history = next;
+            this.sampledAt = now;
+            this.buffer.add(next, skip, next.length - skip);
+            return next.length - skip;
+        }
+    }
+}
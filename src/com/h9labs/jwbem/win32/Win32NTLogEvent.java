@@ -27,6 +27,7 @@ package com.h9labs.jwbem.win32;
 
 import java.util.Date;
 import org.jinterop.dcom.impls.automation.IJIDispatch;
+import com.h9labs.jwbem.CIMDateTime;
 import com.h9labs.jwbem.SWbemObject;
 import com.h9labs.jwbem.SWbemServices;
 
@@ -106,9 +107,9 @@ public class Win32NTLogEvent extends SWbemObject
      * @return The list of the binary data that accompanied the report of the
      *         Windows NT event.
      */
-    public short[] getData()
+    public byte[] getData()
     {
-        return super.getProperty("Data", short[].class);
+        return super.getProperty("Data", byte[].class);
     }
 
     /**
@@ -248,6 +249,19 @@ public class Win32NTLogEvent extends SWbemObject
         return super.getProperty("TimeGenerated", Date.class);
     }
 
+    /**
+     * Gets the time that the source generated the event.
+     * 
+     * @return The time that the source generated the event, in microseconds
+     *         since 1970-01-01T00:00:00Z.
+     */
+    public long getTimeGeneratedMicros()
+    {
+        return CIMDateTime.parseMicros(super.getProperty(
+            "TimeGenerated",
+            String.class));
+    }
+
     /**
      * Gets the time the event was written to the log file.
      * 
@@ -257,4 +271,17 @@ public class Win32NTLogEvent extends SWbemObject
     {
         return super.getProperty("TimeWritten", Date.class);
     }
+
+    /**
+     * Gets the time the event was written to the log file.
+     * 
+     * @return The time the event was written to the log file, in microseconds
+     *         since 1970-01-01T00:00:00Z.
+     */
+    public long getTimeWrittenMicros()
+    {
+        return CIMDateTime.parseMicros(super.getProperty(
+            "TimeWritten",
+            String.class));
+    }
 }